@@ -350,6 +350,17 @@ public class Component implements Animation, StyleListener {
 
     }
 
+    /**
+     * Indicates that a pending repaint of this Component was fulfilled by painting
+     * one of its parents, this method is for internal use only and SHOULD NOT be invoked by user code.
+     */
+    public final void repaintCoalesced() {
+        synchronized (dirtyRegionLock) {
+            this.dirtyRegion = null;
+            repaintPending = false;
+        }
+    }
+
     /**
      * Toggles visibility of the component
      * 
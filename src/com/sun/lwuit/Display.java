@@ -29,6 +29,7 @@ import com.sun.lwuit.animations.Transition;
 import com.sun.lwuit.events.ActionEvent;
 import com.sun.lwuit.events.ActionListener;
 import com.sun.lwuit.geom.Dimension;
+import com.sun.lwuit.impl.FrameScheduler;
 import com.sun.lwuit.impl.ImplementationFactory;
 import com.sun.lwuit.impl.LWUITImplementation;
 import com.sun.lwuit.impl.VirtualKeyboardInterface;
@@ -199,6 +200,16 @@ public final class Display {
      */
     private int framerateLock = 30;
 
+    /**
+     * Decides when the EDT starts a frame
+     */
+    private FrameScheduler frameScheduler;
+
+    /**
+     * The timestamp of the frame processed by the EDT or 0 between frames
+     */
+    private long frameTime;
+
     /**
      * Game action for fire
      */
@@ -239,9 +250,17 @@ public final class Display {
 
 
     /**
-     * Contains the call serially pending elements
+     * Ring buffer of the call serially pending elements, guarded by the lock
+     */
+    private Runnable[] pendingSerialCalls = new Runnable[16];
+    private int serialCallsHead;
+    private int serialCallsSize;
+
+    /**
+     * The number of serial calls removed from the queue so far, allows a drain to stop
+     * at the calls that were pending when it started even if drains are nested
      */
-    private Vector pendingSerialCalls = new Vector();
+    private int serialCallsTaken;
 
     /**
      * This is the instance of the EDT used internally to indicate whether
@@ -296,7 +315,22 @@ public final class Display {
     /**
      * Events to broadcast on the EDT
      */
-    private Vector inputEvents = new Vector();
+    private InputEventQueue inputEvents = new InputEventQueue(32);
+
+    /**
+     * Records into which the EDT copies the event it handles, one per nesting level
+     * of the event loop since invokeAndBlock can handle events within an event
+     */
+    private int[][] eventRecords = new int[2][];
+    private int eventDepth;
+
+    /**
+     * Reused for the coordinates of single point pointer events, one per nesting level
+     * like the event records since a form might keep the arrays while invokeAndBlock
+     * handles nested events
+     */
+    private int[][] singlePointerX = new int[2][1];
+    private int[][] singlePointerY = new int[2][1];
 
     private boolean longPointerCharged;
     private boolean pointerPressedAndNotReleasedOrDragged;
@@ -320,6 +354,24 @@ public final class Display {
     private int dragPathOffset = 0;
     private int dragPathLength = 0;
 
+    /**
+     * The drag history is written by the native thread ahead of the EDT, every entry
+     * is tagged with the press that started its gesture. The native thread counts the
+     * presses as they arrive and the EDT as it handles them, so getDragSpeed() only
+     * sees the gesture the EDT is currently processing
+     */
+    private int[] dragPathGesture;
+    private int queuedGesture;
+    private int handledGesture;
+
+    /**
+     * Indicates whether drag events that arrive before the EDT processed the previous
+     * drag event are merged into a single event
+     */
+    private boolean coalesceDragEvents = true;
+    private int dragEventCount;
+    private int coalescedDragEventCount;
+
      /**
      * Internally track display initialization time as a fixed point to allow tagging of pointer
      * events with an integer timestamp (System.currentTimeMillis() - displayInitTime)
@@ -407,6 +459,10 @@ public final class Display {
 
             INSTANCE.impl.setDisplayLock(lock);
             INSTANCE.impl.init(m);
+            if(INSTANCE.frameScheduler != null) {
+                INSTANCE.frameScheduler.stop();
+            }
+            INSTANCE.frameScheduler = INSTANCE.impl.createFrameScheduler();
             INSTANCE.lwuitGraphics = new Graphics(INSTANCE.impl.getNativeGraphics());
             INSTANCE.impl.setLWUITGraphics(INSTANCE.lwuitGraphics);
 
@@ -436,6 +492,7 @@ public final class Display {
             INSTANCE.dragPathX = new float[INSTANCE.PATHLENGTH];
             INSTANCE.dragPathY = new float[INSTANCE.PATHLENGTH];
             INSTANCE.dragPathTime = new long[INSTANCE.PATHLENGTH];
+            INSTANCE.dragPathGesture = new int[INSTANCE.PATHLENGTH];
 
             // this can happen on some cases where an application was restarted etc...
             // generally its probably a bug but we can let it slide...
@@ -580,6 +637,45 @@ public final class Display {
         return 1000 / framerateLock;
     }
 
+    /**
+     * Replaces the object deciding when the EDT starts a frame, by default the
+     * implementation provides a scheduler appropriate for the platform
+     *
+     * @param frameScheduler the new frame scheduler
+     */
+    public void setFrameScheduler(FrameScheduler frameScheduler) {
+        synchronized(lock) {
+            if(this.frameScheduler != null && this.frameScheduler != frameScheduler) {
+                this.frameScheduler.stop();
+            }
+            this.frameScheduler = frameScheduler;
+        }
+    }
+
+    /**
+     * Returns the object deciding when the EDT starts a frame
+     *
+     * @return the frame scheduler
+     */
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * Returns the timestamp of the frame currently processed by the EDT, all the
+     * animations of a frame see the same time so they advance in even steps. Outside
+     * of a frame or off the EDT this is the current time.
+     *
+     * @return the frame time in System.currentTimeMillis() units
+     */
+    public long getFrameTime() {
+        long t = frameTime;
+        if(t != 0 && isEdt()) {
+            return t;
+        }
+        return System.currentTimeMillis();
+    }
+
     /**
      * Returns true if we are currently in the event dispatch thread.
      * This is useful for generic code that can be used both with the
@@ -608,7 +704,18 @@ public final class Display {
      */
     public void callSerially(Runnable r){
         synchronized(lock) {
-            pendingSerialCalls.addElement(r);
+            Runnable[] arr = pendingSerialCalls;
+            if(serialCallsSize == arr.length) {
+                Runnable[] n = new Runnable[arr.length * 2];
+                for(int iter = 0 ; iter < serialCallsSize ; iter++) {
+                    n[iter] = arr[(serialCallsHead + iter) % arr.length];
+                }
+                pendingSerialCalls = n;
+                serialCallsHead = 0;
+                arr = n;
+            }
+            arr[(serialCallsHead + serialCallsSize) % arr.length] = r;
+            serialCallsSize++;
             lock.notify();
         }
     }
@@ -774,6 +881,7 @@ public final class Display {
                 // getting "lost"
                  synchronized(lock){
                      if(shouldEDTSleep()) {
+                         frameScheduler.idle();
                          impl.edtIdle(true);
                          lock.wait();
                          impl.edtIdle(false);
@@ -792,29 +900,31 @@ public final class Display {
                 }
             }
         }
+        frameScheduler.stop();
         INSTANCE.impl.deinitialize();
         //INSTANCE.impl = null;
         //INSTANCE.lwuitGraphics = null;
         INSTANCE.edt = null;
     }
 
-    long time;
-
     /**
-     * Implementation of the event dispatch loop content
+     * Implementation of the event dispatch loop content, every pass is a single frame
+     * which runs its phases in order: input and serial calls, animations and finally
+     * the painting of everything that became dirty during the frame
      */
     void edtLoopImpl() {
+        long currentFrame;
         try {
             // transitions shouldn't be bound by framerate
             if(animationQueue == null || animationQueue.size() == 0) {
                 // prevents us from waking up the EDT too much and
-                // thus exhausting the systems resources. The + 1
-                // prevents us from ever waiting 0 milliseconds which
-                // is the same as waiting with no time limit
+                // thus exhausting the systems resources.
                 if(!noSleep){
                     synchronized(lock){
-                        lock.wait(Math.max(1, framerateLock - (time)));
+                        currentFrame = frameScheduler.waitForFrame(lock, framerateLock);
                     }
+                } else {
+                    currentFrame = System.currentTimeMillis();
                 }
             } else {
                 // paint transition or intro animations and don't do anything else if such
@@ -824,43 +934,95 @@ public final class Display {
             }
         } catch(Exception ignor) {
             ignor.printStackTrace();
+            currentFrame = System.currentTimeMillis();
         }
-        long currentTime = System.currentTimeMillis();
-
-        while(inputEvents.size() > 0) {
-            int[] i = (int[])inputEvents.elementAt(0);
-            inputEvents.removeElementAt(0);
-            handleEvent(i);
-        }
-
-        lwuitGraphics.setGraphics(impl.getNativeGraphics());
-        impl.paintDirty();
+        frameTime = currentFrame;
+        try {
+            // input phase
+            processInputEvents();
+
+            Form current = impl.getCurrentForm();
+            if(current != null){
+                // check key repeat events
+                long t = System.currentTimeMillis();
+                if(keyRepeatCharged && nextKeyRepeatEvent <= t) {
+                    current.keyRepeated(keyRepeatValue);
+                    nextKeyRepeatEvent = t + keyRepeatNextIntervalTime;
+                }
+                if(longPressCharged && longPressInterval <= t - longKeyPressTime) {
+                    longPressCharged = false;
+                    current.longKeyPress(keyRepeatValue);
+                }
+                if(longPointerCharged && longPressInterval <= t - longKeyPressTime) {
+                    longPointerCharged = false;
+                    current.longPointerPress(pointerX, pointerY);
+                }
+                processSerialCalls();
 
-        // draw the animations
-        Form current = impl.getCurrentForm();
-        if(current != null){
-            current.repaintAnimations();
-            // check key repeat events
-            long t = System.currentTimeMillis();
-            if(keyRepeatCharged && nextKeyRepeatEvent <= t) {
-                current.keyRepeated(keyRepeatValue);
-                nextKeyRepeatEvent = t + keyRepeatNextIntervalTime;
-            }
-            if(longPressCharged && longPressInterval <= t - longKeyPressTime) {
-                longPressCharged = false;
-                current.longKeyPress(keyRepeatValue);
+                // animation phase, the input might have replaced the current form
+                current = impl.getCurrentForm();
+                if(current != null) {
+                    current.repaintAnimations();
+                }
             }
-            if(longPointerCharged && longPressInterval <= t - longKeyPressTime) {
-                longPointerCharged = false;
-                current.longPointerPress(pointerX, pointerY);
+
+            // paint phase, frames in which nothing changed don't touch the screen
+            if(impl.hasPendingPaints()) {
+                lwuitGraphics.setGraphics(impl.getNativeGraphics());
+                impl.paintDirty();
             }
-            processSerialCalls();
+        } finally {
+            frameTime = 0;
         }
-        time = System.currentTimeMillis() - currentTime;
     }
 
     boolean hasNoSerialCallsPending() {
-        return pendingSerialCalls.size() == 0;
+        return serialCallsSize == 0;
+    }
+
+    /**
+     * Handles the pending input events including events that arrive while the queue
+     * is processed, each event is copied into a record owned by the current nesting
+     * level so the queue slot can be reused immediately
+     */
+    private void processInputEvents() {
+        int depth = eventDepth;
+        eventDepth++;
+        try {
+            while(true) {
+                int[] ev;
+                int length;
+                synchronized(lock) {
+                    length = inputEvents.peekLength();
+                    if(length < 0) {
+                        return;
+                    }
+                    if(depth >= eventRecords.length) {
+                        int[][] n = new int[depth + 2][];
+                        System.arraycopy(eventRecords, 0, n, 0, eventRecords.length);
+                        eventRecords = n;
+                        n = new int[depth + 2][1];
+                        System.arraycopy(singlePointerX, 0, n, 0, singlePointerX.length);
+                        singlePointerX = n;
+                        n = new int[depth + 2][1];
+                        System.arraycopy(singlePointerY, 0, n, 0, singlePointerY.length);
+                        singlePointerY = n;
+                    }
+                    ev = eventRecords[depth];
+                    if(ev == null || ev.length < length) {
+                        ev = new int[Math.max(length, 8)];
+                        eventRecords[depth] = ev;
+                    }
+                    inputEvents.removeFirst(ev);
+                    if(ev[0] == POINTER_PRESSED) {
+                        handledGesture++;
+                    }
+                }
+                handleEvent(ev, length, depth);
+            }
+        } finally {
+            eventDepth = depth;
+        }
     }
 
     /**
@@ -879,31 +1041,28 @@ public final class Display {
      * Used by the EDT to process all the calls submitted via call serially
      */
     void processSerialCalls() {
+        boolean nested = processingSerialCalls;
         processingSerialCalls = true;
-        int size = pendingSerialCalls.size();
-        if(size > 0) {
-            Runnable[] array = null;
+        if(serialCallsSize > 0) {
+            int end;
             synchronized(lock) {
-                size = pendingSerialCalls.size();
-                array = new Runnable[size];
-
-                // copy all elements to an array and remove them otherwise invokeAndBlock from
-                // within a callSerially() can cause an infinite loop...
-                pendingSerialCalls.copyInto(array);
-
-                if(size == pendingSerialCalls.size()) {
-                    // this is faster
-                    pendingSerialCalls.removeAllElements();
-                } else {
-                    // this can occur if an element was added during the loop
-                    for(int iter = 0 ; iter < size ; iter++) {
-                        pendingSerialCalls.removeElementAt(0);
+                // only process the calls pending right now otherwise a call that posts itself
+                // again or invokeAndBlock from within a callSerially() can cause an infinite loop...
+                end = serialCallsTaken + serialCallsSize;
+            }
+            while(true) {
+                Runnable r;
+                synchronized(lock) {
+                    if(serialCallsSize == 0 || end - serialCallsTaken <= 0) {
+                        break;
                     }
+                    r = pendingSerialCalls[serialCallsHead];
+                    pendingSerialCalls[serialCallsHead] = null;
+                    serialCallsHead = (serialCallsHead + 1) % pendingSerialCalls.length;
+                    serialCallsSize--;
+                    serialCallsTaken++;
                 }
-            }
-
-            for(int iter = 0 ; iter < size ; iter++) {
-                array[iter].run();
+                r.run();
             }
 
             // after finishing an event cycle there might be serial calls waiting
@@ -912,7 +1071,7 @@ public final class Display {
                 lock.notify();
             }
         }
-        processingSerialCalls = false;
+        processingSerialCalls = nested;
     }
 
     boolean isProcessingSerialCalls() {
@@ -1249,48 +1408,84 @@ public final class Display {
         getImplementation().restoreMinimizedApplication();
     }
 
-    private void addInputEvent(int[] ev) {
+    private boolean isDroppedEvent(int type) {
+        return this.dropEvents && (type == KEY_PRESSED || type == KEY_RELEASED
+                    || type == POINTER_PRESSED || type == POINTER_RELEASED
+                    || type == POINTER_DRAGGED || type == POINTER_HOVER);
+    }
+
+    /**
+     * Queues an event with up to two values, the values beyond length are ignored
+     */
+    private void addInputEvent(int type, int length, int value1, int value2) {
         synchronized(lock) {
-            if (this.dropEvents && (ev[0] == KEY_PRESSED || ev[0] == KEY_RELEASED
-                    || ev[0] == POINTER_PRESSED || ev[0] == POINTER_RELEASED
-                    || ev[0] == POINTER_DRAGGED || ev[0] == POINTER_HOVER)) {
+            if (isDroppedEvent(type)) {
                 return;
             }
-            inputEvents.addElement(ev);
+            int[] ev = inputEvents.reserve(length);
+            ev[0] = type;
+            if(length > 1) {
+                ev[1] = value1;
+                if(length > 2) {
+                    ev[2] = value2;
+                }
+            }
+            inputEvents.commit();
             lock.notify();
         }
     }
 
     /**
-     * Creates a pointer event with the following properties
+     * Queues a pointer event with the following properties
      */
-    private int[] createPointerEvent(int[] x, int[] y, int eventType) {
+    private void addPointerEvent(int[] x, int[] y, int eventType) {
         // apply timestamp early to ensure the timing happens on the native UI
         // thread and not later on the EDT.
         final int stamp = (int) (System.currentTimeMillis() - displayInitTime);
-        if (x.length == 1) {
-            return new int[]{eventType, x[0], y[0], stamp};
-         }
-        int[] arr = new int[2 + x.length * 2];
-
-        arr[0] = eventType;
-        int arrayOffset = 1;
-        for(int iter = 0 ; iter < x.length ; iter++) {
-            arr[arrayOffset] = x[iter];
-            arrayOffset++;
-            arr[arrayOffset] = y[iter];
-            arrayOffset++;
-        }
-        arr[arrayOffset] = stamp;
-        return arr;
-    }
-
+        synchronized(lock) {
+            if (isDroppedEvent(eventType)) {
+                return;
+            }
 
-    private int[] createKeyEvent(int keyCode, boolean pressed) {
-        if(pressed) {
-            return new int[] {KEY_PRESSED, keyCode};
-        } else {
-            return new int[] {KEY_RELEASED, keyCode};
+            // the drag history is kept as the events arrive so merged drag events
+            // don't affect the drag speed
+            switch(eventType) {
+                case POINTER_PRESSED:
+                    queuedGesture++;
+                    break;
+                case POINTER_DRAGGED:
+                    dragEventCount++;
+                    updateDragSpeedStatus(x[0], y[0], stamp);
+                    break;
+                case POINTER_HOVER:
+                    updateDragSpeedStatus(x[0], y[0], stamp);
+                    break;
+            }
+            int length = 2 + x.length * 2;
+            int[] arr = null;
+            if(eventType == POINTER_DRAGGED && coalesceDragEvents) {
+                arr = inputEvents.peekLast(POINTER_DRAGGED, length);
+            }
+            boolean merged = arr != null;
+            if(merged) {
+                // the EDT didn't get to the previous drag yet, move it to the new location
+                coalescedDragEventCount++;
+            } else {
+                arr = inputEvents.reserve(length);
+            }
+            arr[0] = eventType;
+            int arrayOffset = 1;
+            for(int iter = 0 ; iter < x.length ; iter++) {
+                arr[arrayOffset] = x[iter];
+                arrayOffset++;
+                arr[arrayOffset] = y[iter];
+                arrayOffset++;
+            }
+            arr[arrayOffset] = stamp;
+            if(!merged) {
+                inputEvents.commit();
+            }
+            lock.notify();
         }
     }
 
@@ -1306,7 +1501,7 @@ public final class Display {
         if(impl.getCurrentForm() == null){
             return;
         }
-        addInputEvent(createKeyEvent(keyCode, true));
+        addInputEvent(KEY_PRESSED, 2, keyCode, 0);
 
         lastInteractionWasKeypad = lastInteractionWasKeypad || (keyCode != MenuBar.leftSK && keyCode != MenuBar.clearSK && keyCode != MenuBar.backSK);
 
@@ -1348,7 +1543,7 @@ public final class Display {
         } else {
             lastKeyPressed = 0;
         }
-        addInputEvent(createKeyEvent(keyCode, false));
+        addInputEvent(KEY_RELEASED, 2, keyCode, 0);
     }
 
     void keyRepeatedInternal(final int keyCode){
@@ -1365,7 +1560,7 @@ public final class Display {
             return;
         }
         longPointerCharged = false;
-        addInputEvent(createPointerEvent(x, y, POINTER_DRAGGED));
+        addPointerEvent(x, y, POINTER_DRAGGED);
     }
 
     /**
@@ -1378,7 +1573,7 @@ public final class Display {
         if(impl.getCurrentForm() == null){
             return;
         }
-        addInputEvent(createPointerEvent(x, y, POINTER_HOVER));
+        addPointerEvent(x, y, POINTER_HOVER);
     }
 
 
@@ -1392,7 +1587,7 @@ public final class Display {
         if(impl.getCurrentForm() == null){
             return;
         }
-        addInputEvent(createPointerEvent(x, y, POINTER_HOVER_PRESSED));
+        addPointerEvent(x, y, POINTER_HOVER_PRESSED);
     }
 
     /**
@@ -1405,7 +1600,7 @@ public final class Display {
         if(impl.getCurrentForm() == null){
             return;
         }
-        addInputEvent(createPointerEvent(x, y, POINTER_HOVER_RELEASED));
+        addPointerEvent(x, y, POINTER_HOVER_RELEASED);
     }
 
     /**
@@ -1427,7 +1622,7 @@ public final class Display {
         longKeyPressTime = System.currentTimeMillis();
         pointerX = x[0];
         pointerY = y[0];
-        addInputEvent(createPointerEvent(x, y, POINTER_PRESSED));
+        addPointerEvent(x, y, POINTER_PRESSED);
     }
 
     /**
@@ -1441,7 +1636,7 @@ public final class Display {
         if(impl.getCurrentForm() == null){
             return;
         }
-        addInputEvent(createPointerEvent(x, y, POINTER_RELEASED));
+        addPointerEvent(x, y, POINTER_RELEASED);
     }
 
     /**
@@ -1460,11 +1655,7 @@ public final class Display {
             return;
         }
 
-        addInputEvent(createSizeChangedEvent(w, h));
-    }
-
-    private int[] createSizeChangedEvent(int w, int h) {
-        return new int[] {SIZE_CHANGED, w, h};
+        addInputEvent(SIZE_CHANGED, 3, w, h);
     }
 
 
@@ -1477,7 +1668,7 @@ public final class Display {
         longPressCharged = false;
         longPointerCharged = false;
         pointerPressedAndNotReleasedOrDragged = false;
-        addInputEvent(new int[]{HIDE_NOTIFY});
+        addInputEvent(HIDE_NOTIFY, 1, 0, 0);
     }
 
     /**
@@ -1485,7 +1676,7 @@ public final class Display {
      * to notify LWUIT of showNotify events
      */
     public void showNotify(){
-        addInputEvent(new int[]{SHOW_NOTIFY});
+        addInputEvent(SHOW_NOTIFY, 1, 0, 0);
     }
 
 
@@ -1503,11 +1694,12 @@ public final class Display {
         return b;
     }
 
-    private void updateDragSpeedStatus(int[] ev) {
+    private void updateDragSpeedStatus(int x, int y, int stamp) {
             //save dragging input to calculate the dragging speed later
-            dragPathX[dragPathOffset] = pointerEvent(1, ev)[0];
-            dragPathY[dragPathOffset] = pointerEvent(2, ev)[0];
-            dragPathTime[dragPathOffset] = displayInitTime + (long) ev[ev.length - 1];
+            dragPathX[dragPathOffset] = x;
+            dragPathY[dragPathOffset] = y;
+            dragPathTime[dragPathOffset] = displayInitTime + (long) stamp;
+            dragPathGesture[dragPathOffset] = queuedGesture;
             if (dragPathLength < PATHLENGTH) {
                 dragPathLength++;
             }
@@ -1520,7 +1712,7 @@ public final class Display {
     /**
      * Invoked on the EDT to propagate the event
      */
-    private void handleEvent(int[] ev) {
+    private void handleEvent(int[] ev, int length, int depth) {
         Form f = getCurrentUpcomingForm(true);
 
         // might happen when returning from a deinitialized version of LWUIT
@@ -1537,29 +1729,26 @@ public final class Display {
             break;
         case POINTER_PRESSED:
             dragOccured = false;
-            dragPathLength = 0;
             pointerPressedAndNotReleasedOrDragged = true;
-            f.pointerPressed(pointerEvent(1, ev), pointerEvent(2, ev));
+            f.pointerPressed(pointerEvent(1, ev, length, depth), pointerEvent(2, ev, length, depth));
             break;
         case POINTER_RELEASED:
             pointerPressedAndNotReleasedOrDragged = false;
-            f.pointerReleased(pointerEvent(1, ev), pointerEvent(2, ev));
+            f.pointerReleased(pointerEvent(1, ev, length, depth), pointerEvent(2, ev, length, depth));
             break;
         case POINTER_DRAGGED:
             dragOccured = true;
-            updateDragSpeedStatus(ev);
             pointerPressedAndNotReleasedOrDragged = false;
-            f.pointerDragged(pointerEvent(1, ev), pointerEvent(2, ev));
+            f.pointerDragged(pointerEvent(1, ev, length, depth), pointerEvent(2, ev, length, depth));
             break;
         case POINTER_HOVER:
-            updateDragSpeedStatus(ev);
-            f.pointerHover(pointerEvent(1, ev), pointerEvent(2, ev));
+            f.pointerHover(pointerEvent(1, ev, length, depth), pointerEvent(2, ev, length, depth));
             break;
         case POINTER_HOVER_RELEASED:
-            f.pointerHoverReleased(pointerEvent(1, ev), pointerEvent(2, ev));
+            f.pointerHoverReleased(pointerEvent(1, ev, length, depth), pointerEvent(2, ev, length, depth));
             break;
         case POINTER_HOVER_PRESSED:
-            f.pointerHoverPressed(pointerEvent(1, ev), pointerEvent(2, ev));
+            f.pointerHoverPressed(pointerEvent(1, ev, length, depth), pointerEvent(2, ev, length, depth));
             break;
         case SIZE_CHANGED:
             f.sizeChangedInternal(ev[1], ev[2]);
@@ -1584,10 +1773,21 @@ public final class Display {
        return dragOccured;
     }
 
-    private int[] pointerEvent(int off, int[] event) {
-        int[] peX = new int[(event.length - 1) / 2];
+    private int[] pointerEvent(int off, int[] event, int length, int depth) {
+        int[] peX;
+        if(length == 4) {
+            // single touch events are by far the most common, the arrays are reused
+            // just like the implementation does for the native events
+            if(off == 1) {
+                peX = singlePointerX[depth];
+            } else {
+                peX = singlePointerY[depth];
+            }
+        } else {
+            peX = new int[(length - 1) / 2];
+        }
         int offset = 0;
-        for (int iter = off; iter < (event.length - 1); iter += 2) {
+        for (int iter = off; iter < (length - 1); iter += 2) {
             peX[offset] = event[iter];
             offset++;
         }
@@ -1928,14 +2128,80 @@ public final class Display {
      */
     public float getDragSpeed(boolean yAxis){
         float speed;
-        if(yAxis){
-            speed = impl.getDragSpeed(dragPathY, dragPathTime, dragPathOffset, dragPathLength);
-        }else{
-            speed = impl.getDragSpeed(dragPathX, dragPathTime, dragPathOffset, dragPathLength);
+        // the drag history is updated by the native thread as events arrive
+        synchronized(lock) {
+            // skip the entries of gestures the EDT didn't reach yet and count the
+            // entries of the current gesture that precede them
+            int end = dragPathOffset;
+            int remaining = dragPathLength;
+            while(remaining > 0 && dragPathGesture[previousDragPathOffset(end)] != handledGesture) {
+                end = previousDragPathOffset(end);
+                remaining--;
+            }
+            int length = 0;
+            int offset = end;
+            while(length < remaining && dragPathGesture[previousDragPathOffset(offset)] == handledGesture) {
+                offset = previousDragPathOffset(offset);
+                length++;
+            }
+            if(yAxis){
+                speed = impl.getDragSpeed(dragPathY, dragPathTime, end, length);
+            }else{
+                speed = impl.getDragSpeed(dragPathX, dragPathTime, end, length);
+            }
         }
         return speed;
     }
 
+    private int previousDragPathOffset(int offset) {
+        if(offset == 0) {
+            return PATHLENGTH - 1;
+        }
+        return offset - 1;
+    }
+
+    /**
+     * Indicates whether drag events that arrive while the EDT hasn't processed the
+     * previous drag event yet are merged into one event carrying the latest location.
+     * During fast scrolling the native platform can deliver several drag events per
+     * frame, merging them avoids a scroll and repaint cycle per event. The drag speed
+     * is computed from all the events regardless of this setting.
+     *
+     * @param coalesceDragEvents true to merge drag events, this is the default
+     */
+    public void setCoalesceDragEvents(boolean coalesceDragEvents) {
+        this.coalesceDragEvents = coalesceDragEvents;
+    }
+
+    /**
+     * Indicates whether drag events that arrive while the EDT hasn't processed the
+     * previous drag event yet are merged into one event
+     *
+     * @return true if drag events are merged
+     */
+    public boolean isCoalesceDragEvents() {
+        return coalesceDragEvents;
+    }
+
+    /**
+     * Returns the number of drag events received from the platform
+     *
+     * @return the number of drag events
+     */
+    public int getDragEventCount() {
+        return dragEventCount;
+    }
+
+    /**
+     * Returns the number of drag events that were merged into a pending drag event
+     * rather than being delivered on their own
+     *
+     * @return the number of merged drag events
+     */
+    public int getCoalescedDragEventCount() {
+        return coalescedDragEventCount;
+    }
+
     /**
      * Indicates whether LWUIT should consider the bidi RTL algorithm
      * when drawing text or navigating with the text field cursor.
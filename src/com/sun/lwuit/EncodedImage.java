@@ -23,6 +23,7 @@
  */
 package com.sun.lwuit;
 
+import com.sun.lwuit.geom.Dimension;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,7 +31,7 @@ import java.io.InputStream;
 /**
  * An image that only keeps the binary data of the source file used to load it
  * in permanent memory. This allows the bitmap to get collected while the binary
- * data remains, a weak reference is used for caching.
+ * data remains, the decoded image is cached in the global {@link ImageCache}.
  *
  * @author Shai Almog
  */
@@ -40,9 +41,16 @@ public class EncodedImage extends Image {
     private int height = -1;
     private boolean opaqueChecked = false;
     private boolean opaque = false;
-    private Object cache;
-    private Image hardCache;
     private boolean locked;
+    private boolean asyncDecode;
+    private Image placeholder;
+    private int decodePriority;
+    private boolean changePending;
+
+    /**
+     * Indicates that the image is queued for decoding, guarded by the decoder lock
+     */
+    boolean decodePending;
     
     private EncodedImage(byte[] imageData) {
         super(null);
@@ -66,7 +74,10 @@ public class EncodedImage extends Image {
      * A subclass might choose to load asynchroniously and reset the cache when the image is ready.
      */
     protected void resetCache() {
-        cache = null;
+        ImageCache.getInstance().remove(this);
+
+        // scaled versions are decoded from the image data which might have changed
+        ImageCache.getInstance().removeScaled(this);
     }
 
     /**
@@ -112,32 +123,23 @@ public class EncodedImage extends Image {
     }
 
     private Image getInternalImpl() {
-        if(hardCache != null) {
-            return hardCache;
-        }
-        Image i = getInternal();
-        if(locked) {
-            hardCache = i;
-        }
-        return i;
+        return getInternal();
     }
 
     /**
      * Returns the actual image represented by the encoded image, this image will
-     * be cached in a weak/soft reference internally. This method is useful to detect
+     * be cached in the global image cache. This method is useful to detect
      * when the system actually created an image instance. You shouldn't invoke this
      * method manually!
      *
      * @return drawable image instance
      */
     protected Image getInternal() {
-        if(cache != null) {
-            Image i = (Image)Display.getInstance().extractHardRef(cache);
-            if(i != null) {
-                return i;
-            }
+        ImageCache c = ImageCache.getInstance();
+        Image i = c.get(this);
+        if(i != null) {
+            return i;
         }
-        Image i;
         try {
             byte[] b = getImageData();
             i = Image.createImage(b, 0, b.length);
@@ -145,7 +147,7 @@ public class EncodedImage extends Image {
             err.printStackTrace();
             i = Image.createImage(5, 5);
         }
-        cache = Display.getInstance().createSoftWeakRef(i);
+        c.put(this, i);
         return i;
     }
 
@@ -153,9 +155,9 @@ public class EncodedImage extends Image {
      * @inheritDoc
      */
     public void lock() {
-        locked = true;
-        if(cache != null) {
-            hardCache = (Image)Display.getInstance().extractHardRef(cache);
+        if(!locked) {
+            locked = true;
+            ImageCache.getInstance().pin(this);
         }
     }
 
@@ -163,12 +165,10 @@ public class EncodedImage extends Image {
      * @inheritDoc
      */
     public void unlock() {
-        if(hardCache != null) {
-            if(cache == null || Display.getInstance().extractHardRef(cache) == null) {
-                cache = Display.getInstance().createSoftWeakRef(hardCache);
-            }
+        if(locked) {
+            locked = false;
+            ImageCache.getInstance().unpin(this);
         }
-        locked = false;
     }
 
     /**
@@ -239,18 +239,130 @@ public class EncodedImage extends Image {
         return height;
     }
 
+    /**
+     * Returns the image that should be drawn, in async decode mode this schedules
+     * the decoding and returns the placeholder until the image is decoded
+     */
+    private Image getDrawableImage() {
+        if(!asyncDecode) {
+            return getInternalImpl();
+        }
+        Image i = ImageCache.getInstance().get(this);
+        if(i != null) {
+            return i;
+        }
+        ImageDecoder.decode(this);
+        return placeholder;
+    }
+
+    /**
+     * Invoked on the EDT when the async decoding completes
+     */
+    void decodeCompleted(Image i) {
+        ImageCache.getInstance().put(this, i);
+        changePending = true;
+    }
+
     /**
      * @inheritDoc
      */
     protected void drawImage(Graphics g, Object nativeGraphics, int x, int y) {
-        getInternalImpl().drawImage(g, nativeGraphics, x, y);
+        Image i = getDrawableImage();
+        if(i != null) {
+            i.drawImage(g, nativeGraphics, x, y);
+        }
     }
 
     /**
      * @inheritDoc
      */
     protected void drawImage(Graphics g, Object nativeGraphics, int x, int y, int w, int h) {
-        getInternalImpl().drawImage(g, nativeGraphics, x, y, w, h);
+        Image i = getDrawableImage();
+        if(i != null) {
+            i.drawImage(g, nativeGraphics, x, y, w, h);
+        }
+    }
+
+    /**
+     * Indicates whether the image is decoded on a background thread when it is first
+     * drawn, the placeholder is drawn until the image is decoded. Async images are
+     * animations so the component holding them repaints once the image is ready,
+     * hence this must be set before the image is placed in a component.
+     *
+     * @return true if the image is decoded in the background
+     */
+    public boolean isAsyncDecode() {
+        return asyncDecode;
+    }
+
+    /**
+     * Indicates whether the image is decoded on a background thread when it is first
+     * drawn, the placeholder is drawn until the image is decoded. Async images are
+     * animations so the component holding them repaints once the image is ready,
+     * hence this must be set before the image is placed in a component.
+     *
+     * @param asyncDecode true to decode the image in the background
+     */
+    public void setAsyncDecode(boolean asyncDecode) {
+        this.asyncDecode = asyncDecode;
+    }
+
+    /**
+     * The image drawn while the image is decoded in async decode mode, if null
+     * nothing is drawn
+     *
+     * @return the placeholder image
+     */
+    public Image getPlaceholder() {
+        return placeholder;
+    }
+
+    /**
+     * The image drawn while the image is decoded in async decode mode, if null
+     * nothing is drawn
+     *
+     * @param placeholder the placeholder image
+     */
+    public void setPlaceholder(Image placeholder) {
+        this.placeholder = placeholder;
+    }
+
+    /**
+     * Images with a higher priority are decoded first in async decode mode, e.g.
+     * images in the visible rows of a list should have a higher priority
+     *
+     * @return the decode priority
+     */
+    public int getDecodePriority() {
+        return decodePriority;
+    }
+
+    /**
+     * Images with a higher priority are decoded first in async decode mode, e.g.
+     * images in the visible rows of a list should have a higher priority
+     *
+     * @param decodePriority the decode priority
+     */
+    public void setDecodePriority(int decodePriority) {
+        this.decodePriority = decodePriority;
+    }
+
+    /**
+     * Indicates the number of threads used to decode async images, defaults to 2
+     *
+     * @param count the number of decoding threads
+     */
+    public static void setDecodeThreadCount(int count) {
+        ImageDecoder.setThreadCount(count);
+    }
+
+    /**
+     * Indicates the number of threads used to decode async images
+     *
+     * @return the number of decoding threads
+     */
+    public static int getDecodeThreadCount() {
+        return ImageDecoder.getThreadCount();
     }
 
     /**
@@ -303,7 +415,20 @@ public class EncodedImage extends Image {
      * @inheritDoc
      */
     public Image scaled(int width, int height) {
-        return getInternalImpl().scaled(width, height);
+        if(width == -1 || height == -1 || (width == this.width && height == this.height)) {
+            return getInternalImpl().scaled(width, height);
+        }
+
+        // decode directly to the target size rather than scaling the full image
+        Dimension d = new Dimension(width, height);
+        Image i = getCachedImage(d);
+        if(i != null) {
+            return i;
+        }
+        byte[] b = getImageData();
+        i = Image.createImage(b, 0, b.length, width, height);
+        cacheImage(d, i);
+        return i;
     }
 
     /**
@@ -317,6 +442,17 @@ public class EncodedImage extends Image {
      * @inheritDoc
      */
     public boolean isAnimation() {
+        return asyncDecode;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public boolean animate() {
+        if(changePending) {
+            changePending = false;
+            return true;
+        }
         return false;
     }
 
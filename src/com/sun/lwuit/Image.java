@@ -27,7 +27,6 @@ import com.sun.lwuit.geom.Dimension;
 import com.sun.lwuit.impl.LWUITImplementation;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Hashtable;
 
 /**
  * Abstracts the underlying platform images allowing us to treat them as a uniform
@@ -42,7 +41,7 @@ public class Image {
 
     private boolean opaqueTested = false;
     private boolean opaque;
-    private Object scaleCache;
+    private Image scaleSource = this;
     private boolean animated;
     private long imageTime = -1;
     private String svgBaseURL;
@@ -65,20 +64,6 @@ public class Image {
     }
 
     
-    private Hashtable getScaleCache() {
-        if(scaleCache == null) {
-            Hashtable h = new Hashtable();
-            scaleCache = Display.getInstance().createSoftWeakRef(h);
-            return h;
-        }
-        Hashtable h = (Hashtable)Display.getInstance().extractHardRef(scaleCache);
-        if(h == null) {
-            h = new Hashtable();
-            scaleCache = Display.getInstance().createSoftWeakRef(h);
-        }
-        return h;
-    }
-
     /**
      * Returns a cached scaled image
      *
@@ -86,8 +71,7 @@ public class Image {
      * @return cached image
      */
     Image getCachedImage(Dimension size) {
-        Object w = getScaleCache().get(size);
-        return (Image)Display.getInstance().extractHardRef(w);
+        return ImageCache.getInstance().get(new ImageCache.ScaleKey(scaleSource, size.getWidth(), size.getHeight()));
     } 
     
     /**
@@ -97,8 +81,7 @@ public class Image {
      * @return cached image
      */
     void cacheImage(Dimension size, Image i) {
-        Object w = Display.getInstance().createSoftWeakRef(i);
-        getScaleCache().put(size, w);
+        ImageCache.getInstance().put(new ImageCache.ScaleKey(scaleSource, size.getWidth(), size.getHeight()), i);
     }
 
     /**
@@ -573,6 +556,32 @@ public class Image {
         }
     }
 
+    /**
+     * creates an image from the given byte array data scaled to the given size,
+     * unlike scaling an image this allows the implementation to decode the data
+     * directly at the smaller size so the full image is never in memory
+     *
+     * @param bytes the array of image data in a supported image format
+     * @param offset the offset of the start of the data in the array
+     * @param len the length of the data in the array
+     * @param width the width of the resulting image
+     * @param height the height of the resulting image
+     * @return the newly created image
+     */
+    public static Image createImage(byte[] bytes, int offset, int len, int width, int height) {
+        try {
+            Object o = Display.getInstance().getImplementation().createImage(bytes, offset, len, width, height);
+            if(o == null) {
+                throw new IllegalArgumentException("create image failed for the given image data of length: " + len);
+            }
+            return new Image(o);
+        } catch(OutOfMemoryError err) {
+            // see createImage(byte[], int, int)
+            System.gc();System.gc();
+            return new Image(Display.getInstance().getImplementation().createImage(bytes, offset, len, width, height));
+        }
+    }
+
     /**
      * If this is a mutable image a graphics object allowing us to draw on it
      * is returned.
@@ -829,7 +838,7 @@ public class Image {
         }else{
             i = new Image(this.image);
         }
-        i.scaleCache = scaleCache;
+        i.scaleSource = scaleSource;
         i.scale(width, height);
         i.transform = this.transform;
         i.animated = animated;
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.lwuit;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Global memory cache for decoded images limited by an overall size in bytes,
+ * the size of an image is estimated as width * height * 4. The least recently
+ * used images are evicted first, images that are pinned (e.g. an encoded image
+ * that is locked by a visible component) are never evicted.
+ * Encoded images, scaled image versions and theme images all place their decoded
+ * images in this cache so the memory used by images can be controlled in a single
+ * place rather than depending on the collection of soft references.
+ *
+ * @author Shai Almog
+ */
+public class ImageCache {
+    private static final ImageCache INSTANCE = new ImageCache();
+
+    private Hashtable entries = new Hashtable();
+    private Entry head;
+    private Entry tail;
+    private int maxBytes = 4 * 1024 * 1024;
+    private int bytes;
+    private int pinnedBytes;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * Cache entry, unpinned entries are kept in a list ordered by access
+     */
+    private static class Entry {
+        Object key;
+        Image value;
+        int size;
+        int pins;
+        Entry previous;
+        Entry next;
+    }
+
+    /**
+     * Key for the scaled versions of an image
+     */
+    static class ScaleKey {
+        private Object source;
+        private int width;
+        private int height;
+
+        ScaleKey(Object source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(source) ^ (width << 16 | height);
+        }
+
+        public boolean equals(Object o) {
+            if(o instanceof ScaleKey) {
+                ScaleKey k = (ScaleKey)o;
+                return k.source == source && k.width == width && k.height == height;
+            }
+            return false;
+        }
+    }
+
+    private ImageCache() {
+    }
+
+    /**
+     * Returns the singleton instance of the image cache
+     *
+     * @return the image cache
+     */
+    public static ImageCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The maximum size in bytes of the images in the cache, pinned images are counted
+     * but never evicted and the unpinned images always get at least a quarter of this
+     * size so the cache might exceed it if enough images are pinned. The most recently
+     * placed image is never evicted even if it is larger than the limit on its own.
+     * Defaults to 4mb.
+     *
+     * @return the maximum size in bytes
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * The maximum size in bytes of the images in the cache, pinned images are counted
+     * but never evicted and the unpinned images always get at least a quarter of this
+     * size so the cache might exceed it if enough images are pinned.
+     *
+     * @param maxBytes the maximum size in bytes
+     */
+    public synchronized void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        evict(null);
+    }
+
+    /**
+     * Returns the image cached under the given key
+     *
+     * @param key the key of the image
+     * @return the image or null
+     */
+    public synchronized Image get(Object key) {
+        Entry e = (Entry)entries.get(key);
+        if(e == null || e.value == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        if(e.pins == 0 && e != head) {
+            unlink(e);
+            linkFirst(e);
+        }
+        return e.value;
+    }
+
+    /**
+     * Places the image in the cache under the given key, this might evict older images
+     *
+     * @param key the key of the image
+     * @param value the decoded image
+     */
+    public synchronized void put(Object key, Image value) {
+        Entry e = (Entry)entries.get(key);
+        if(e == null) {
+            e = new Entry();
+            e.key = key;
+            entries.put(key, e);
+            linkFirst(e);
+        } else {
+            bytes -= e.size;
+            if(e.pins > 0) {
+                pinnedBytes -= e.size;
+            } else if(e != head) {
+                unlink(e);
+                linkFirst(e);
+            }
+        }
+        e.value = value;
+        e.size = value.getWidth() * value.getHeight() * 4;
+        bytes += e.size;
+        if(e.pins > 0) {
+            pinnedBytes += e.size;
+        }
+        evict(e);
+    }
+
+    /**
+     * Removes the image with the given key from the cache
+     *
+     * @param key the key of the image
+     */
+    public synchronized void remove(Object key) {
+        Entry e = (Entry)entries.remove(key);
+        if(e != null) {
+            bytes -= e.size;
+            if(e.pins > 0) {
+                pinnedBytes -= e.size;
+            } else {
+                unlink(e);
+            }
+        }
+    }
+
+    /**
+     * Removes the scaled versions of the given image from the cache
+     *
+     * @param source the image from which the scaled versions were created
+     */
+    synchronized void removeScaled(Object source) {
+        Vector keys = new Vector();
+        Enumeration e = entries.keys();
+        while(e.hasMoreElements()) {
+            Object k = e.nextElement();
+            if(k instanceof ScaleKey && ((ScaleKey)k).source == source) {
+                keys.addElement(k);
+            }
+        }
+        for(int iter = 0 ; iter < keys.size() ; iter++) {
+            remove(keys.elementAt(iter));
+        }
+    }
+
+    /**
+     * Prevents the image with the given key from being evicted until unpin is invoked,
+     * calls to pin and unpin must be balanced. An image that isn't in the cache yet
+     * is pinned once it is placed in the cache.
+     *
+     * @param key the key of the image
+     */
+    public synchronized void pin(Object key) {
+        Entry e = (Entry)entries.get(key);
+        if(e == null) {
+            e = new Entry();
+            e.key = key;
+            entries.put(key, e);
+        } else if(e.pins == 0) {
+            unlink(e);
+            pinnedBytes += e.size;
+        }
+        e.pins++;
+    }
+
+    /**
+     * Allows the image with the given key to be evicted again
+     *
+     * @param key the key of the image
+     */
+    public synchronized void unpin(Object key) {
+        Entry e = (Entry)entries.get(key);
+        if(e == null || e.pins == 0) {
+            return;
+        }
+        e.pins--;
+        if(e.pins == 0) {
+            if(e.value == null) {
+                entries.remove(key);
+                return;
+            }
+            pinnedBytes -= e.size;
+            linkFirst(e);
+            evict(e);
+        }
+    }
+
+    /**
+     * Removes all the unpinned images from the cache
+     */
+    public synchronized void clear() {
+        while(tail != null) {
+            Entry e = tail;
+            unlink(e);
+            entries.remove(e.key);
+            bytes -= e.size;
+        }
+    }
+
+    /**
+     * Evicts the least recently used unpinned images until they fit in the space left
+     * by the pinned images, pinned images filling the cache would otherwise cause every
+     * new image to be evicted immediately and decoded again on the next paint
+     *
+     * @param keep entry that was just placed in the cache and must stay or null
+     */
+    private void evict(Entry keep) {
+        int unpinnedBudget = Math.max(maxBytes - pinnedBytes, maxBytes / 4);
+        while(bytes - pinnedBytes > unpinnedBudget && tail != null && tail != keep) {
+            Entry e = tail;
+            unlink(e);
+            entries.remove(e.key);
+            bytes -= e.size;
+            evictionCount++;
+        }
+    }
+
+    private void linkFirst(Entry e) {
+        e.previous = null;
+        e.next = head;
+        if(head != null) {
+            head.previous = e;
+        }
+        head = e;
+        if(tail == null) {
+            tail = e;
+        }
+    }
+
+    private void unlink(Entry e) {
+        if(e.previous != null) {
+            e.previous.next = e.next;
+        } else {
+            head = e.next;
+        }
+        if(e.next != null) {
+            e.next.previous = e.previous;
+        } else {
+            tail = e.previous;
+        }
+        e.previous = null;
+        e.next = null;
+    }
+
+    /**
+     * Returns the estimated size in bytes of the images in the cache
+     *
+     * @return the size in bytes
+     */
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the estimated size in bytes of the pinned images in the cache
+     *
+     * @return the size in bytes
+     */
+    public synchronized int getPinnedBytes() {
+        return pinnedBytes;
+    }
+
+    /**
+     * Returns the number of images in the cache
+     *
+     * @return the number of images
+     */
+    public synchronized int getImageCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of successful lookups
+     *
+     * @return the number of cache hits
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of failed lookups
+     *
+     * @return the number of cache misses
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of images evicted to stay within the size limit
+     *
+     * @return the number of evictions
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters
+     */
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.lwuit;
+
+import java.util.Vector;
+
+/**
+ * Small pool of threads that decode encoded images in the background for
+ * encoded images in async decode mode. Images with a higher decode priority are
+ * decoded first and within the same priority the most recently requested image
+ * is decoded first since it is most likely still visible. The decoded image is
+ * handed to the EDT via callSerially. Threads exit when they are idle.
+ *
+ * @author Shai Almog
+ */
+class ImageDecoder implements Runnable {
+    private static final Object LOCK = new Object();
+    private static final int IDLE_TIMEOUT = 5000;
+    private static Vector queue = new Vector();
+    private static int threadCount = 2;
+    private static int runningThreads;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Indicates the maximum number of threads decoding images in parallel
+     *
+     * @param count the number of threads
+     */
+    static void setThreadCount(int count) {
+        threadCount = Math.max(1, count);
+    }
+
+    /**
+     * Indicates the maximum number of threads decoding images in parallel
+     *
+     * @return the number of threads
+     */
+    static int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Schedules the given image for decoding unless it is already scheduled
+     *
+     * @param img the image to decode
+     */
+    static void decode(EncodedImage img) {
+        synchronized(LOCK) {
+            if(img.decodePending) {
+                return;
+            }
+            img.decodePending = true;
+            int priority = img.getDecodePriority();
+            int pos = 0;
+            int size = queue.size();
+            while(pos < size && ((EncodedImage)queue.elementAt(pos)).getDecodePriority() > priority) {
+                pos++;
+            }
+            queue.insertElementAt(img, pos);
+            if(runningThreads < threadCount) {
+                runningThreads++;
+                Thread t = new Thread(new ImageDecoder(), "Image Decoder");
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                t.start();
+            } else {
+                LOCK.notify();
+            }
+        }
+    }
+
+    public void run() {
+        while(true) {
+            final EncodedImage img;
+            synchronized(LOCK) {
+                if(queue.size() == 0) {
+                    try {
+                        LOCK.wait(IDLE_TIMEOUT);
+                    } catch (InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                    if(queue.size() == 0) {
+                        runningThreads--;
+                        return;
+                    }
+                }
+                img = (EncodedImage)queue.elementAt(0);
+                queue.removeElementAt(0);
+            }
+            Image decoded;
+            try {
+                byte[] b = img.getImageData();
+                decoded = Image.createImage(b, 0, b.length);
+            } catch(Throwable err) {
+                err.printStackTrace();
+                decoded = Image.createImage(5, 5);
+            }
+            final Image result = decoded;
+            Display.getInstance().callSerially(new Runnable() {
+                public void run() {
+                    synchronized(LOCK) {
+                        img.decodePending = false;
+                    }
+                    img.decodeCompleted(result);
+                }
+            });
+        }
+    }
+}
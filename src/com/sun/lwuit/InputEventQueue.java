@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit;
+
+/**
+ * Ring buffer of the input events waiting for the EDT. Every slot owns an int record
+ * which is reused by the following events placed in the slot so posting an event
+ * doesn't allocate once the buffer reached its working size. A record is laid out
+ * as the event type followed by the event values, e.g. for pointer events the x/y
+ * pairs and the timestamp. This class isn't thread safe, all access must be
+ * synchronized by the caller.
+ *
+ * @author Shai Almog
+ */
+final class InputEventQueue {
+    private static final int INITIAL_RECORD_SIZE = 4;
+
+    private int[][] records;
+    private int[] lengths;
+    private int head;
+    private int size;
+
+    InputEventQueue(int capacity) {
+        records = new int[capacity][];
+        lengths = new int[capacity];
+    }
+
+    /**
+     * Returns the number of pending events
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the record of a new event at the end of the queue which the caller fills,
+     * the event becomes visible to the consumer when commit is invoked
+     *
+     * @param length the number of values in the event
+     * @return a record with room for at least length values
+     */
+    int[] reserve(int length) {
+        if(size == records.length) {
+            grow();
+        }
+        int tail = (head + size) % records.length;
+        int[] r = records[tail];
+        if(r == null || r.length < length) {
+            r = new int[Math.max(length, INITIAL_RECORD_SIZE)];
+            records[tail] = r;
+        }
+        lengths[tail] = length;
+        return r;
+    }
+
+    /**
+     * Adds the event filled into the record returned by reserve
+     */
+    void commit() {
+        size++;
+    }
+
+    /**
+     * Returns the record of the newest event if it is of the given type and length,
+     * the caller may update its values in place since the consumer didn't see it yet
+     *
+     * @param type the event type
+     * @param length the number of values in the event
+     * @return the record or null if the newest event doesn't match
+     */
+    int[] peekLast(int type, int length) {
+        if(size == 0) {
+            return null;
+        }
+        int tail = (head + size - 1) % records.length;
+        if(lengths[tail] != length || records[tail][0] != type) {
+            return null;
+        }
+        return records[tail];
+    }
+
+    /**
+     * Returns the number of values in the oldest event or -1 if the queue is empty
+     */
+    int peekLength() {
+        if(size == 0) {
+            return -1;
+        }
+        return lengths[head];
+    }
+
+    /**
+     * Copies the oldest event into the given record and removes it from the queue, the
+     * record must have room for peekLength() values
+     *
+     * @param dest record into which the event is copied
+     * @return the number of values in the event
+     */
+    int removeFirst(int[] dest) {
+        int length = lengths[head];
+        System.arraycopy(records[head], 0, dest, 0, length);
+        head = (head + 1) % records.length;
+        size--;
+        return length;
+    }
+
+    private void grow() {
+        int[][] r = new int[records.length * 2][];
+        int[] l = new int[r.length];
+        for(int iter = 0 ; iter < size ; iter++) {
+            int pos = (head + iter) % records.length;
+            r[iter] = records[pos];
+            l[iter] = lengths[pos];
+        }
+        records = r;
+        lengths = l;
+        head = 0;
+    }
+}
@@ -23,12 +23,15 @@
  */
 package com.sun.lwuit.animations;
 
+import com.sun.lwuit.Display;
+
 /**
  * Abstracts the notion of physical motion over time from a numeric location to
  * another. This class can be subclassed to implement any motion equation for
  * appropriate physics effects.
- * <p>This class relies on the System.currentTimeMillis() method to provide
- * transitions between coordinates. The motion can be subclassed to provide every
+ * <p>This class relies on the frame time of the Display (which falls back to
+ * System.currentTimeMillis() outside of the EDT) to provide transitions between
+ * coordinates, so all the motions within a single frame advance together. The motion can be subclassed to provide every
  * type of motion feel from parabolic motion to spline and linear motion. The default
  * implementation provides a simple algorithm giving the feel of acceleration and
  * deceleration.
@@ -131,7 +134,7 @@ public class Motion {
      * Sets the start time to the current time
      */
     public void start() {
-        startTime = System.currentTimeMillis();
+        startTime = Display.getInstance().getFrameTime();
     }
 
     /**
@@ -141,7 +144,7 @@ public class Motion {
      */
     public long getCurrentMotionTime() {
         if(currentMotionTime < 0) {
-            return System.currentTimeMillis() - startTime;
+            return Display.getInstance().getFrameTime() - startTime;
         }
         return currentMotionTime;
     }
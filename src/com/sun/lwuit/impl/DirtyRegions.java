@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.impl;
+
+/**
+ * Collects the screen areas touched by a single paint cycle as a small set of
+ * disjoint rectangles. A new area is merged into an existing rectangle when the
+ * two overlap or when their bounding box wastes few pixels compared to painting
+ * and flushing them separately, when the set is full the pair whose bounding box
+ * wastes the least area is merged. This keeps unrelated repaints such as a clock
+ * in the title and a progress indicator at the bottom of the screen from turning
+ * into a full screen repaint. This class isn't thread safe and is only used on the EDT.
+ *
+ * @author Shai Almog
+ */
+final class DirtyRegions {
+    /**
+     * Per rectangle overhead in pixels added to the merge threshold, painting and
+     * flushing a rectangle has a fixed cost so tiny gaps are cheaper to paint than
+     * an additional pass
+     */
+    private static final int RECT_OVERHEAD = 32 * 32;
+
+    private int maxRects;
+    private int[] x1;
+    private int[] y1;
+    private int[] x2;
+    private int[] y2;
+    private int count;
+    private int width;
+    private int height;
+
+    DirtyRegions(int maxRects) {
+        setMaxRects(maxRects);
+    }
+
+    /**
+     * The maximum number of disjoint rectangles, 1 restores a single bounding box
+     */
+    void setMaxRects(int maxRects) {
+        if(maxRects < 1) {
+            maxRects = 1;
+        }
+        this.maxRects = maxRects;
+        x1 = new int[maxRects + 1];
+        y1 = new int[maxRects + 1];
+        x2 = new int[maxRects + 1];
+        y2 = new int[maxRects + 1];
+        count = 0;
+    }
+
+    int getMaxRects() {
+        return maxRects;
+    }
+
+    /**
+     * Removes all the rectangles and sets the bounds against which new areas are clipped
+     */
+    void reset(int width, int height) {
+        this.width = width;
+        this.height = height;
+        count = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int getX(int i) {
+        return x1[i];
+    }
+
+    int getY(int i) {
+        return y1[i];
+    }
+
+    int getWidth(int i) {
+        return x2[i] - x1[i];
+    }
+
+    int getHeight(int i) {
+        return y2[i] - y1[i];
+    }
+
+    /**
+     * Adds the given area, it is clipped to the screen bounds
+     */
+    void add(int x, int y, int w, int h) {
+        int ax1 = Math.max(x, 0);
+        int ay1 = Math.max(y, 0);
+        int ax2 = Math.min(x + w, width);
+        int ay2 = Math.min(y + h, height);
+        if(ax2 <= ax1 || ay2 <= ay1) {
+            return;
+        }
+        boolean merged = true;
+        while(merged && count > 0) {
+            merged = false;
+            long area = area(ax1, ay1, ax2, ay2);
+            int best = -1;
+            long bestWaste = Long.MAX_VALUE;
+            for(int iter = 0 ; iter < count ; iter++) {
+                if(x1[iter] <= ax1 && y1[iter] <= ay1 && x2[iter] >= ax2 && y2[iter] >= ay2) {
+                    // already covered
+                    return;
+                }
+                long other = area(x1[iter], y1[iter], x2[iter], y2[iter]);
+                long waste = area(Math.min(ax1, x1[iter]), Math.min(ay1, y1[iter]),
+                        Math.max(ax2, x2[iter]), Math.max(ay2, y2[iter])) - area - other;
+                long overlap = overlap(ax1, ay1, ax2, ay2, iter);
+                if(overlap > 0) {
+                    // rectangles are kept disjoint so nothing is painted twice
+                    waste = Long.MIN_VALUE;
+                } else if(waste > (area + other) / 2 + RECT_OVERHEAD) {
+                    continue;
+                }
+                if(waste < bestWaste) {
+                    best = iter;
+                    bestWaste = waste;
+                }
+            }
+            if(best > -1) {
+                ax1 = Math.min(ax1, x1[best]);
+                ay1 = Math.min(ay1, y1[best]);
+                ax2 = Math.max(ax2, x2[best]);
+                ay2 = Math.max(ay2, y2[best]);
+                removeAt(best);
+                merged = true;
+            }
+        }
+        x1[count] = ax1;
+        y1[count] = ay1;
+        x2[count] = ax2;
+        y2[count] = ay2;
+        count++;
+        if(count > maxRects) {
+            mergeCheapestPair();
+        }
+    }
+
+    private void mergeCheapestPair() {
+        int bestA = 0;
+        int bestB = 1;
+        long bestWaste = Long.MAX_VALUE;
+        for(int a = 0 ; a < count ; a++) {
+            long areaA = area(x1[a], y1[a], x2[a], y2[a]);
+            for(int b = a + 1 ; b < count ; b++) {
+                long waste = area(Math.min(x1[a], x1[b]), Math.min(y1[a], y1[b]),
+                        Math.max(x2[a], x2[b]), Math.max(y2[a], y2[b])) - areaA -
+                        area(x1[b], y1[b], x2[b], y2[b]);
+                if(waste < bestWaste) {
+                    bestA = a;
+                    bestB = b;
+                    bestWaste = waste;
+                }
+            }
+        }
+        int mx1 = Math.min(x1[bestA], x1[bestB]);
+        int my1 = Math.min(y1[bestA], y1[bestB]);
+        int mx2 = Math.max(x2[bestA], x2[bestB]);
+        int my2 = Math.max(y2[bestA], y2[bestB]);
+        removeAt(bestB);
+        removeAt(bestA);
+
+        // the union might overlap other rectangles, adding it again restores the invariant
+        add(mx1, my1, mx2 - mx1, my2 - my1);
+    }
+
+    /**
+     * Intersects the given area with rectangle i and stores the result in the
+     * 4 element array as x, y, width, height
+     *
+     * @return false if the intersection is empty
+     */
+    boolean intersect(int i, int x, int y, int w, int h, int[] result) {
+        int ix1 = Math.max(x, x1[i]);
+        int iy1 = Math.max(y, y1[i]);
+        int ix2 = Math.min(x + w, x2[i]);
+        int iy2 = Math.min(y + h, y2[i]);
+        if(ix2 <= ix1 || iy2 <= iy1) {
+            return false;
+        }
+        result[0] = ix1;
+        result[1] = iy1;
+        result[2] = ix2 - ix1;
+        result[3] = iy2 - iy1;
+        return true;
+    }
+
+    private long overlap(int ax1, int ay1, int ax2, int ay2, int i) {
+        int w = Math.min(ax2, x2[i]) - Math.max(ax1, x1[i]);
+        int h = Math.min(ay2, y2[i]) - Math.max(ay1, y1[i]);
+        if(w <= 0 || h <= 0) {
+            return 0;
+        }
+        return ((long)w) * h;
+    }
+
+    private static long area(int ax1, int ay1, int ax2, int ay2) {
+        return ((long)(ax2 - ax1)) * (ay2 - ay1);
+    }
+
+    private void removeAt(int i) {
+        count--;
+        x1[i] = x1[count];
+        y1[i] = y1[count];
+        x2[i] = x2[count];
+        y2[i] = y2[count];
+    }
+}
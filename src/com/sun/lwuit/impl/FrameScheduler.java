@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.impl;
+
+/**
+ * Decides when the EDT starts a frame. The EDT invokes waitForFrame while holding
+ * the display lock whenever it has work to do, the scheduler blocks until the next
+ * frame boundary and returns the timestamp of that frame. All animations within a
+ * frame see the same timestamp via Display.getFrameTime() so they advance in even
+ * steps regardless of how long the frame took to process. When the EDT has nothing
+ * to do it doesn't ask for frames at all.
+ *
+ * @author Shai Almog
+ */
+public abstract class FrameScheduler {
+    private int frameCount;
+    private int missedFrames;
+
+    /**
+     * Blocks until the next frame should start, this method is invoked on the EDT while
+     * the lock is held so implementations should wait on the lock to allow other threads
+     * to post events in the meantime.
+     *
+     * @param lock the display lock
+     * @param frameInterval the minimum time in milliseconds between frames
+     * @return the timestamp of the frame in System.currentTimeMillis() units
+     * @throws InterruptedException if the wait was interrupted
+     */
+    public abstract long waitForFrame(Object lock, int frameInterval) throws InterruptedException;
+
+    /**
+     * Invoked when the EDT stops requesting frames because there is nothing to draw,
+     * the next frame after this call should start without delay
+     */
+    public void idle() {
+    }
+
+    /**
+     * Invoked when the scheduler is no longer used
+     */
+    public void stop() {
+    }
+
+    /**
+     * Returns the number of frames scheduled so far
+     *
+     * @return the number of frames
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of frame boundaries that passed while the EDT was still
+     * busy with a previous frame
+     *
+     * @return the number of missed frames
+     */
+    public int getMissedFrames() {
+        return missedFrames;
+    }
+
+    /**
+     * Updates the frame statistics, invoked by subclasses for every frame
+     *
+     * @param missed the number of boundaries skipped before this frame
+     */
+    protected void frameScheduled(int missed) {
+        frameCount++;
+        missedFrames += missed;
+    }
+}
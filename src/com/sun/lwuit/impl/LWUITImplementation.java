@@ -64,9 +64,15 @@ public abstract class LWUITImplementation {
     private int dragStartPercentage = 3;
     private Form currentForm;
     private static Object displayLock;
-    private Animation[] paintQueue = new Animation[50];
-    private Animation[] paintQueueTemp = new Animation[50];
-    private int paintQueueFill = 0;
+    private PaintQueue paintQueue = new PaintQueue(50);
+    private PaintQueue paintQueueTemp = new PaintQueue(50);
+    private int[] paintAreas = new int[50 * 4];
+    private int repaintRequests;
+    private int duplicateRepaints;
+    private int parentRepaints;
+    private int lastFramePaintCount;
+    private DirtyRegions dirtyRegions = new DirtyRegions(8);
+    private int[] clipArea = new int[4];
     private Graphics lwuitGraphics;
 
     private static boolean bidi;
@@ -102,6 +108,17 @@ public abstract class LWUITImplementation {
     public void initEDT() {
     }
 
+    /**
+     * Creates the object deciding when the EDT starts a frame, the default places
+     * frames on a fixed time grid. Platforms that expose the display refresh should
+     * override this to align frames with it.
+     *
+     * @return a new frame scheduler
+     */
+    public FrameScheduler createFrameScheduler() {
+        return new TimerFrameScheduler();
+    }
+
     /**
      * Allows subclasses to cleanup if necessary
      */
@@ -182,7 +199,7 @@ public abstract class LWUITImplementation {
      * @return false by default
      */
     public boolean hasPendingPaints() {
-        return paintQueueFill != 0;
+        return paintQueue.count() != 0;
     }
 
     /**
@@ -236,62 +253,202 @@ public abstract class LWUITImplementation {
     protected void paintOverlay(Graphics g) {
     }
 
+    /**
+     * The maximum number of separate rectangles painted and flushed in a single
+     * paint cycle, repaints of distant areas are kept apart up to this limit rather
+     * than being painted as one bounding box
+     *
+     * @param maxDirtyRects the maximum number of rectangles, 1 paints a single bounding box
+     */
+    public void setMaxDirtyRects(int maxDirtyRects) {
+        dirtyRegions.setMaxRects(maxDirtyRects);
+    }
+
+    /**
+     * The maximum number of separate rectangles painted and flushed in a single
+     * paint cycle
+     *
+     * @return the maximum number of rectangles
+     */
+    public int getMaxDirtyRects() {
+        return dirtyRegions.getMaxRects();
+    }
+
+    /**
+     * Returns the number of repaint requests received since the counters were reset
+     *
+     * @return the number of calls to repaint(Animation)
+     */
+    public int getRepaintRequestCount() {
+        return repaintRequests;
+    }
+
+    /**
+     * Returns the number of repaint requests that didn't cause an additional paint
+     * since the counters were reset, either because the component was already queued
+     * or because a queued parent painted it
+     *
+     * @return the number of coalesced repaint requests
+     */
+    public int getCoalescedRepaintCount() {
+        return duplicateRepaints + parentRepaints;
+    }
+
+    /**
+     * Returns the number of components and animations painted by the last paint cycle
+     *
+     * @return the number of entries painted in the last frame
+     */
+    public int getLastFramePaintCount() {
+        return lastFramePaintCount;
+    }
+
+    /**
+     * Resets the repaint counters to zero
+     */
+    public void resetPaintCounters() {
+        synchronized (displayLock) {
+            repaintRequests = 0;
+            duplicateRepaints = 0;
+        }
+        parentRepaints = 0;
+    }
+
     /**
      * Invoked by the EDT to paint the dirty regions
      */
     public void paintDirty() {
         int size = 0;
         synchronized (displayLock) {
-            size = paintQueueFill;
-            Animation[] array = paintQueue;
+            PaintQueue q = paintQueue;
             paintQueue = paintQueueTemp;
-            paintQueueTemp = array;
-            paintQueueFill = 0;
+            paintQueueTemp = q;
+            size = q.size();
         }
+        PaintQueue queue = paintQueueTemp;
+        int painted = 0;
         if (size > 0) {
             Graphics wrapper = getLWUITGraphics();
-            int topX = getDisplayWidth();
-            int topY = getDisplayHeight();
-            int bottomX = 0;
-            int bottomY = 0;
+            int displayWidth = getDisplayWidth();
+            int displayHeight = getDisplayHeight();
+            if(paintAreas.length < size * 4) {
+                paintAreas = new int[size * 8];
+            }
+            int[] areas = paintAreas;
+
+            // find the area each entry paints, a non-component animation paints the whole screen
             for (int iter = 0; iter < size; iter++) {
-                Animation ani = paintQueueTemp[iter];
+                Animation ani = queue.get(iter);
                 
                 // might happen due to paint queue removal
                 if(ani == null) {
                     continue;
                 }
-                paintQueueTemp[iter] = null;
-                wrapper.translate(-wrapper.getTranslateX(), -wrapper.getTranslateY());
-                wrapper.setClip(0, 0, getDisplayWidth(), getDisplayHeight());
+                int offset = iter * 4;
                 if (ani instanceof Component) {
                     Component cmp = (Component) ani;
                     Rectangle dirty = cmp.getDirtyRegion();
                     if (dirty != null) {
-                        wrapper.setClip(dirty.getX(), dirty.getY(), dirty.getSize().getWidth(), dirty.getSize().getHeight());
+                        areas[offset] = dirty.getX();
+                        areas[offset + 1] = dirty.getY();
+                        areas[offset + 2] = dirty.getSize().getWidth();
+                        areas[offset + 3] = dirty.getSize().getHeight();
                         cmp.setDirtyRegion(null);
+                    } else {
+                        areas[offset] = cmp.getAbsoluteX() + cmp.getScrollX();
+                        areas[offset + 1] = cmp.getAbsoluteY() + cmp.getScrollY();
+                        areas[offset + 2] = cmp.getWidth();
+                        areas[offset + 3] = cmp.getHeight();
                     }
+                } else {
+                    areas[offset] = 0;
+                    areas[offset + 1] = 0;
+                    areas[offset + 2] = displayWidth;
+                    areas[offset + 3] = displayHeight;
+                }
+            }
+
+            // a component whose area is painted anyway by a queued parent is dropped
+            DirtyRegions regions = dirtyRegions;
+            regions.reset(displayWidth, displayHeight);
+            for (int iter = 0; iter < size; iter++) {
+                Animation ani = queue.get(iter);
+                if(ani == null) {
+                    continue;
+                }
+                int offset = iter * 4;
+                if(size > 1 && ani instanceof Component && isPaintedByParent(queue, (Component)ani, offset)) {
+                    queue.remove(ani);
+                    ((Component)ani).repaintCoalesced();
+                    parentRepaints++;
+                    continue;
+                }
+                regions.add(areas[offset], areas[offset + 1], areas[offset + 2], areas[offset + 3]);
+            }
 
-                    cmp.paintComponent(wrapper);
-                    int cmpAbsX = cmp.getAbsoluteX() + cmp.getScrollX();
-                    topX = Math.min(cmpAbsX, topX);
-                    bottomX = Math.max(cmpAbsX + cmp.getWidth(), bottomX);
-                    int cmpAbsY = cmp.getAbsoluteY() + cmp.getScrollY();
-                    topY = Math.min(cmpAbsY, topY);
-                    bottomY = Math.max(cmpAbsY + cmp.getHeight(), bottomY);
+            int regionCount = regions.size();
+            int[] clip = clipArea;
+            painted = queue.count();
+            for (int iter = 0; iter < size; iter++) {
+                Animation ani = queue.get(iter);
+                if(ani == null) {
+                    continue;
+                }
+                queue.remove(ani);
+                int offset = iter * 4;
+                if (ani instanceof Component) {
+                    Component cmp = (Component) ani;
+
+                    // the component is painted separately within every rectangle it touches
+                    for(int r = 0 ; r < regionCount ; r++) {
+                        if(regions.intersect(r, areas[offset], areas[offset + 1], areas[offset + 2], areas[offset + 3], clip)) {
+                            wrapper.translate(-wrapper.getTranslateX(), -wrapper.getTranslateY());
+                            wrapper.setClip(clip[0], clip[1], clip[2], clip[3]);
+                            cmp.paintComponent(wrapper);
+                        }
+                    }
                 } else {
-                    bottomX = getDisplayWidth();
-                    bottomY = getDisplayHeight();
-                    topX = 0;
-                    topY = 0;
+                    wrapper.translate(-wrapper.getTranslateX(), -wrapper.getTranslateY());
+                    wrapper.setClip(0, 0, displayWidth, displayHeight);
                     ani.paint(wrapper);
                 }
             }
 
+            wrapper.translate(-wrapper.getTranslateX(), -wrapper.getTranslateY());
+            wrapper.setClip(0, 0, displayWidth, displayHeight);
             paintOverlay(wrapper);
 
-            flushGraphics(topX, topY, bottomX - topX, bottomY - topY);
+            for(int r = 0 ; r < regionCount ; r++) {
+                flushGraphics(regions.getX(r), regions.getY(r), regions.getWidth(r), regions.getHeight(r));
+            }
         }
+        queue.clear();
+        lastFramePaintCount = painted;
+    }
+
+    /**
+     * Returns true if one of the parents of the component is queued for painting in
+     * this cycle with an area that contains the area of the component
+     */
+    private boolean isPaintedByParent(PaintQueue queue, Component cmp, int offset) {
+        int[] areas = paintAreas;
+        int x = areas[offset];
+        int y = areas[offset + 1];
+        int x2 = x + areas[offset + 2];
+        int y2 = y + areas[offset + 3];
+        Component parent = cmp.getParent();
+        while(parent != null) {
+            int index = queue.indexOf(parent);
+            if(index > -1) {
+                int p = index * 4;
+                if(areas[p] <= x && areas[p + 1] <= y &&
+                        areas[p] + areas[p + 2] >= x2 && areas[p + 1] + areas[p + 3] >= y2) {
+                    return true;
+                }
+            }
+            parent = parent.getParent();
+        }
+        return false;
     }
 
     /**
@@ -368,12 +525,7 @@ public abstract class LWUITImplementation {
      */
     public void cancelRepaint(Animation cmp) {
         synchronized (displayLock) {
-            for (int iter = 0; iter < paintQueueFill; iter++) {
-                if (paintQueue[iter] == cmp) {
-                    paintQueue[iter] = null;
-                    return;
-                }
-            }
+            paintQueue.remove(cmp);
         }
     }
 
@@ -384,20 +536,11 @@ public abstract class LWUITImplementation {
      */
     public void repaint(Animation cmp) {
         synchronized (displayLock) {
-            for (int iter = 0; iter < paintQueueFill; iter++) {
-                Animation ani = paintQueue[iter];
-                if (ani == cmp) {
-                    return;
-                }
-            }
-            // overcrowding the queue don't try to grow the array!
-            if (paintQueueFill >= paintQueue.length) {
-                System.out.println("Warning paint queue size exceeded, please watch the amount of repaint calls");
+            repaintRequests++;
+            if (!paintQueue.add(cmp)) {
+                duplicateRepaints++;
                 return;
             }
-
-            paintQueue[paintQueueFill] = cmp;
-            paintQueueFill++;
             displayLock.notify();
         }
     }
@@ -473,6 +616,27 @@ public abstract class LWUITImplementation {
      */
     public abstract Object createImage(byte[] bytes, int offset, int len);
 
+    /**
+     * Create a native image from its compressed byte data scaled to the given size,
+     * implementations should override this method to decode the image directly at
+     * a reduced resolution so the full size image is never resident in memory.
+     * The default implementation decodes the full image and scales it.
+     *
+     * @param bytes the byte array representing the image data
+     * @param offset offset within the byte array
+     * @param len the length for the image within the byte array
+     * @param width the width of the resulting image
+     * @param height the height of the resulting image
+     * @return a native image
+     */
+    public Object createImage(byte[] bytes, int offset, int len, int width, int height) {
+        Object o = createImage(bytes, offset, len);
+        if(o == null || (getImageWidth(o) == width && getImageHeight(o) == height)) {
+            return o;
+        }
+        return scale(o, width, height);
+    }
+
     /**
      * Returns the width of a native image
      * 
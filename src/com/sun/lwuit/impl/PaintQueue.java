@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.impl;
+
+import com.sun.lwuit.animations.Animation;
+
+/**
+ * Ordered set of the animations and components awaiting a repaint. Entries keep
+ * their insertion order in an array while an open addressing table keyed by the
+ * identity hash code maps each entry to its position, this makes insertion,
+ * duplicate detection and removal O(1) regardless of the queue length. Removal
+ * leaves a hole in the order which is skipped when the queue is drained.
+ * This class isn't thread safe, all access must be synchronized by the caller.
+ *
+ * @author Shai Almog
+ */
+final class PaintQueue {
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+
+    private Animation[] items;
+
+    /**
+     * The table slot of every position in items, allows clearing the table without
+     * touching the slots that were never used
+     */
+    private int[] slotOf;
+
+    /**
+     * Position in items plus one, EMPTY or REMOVED
+     */
+    private int[] table;
+    private int size;
+    private int count;
+
+    PaintQueue(int capacity) {
+        int tableSize = 1;
+        while(tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+        items = new Animation[capacity];
+        slotOf = new int[capacity];
+        table = new int[tableSize];
+    }
+
+    /**
+     * The number of positions used since the last clear including removed entries,
+     * positions are iterated up to this value
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The number of entries in the queue
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Returns the entry at the given position or null if it was removed
+     */
+    Animation get(int index) {
+        return items[index];
+    }
+
+    /**
+     * Adds the entry at the end of the queue unless it is already queued
+     *
+     * @return false if the entry was already in the queue
+     */
+    boolean add(Animation a) {
+        int slot = find(a);
+        if(table[slot] > 0) {
+            return false;
+        }
+        if(size == items.length) {
+            grow();
+            slot = find(a);
+        }
+        items[size] = a;
+        slotOf[size] = slot;
+        size++;
+        table[slot] = size;
+        count++;
+        return true;
+    }
+
+    /**
+     * Returns the position of the entry or -1 if it isn't queued
+     */
+    int indexOf(Object a) {
+        int value = table[find(a)];
+        if(value > 0) {
+            return value - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the entry from the queue
+     *
+     * @return false if the entry wasn't queued
+     */
+    boolean remove(Object a) {
+        int slot = find(a);
+        int value = table[slot];
+        if(value <= 0) {
+            return false;
+        }
+        items[value - 1] = null;
+        table[slot] = REMOVED;
+        count--;
+        return true;
+    }
+
+    /**
+     * Removes all the entries in time proportional to the number of positions used
+     */
+    void clear() {
+        for(int iter = 0 ; iter < size ; iter++) {
+            items[iter] = null;
+            table[slotOf[iter]] = EMPTY;
+        }
+        size = 0;
+        count = 0;
+    }
+
+    /**
+     * Returns the slot holding the entry or the slot into which it should be inserted
+     */
+    private int find(Object a) {
+        int mask = table.length - 1;
+        int h = System.identityHashCode(a);
+        int slot = (h ^ (h >>> 16)) & mask;
+        int free = -1;
+        while(true) {
+            int value = table[slot];
+            if(value == EMPTY) {
+                if(free > -1) {
+                    return free;
+                }
+                return slot;
+            }
+            if(value == REMOVED) {
+                if(free < 0) {
+                    free = slot;
+                }
+            } else if(items[value - 1] == a) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        Animation[] oldItems = items;
+        items = new Animation[oldItems.length * 2];
+        slotOf = new int[items.length];
+        table = new int[table.length * 2];
+        System.arraycopy(oldItems, 0, items, 0, size);
+        for(int iter = 0 ; iter < size ; iter++) {
+            if(items[iter] != null) {
+                int slot = find(items[iter]);
+                table[slot] = iter + 1;
+                slotOf[iter] = slot;
+            }
+        }
+    }
+}
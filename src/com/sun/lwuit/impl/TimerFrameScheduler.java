@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.impl;
+
+/**
+ * Default frame scheduler which places frames on a fixed time grid. The next frame
+ * boundary is computed from the previous boundary rather than from the time the
+ * EDT finished its work, so frames don't drift and the frame timestamps are exact
+ * multiples of the frame interval. When a frame overruns the boundaries that passed
+ * are skipped and the grid is kept, after the EDT idles the grid restarts at the
+ * time of the next request. Notifications of the lock don't end the wait early,
+ * pending events are processed at the next boundary.
+ *
+ * @author Shai Almog
+ */
+public class TimerFrameScheduler extends FrameScheduler {
+    private long nextFrame;
+
+    /**
+     * {@inheritDoc}
+     */
+    public long waitForFrame(Object lock, int frameInterval) throws InterruptedException {
+        long now = currentTime();
+        if(nextFrame == 0) {
+            // first frame after idle, start a new grid
+            nextFrame = now;
+        } else {
+            while(now < nextFrame) {
+                lock.wait(nextFrame - now);
+                now = currentTime();
+            }
+        }
+        int missed = (int)((now - nextFrame) / frameInterval);
+        long frame = nextFrame + ((long)missed) * frameInterval;
+        nextFrame = frame + frameInterval;
+        frameScheduled(missed);
+        return frame;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void idle() {
+        nextFrame = 0;
+    }
+
+    /**
+     * Returns the current time, subclasses can override this to drive frames from
+     * a different clock
+     *
+     * @return the time in milliseconds
+     */
+    protected long currentTime() {
+        return System.currentTimeMillis();
+    }
+}
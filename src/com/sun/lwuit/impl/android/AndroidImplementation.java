@@ -91,6 +91,7 @@ import com.sun.lwuit.TextArea;
 import com.sun.lwuit.TextField;
 import com.sun.lwuit.VideoComponent;
 import com.sun.lwuit.geom.Rectangle;
+import com.sun.lwuit.impl.FrameScheduler;
 import com.sun.lwuit.impl.LWUITImplementation;
 import com.sun.lwuit.impl.VirtualKeyboardInterface;
 import com.sun.lwuit.plaf.UIManager;
@@ -710,6 +711,35 @@ public class AndroidImplementation extends LWUITImplementation  {
         return BitmapFactory.decodeByteArray(bytes, offset, len, opts);
     }
 
+    @Override
+    public Object createImage(byte[] bytes, int offset, int len, int width, int height) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, offset, len, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+
+        // decode at the largest power of 2 reduction that is still larger than
+        // the target size, the remainder is scaled with filtering
+        int sample = 1;
+        while (opts.outWidth / (sample * 2) >= width && opts.outHeight / (sample * 2) >= height) {
+            sample *= 2;
+        }
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sample;
+        opts.inPurgeable = true;
+        Bitmap b = BitmapFactory.decodeByteArray(bytes, offset, len, opts);
+        if (b == null || (b.getWidth() == width && b.getHeight() == height)) {
+            return b;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(b, width, height, true);
+        if (scaled != b) {
+            b.recycle();
+        }
+        return scaled;
+    }
+
     @Override
     public Object createImage(int[] rgb, int width, int height) {
         return Bitmap.createBitmap(rgb, width, height, Bitmap.Config.ARGB_8888);
@@ -1059,6 +1089,14 @@ public class AndroidImplementation extends LWUITImplementation  {
         return c.touchscreen != Configuration.TOUCHSCREEN_NOTOUCH;
     }
 
+    @Override
+    public FrameScheduler createFrameScheduler() {
+        if (android.os.Build.VERSION.SDK_INT >= 16) {
+            return new ChoreographerFrameScheduler();
+        }
+        return super.createFrameScheduler();
+    }
+
     @Override
     public boolean hasPendingPaints() {
         //if the view is not visible make sure the edt won't wait.
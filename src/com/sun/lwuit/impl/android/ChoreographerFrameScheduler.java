@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.lwuit.impl.android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import com.sun.lwuit.impl.FrameScheduler;
+
+/**
+ * Aligns the EDT frames with the display refresh using the Choreographer (API level 16).
+ * A frame callback is only posted while the EDT waits for a frame so an idle application
+ * receives no vsync callbacks at all. Vsyncs arriving sooner than the frame interval
+ * are skipped so the LWUIT frame rate setting is still honored.
+ *
+ * @author Shai Almog
+ */
+class ChoreographerFrameScheduler extends FrameScheduler implements Choreographer.FrameCallback {
+    /**
+     * Maximum time to wait for a vsync, the callbacks might stop while the activity
+     * is in the background in which case frames fall back to this interval
+     */
+    private static final int MAX_WAIT = 100;
+
+    /**
+     * Slack allowed when skipping vsyncs, without it timer noise would turn a 60Hz
+     * display with a 16ms frame interval into 30 frames per second
+     */
+    private static final long VSYNC_SLACK_NANOS = 4000000L;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable postCallback = new Runnable() {
+        public void run() {
+            // the choreographer instance is bound to the looper of the calling thread
+            Choreographer.getInstance().postFrameCallback(ChoreographerFrameScheduler.this);
+        }
+    };
+    private volatile Object lock;
+    private boolean posted;
+    private boolean stopped;
+    private long vsyncNanos;
+    private long lastFrameNanos;
+
+    /**
+     * A callback posted before a timeout or idle() can still arrive afterwards, vsyncs
+     * older than this are discarded so a frame is never timestamped in the past
+     */
+    private long staleVsyncNanos;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long waitForFrame(Object lock, int frameInterval) throws InterruptedException {
+        this.lock = lock;
+        long intervalNanos = frameInterval * 1000000L;
+        long start = System.currentTimeMillis();
+        while (true) {
+            long vsync = vsyncNanos;
+            vsyncNanos = 0;
+            if (vsync != 0 && vsync >= staleVsyncNanos) {
+                if (lastFrameNanos == 0 || vsync - lastFrameNanos >= intervalNanos - VSYNC_SLACK_NANOS) {
+                    int missed = 0;
+                    if (lastFrameNanos != 0) {
+                        missed = Math.max(0, (int) ((vsync - lastFrameNanos + VSYNC_SLACK_NANOS) / intervalNanos) - 1);
+                    }
+                    lastFrameNanos = vsync;
+                    frameScheduled(missed);
+                    return System.currentTimeMillis() - (System.nanoTime() - vsync) / 1000000L;
+                }
+            }
+            requestVsync();
+            long waited = System.currentTimeMillis() - start;
+            if (waited >= MAX_WAIT) {
+                lastFrameNanos = 0;
+                staleVsyncNanos = System.nanoTime();
+                frameScheduled(0);
+                return System.currentTimeMillis();
+            }
+            lock.wait(MAX_WAIT - waited);
+        }
+    }
+
+    private void requestVsync() {
+        if (!posted && !stopped) {
+            posted = true;
+            handler.post(postCallback);
+        }
+    }
+
+    /**
+     * Invoked on the UI thread for every vsync requested by the EDT
+     */
+    public void doFrame(long frameTimeNanos) {
+        Object l = lock;
+        if (l == null) {
+            return;
+        }
+        synchronized (l) {
+            posted = false;
+            vsyncNanos = frameTimeNanos;
+            l.notifyAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void idle() {
+        vsyncNanos = 0;
+        lastFrameNanos = 0;
+        staleVsyncNanos = System.nanoTime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+        handler.removeCallbacks(postCallback);
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io;
+
+import com.sun.lwuit.io.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+
+/**
+ * Sends several small requests to a batch endpoint as a single multipart/mixed POST
+ * and dispatches the parts of the multipart/mixed response back to the original
+ * requests. Every part of the request body is an application/http message holding
+ * the request line, headers and body of an original request, the parts of the
+ * response are matched to the requests by their Content-ID (e.g. response-3) or
+ * by order. This is the batch format used by several REST APIs and the server
+ * must support it.
+ * <p>The original requests receive their response in readResponse (which fires
+ * the response listeners by default) and their errors in handleErrorResponseCode
+ * or handleException as if they were sent individually. If the server rejects the
+ * batch the requests are sent individually.
+ * <p>Requests can be added explicitly to an instance which is then added to the
+ * network manager, or passed to {@link #queue(java.lang.String, com.sun.lwuit.io.ConnectionRequest)}
+ * which collects the requests queued within a short window into a single batch.
+ *
+ * @author Shai Almog
+ */
+public class BatchConnectionRequest extends ConnectionRequest {
+    private static final Object LOCK = new Object();
+
+    /**
+     * The batches collecting requests for the queue method, keyed by batch URL
+     */
+    private static final Hashtable OPEN_BATCHES = new Hashtable();
+    private static Timer timer;
+    private static int window = 50;
+    private static int maxBatchSize = 20;
+
+    private Vector requests = new Vector();
+    private Vector sentRequests;
+    private String boundary;
+    private String responseBoundary;
+    private boolean closed;
+
+    /**
+     * Creates a batch that is sent to the given URL
+     *
+     * @param batchUrl the URL of the server batch endpoint
+     */
+    public BatchConnectionRequest(String batchUrl) {
+        setUrl(batchUrl);
+        setPost(true);
+        setDuplicateSupported(true);
+        boundary = "batch_" + Long.toString(System.currentTimeMillis(), 16) +
+                Integer.toHexString(System.identityHashCode(this));
+        setContentType("multipart/mixed; boundary=" + boundary);
+    }
+
+    /**
+     * The time in milliseconds during which the queue method collects requests
+     * into the same batch
+     *
+     * @return the batching window
+     */
+    public static int getWindow() {
+        return window;
+    }
+
+    /**
+     * The time in milliseconds during which the queue method collects requests
+     * into the same batch
+     *
+     * @param aWindow the batching window
+     */
+    public static void setWindow(int aWindow) {
+        window = aWindow;
+    }
+
+    /**
+     * The number of requests after which the queue method sends a batch without
+     * waiting for the window to elapse
+     *
+     * @return the maximum number of requests in a batch
+     */
+    public static int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * The number of requests after which the queue method sends a batch without
+     * waiting for the window to elapse
+     *
+     * @param aMaxBatchSize the maximum number of requests in a batch
+     */
+    public static void setMaxBatchSize(int aMaxBatchSize) {
+        maxBatchSize = aMaxBatchSize;
+    }
+
+    /**
+     * Adds the request to the batch that is collected for the given batch URL, the
+     * batch is added to the network manager once the window elapses or it reaches
+     * the maximum size. Requests that can't be batched (e.g. requests using the HTTP
+     * cache) are added to the network manager directly.
+     *
+     * @param batchUrl the URL of the server batch endpoint
+     * @param request the request
+     */
+    public static void queue(String batchUrl, ConnectionRequest request) {
+        if(!isBatchable(request)) {
+            NetworkManager.getInstance().addToQueue(request);
+            return;
+        }
+        BatchConnectionRequest full = null;
+        synchronized(LOCK) {
+            BatchConnectionRequest b = (BatchConnectionRequest)OPEN_BATCHES.get(batchUrl);
+            if(b == null) {
+                b = new BatchConnectionRequest(batchUrl);
+                OPEN_BATCHES.put(batchUrl, b);
+                final BatchConnectionRequest scheduled = b;
+                if(timer == null) {
+                    timer = new Timer();
+                }
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        scheduled.send();
+                    }
+                }, window);
+            }
+            b.addRequest(request);
+            if(b.requests.size() >= maxBatchSize) {
+                full = b;
+            }
+        }
+        if(full != null) {
+            full.send();
+        }
+    }
+
+    private static boolean isBatchable(ConnectionRequest request) {
+        String u = request.getUrl();
+        return !(request instanceof BatchConnectionRequest) && u != null && u.startsWith("http") &&
+                request.isReadRequest() && !request.isHttpCacheEnabled();
+    }
+
+    /**
+     * Closes a batch collected by the queue method and adds it to the network manager
+     */
+    private void send() {
+        synchronized(LOCK) {
+            if(OPEN_BATCHES.get(getUrl()) == this) {
+                OPEN_BATCHES.remove(getUrl());
+            }
+            if(closed) {
+                return;
+            }
+            closed = true;
+        }
+        if(requests.size() == 1) {
+            // nothing to gain from the batch envelope
+            NetworkManager.getInstance().addToQueue((ConnectionRequest)requests.elementAt(0));
+            return;
+        }
+        NetworkManager.getInstance().addToQueue(this);
+    }
+
+    /**
+     * Adds a request to this batch, requests can't be added once the batch was sent.
+     * The batch is sent with the highest priority of its requests.
+     *
+     * @param request the request
+     * @throws IllegalStateException if the batch was already sent
+     */
+    public void addRequest(ConnectionRequest request) {
+        synchronized(LOCK) {
+            if(sentRequests != null) {
+                throw new IllegalStateException("Requests can't be added to a batch that was sent");
+            }
+            request.validateImpl();
+            requests.addElement(request);
+            if(request.getPriority() > getPriority()) {
+                setPriority(request.getPriority());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests in this batch
+     *
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    protected void buildRequestBody(OutputStream os) throws IOException {
+        Vector v = new Vector();
+        synchronized(LOCK) {
+            closed = true;
+            for(int iter = 0 ; iter < requests.size() ; iter++) {
+                ConnectionRequest r = (ConnectionRequest)requests.elementAt(iter);
+                if(!r.isKilled()) {
+                    v.addElement(r);
+                }
+            }
+            sentRequests = v;
+        }
+        NetworkManager nm = NetworkManager.getInstance();
+        StringBuffer b = new StringBuffer();
+        for(int iter = 0 ; iter < v.size() ; iter++) {
+            ConnectionRequest r = (ConnectionRequest)v.elementAt(iter);
+            nm.addDefaultHeaders(r);
+            b.setLength(0);
+            b.append("--");
+            b.append(boundary);
+            b.append("\r\nContent-Type: application/http\r\nContent-ID: <");
+            b.append(iter);
+            b.append(">\r\n\r\n");
+            if(r.isPost()) {
+                b.append("POST ");
+            } else {
+                b.append("GET ");
+            }
+            b.append(r.createRequestURL());
+            b.append(" HTTP/1.1\r\n");
+            Hashtable headers = r.getRequestHeaders();
+            if(headers != null) {
+                Enumeration e = headers.keys();
+                while(e.hasMoreElements()) {
+                    String k = (String)e.nextElement();
+                    b.append(k);
+                    b.append(": ");
+                    b.append((String)headers.get(k));
+                    b.append("\r\n");
+                }
+            }
+            byte[] body = null;
+            if(r.isWriteRequest()) {
+                ByteArrayOutputStream bo = new ByteArrayOutputStream();
+                r.buildRequestBody(bo);
+                body = bo.toByteArray();
+                if(r.getContentType() != null) {
+                    b.append("Content-Type: ");
+                    b.append(r.getContentType());
+                    b.append("\r\n");
+                }
+                b.append("Content-Length: ");
+                b.append(body.length);
+                b.append("\r\n");
+            }
+            b.append("\r\n");
+            os.write(b.toString().getBytes("UTF-8"));
+            if(body != null) {
+                os.write(body);
+            }
+            os.write('\r');
+            os.write('\n');
+        }
+        os.write(("--" + boundary + "--\r\n").getBytes("UTF-8"));
+    }
+
+    /**
+     * @inheritDoc
+     */
+    protected void readHeaders(Object connection) throws IOException {
+        responseBoundary = null;
+        String type = getHeader(connection, "Content-Type");
+        if(type != null) {
+            int pos = type.toLowerCase().indexOf("boundary=");
+            if(pos > -1) {
+                String bound = type.substring(pos + 9);
+                int end = bound.indexOf(';');
+                if(end > -1) {
+                    bound = bound.substring(0, end);
+                }
+                bound = bound.trim();
+                if(bound.startsWith("\"") && bound.endsWith("\"") && bound.length() > 1) {
+                    bound = bound.substring(1, bound.length() - 1);
+                }
+                responseBoundary = bound;
+            }
+        }
+    }
+
+    /**
+     * Splits the multipart response and delivers every part to its request
+     *
+     * @inheritDoc
+     */
+    protected void readResponse(InputStream input) throws IOException {
+        if(responseBoundary == null) {
+            throw new IOException("The batch response isn't multipart");
+        }
+        Vector v = sentRequests;
+        boolean[] answered = new boolean[v.size()];
+        byte[] data = Util.readInputStream(input);
+        byte[] delimiter = ("--" + responseBoundary).getBytes("UTF-8");
+        int pos = indexOf(data, delimiter, 0);
+        int ordinal = 0;
+        while(pos > -1) {
+            int start = pos + delimiter.length;
+            if(start + 1 < data.length && data[start] == '-' && data[start + 1] == '-') {
+                // closing delimiter
+                break;
+            }
+            start = nextLine(data, start, data.length);
+            int next = indexOf(data, delimiter, start);
+            if(next < 0) {
+                break;
+            }
+            // the line break preceding the delimiter belongs to the delimiter
+            int end = next;
+            if(end > start && data[end - 1] == '\n') {
+                end--;
+                if(end > start && data[end - 1] == '\r') {
+                    end--;
+                }
+            }
+            dispatchPart(data, start, end, ordinal, v, answered);
+            ordinal++;
+            pos = next;
+        }
+        for(int iter = 0 ; iter < answered.length ; iter++) {
+            if(!answered[iter]) {
+                ConnectionRequest r = (ConnectionRequest)v.elementAt(iter);
+                if(!r.isKilled()) {
+                    r.handleIOException(new IOException("No response for the request in the batch"));
+                }
+                completed(r);
+            }
+        }
+    }
+
+    private void dispatchPart(byte[] data, int start, int end, int ordinal, Vector v, boolean[] answered) throws IOException {
+        // part headers
+        int index = -1;
+        int pos = start;
+        while(pos < end) {
+            int lineEnd = lineEnd(data, pos, end);
+            if(lineEnd == pos) {
+                pos = nextLine(data, pos, end);
+                break;
+            }
+            String line = new String(data, pos, lineEnd - pos, "UTF-8");
+            if(line.toLowerCase().startsWith("content-id:")) {
+                index = contentIdIndex(line.substring(11));
+            }
+            pos = nextLine(data, pos, end);
+        }
+        if(index < 0 || index >= answered.length || answered[index]) {
+            index = ordinal;
+        }
+        if(index >= answered.length || answered[index]) {
+            return;
+        }
+        answered[index] = true;
+        ConnectionRequest r = (ConnectionRequest)v.elementAt(index);
+
+        // the embedded HTTP response status line and headers
+        int lineEnd = lineEnd(data, pos, end);
+        String status = new String(data, pos, lineEnd - pos, "UTF-8").trim();
+        pos = nextLine(data, pos, end);
+        while(pos < end) {
+            boolean empty = lineEnd(data, pos, end) == pos;
+            pos = nextLine(data, pos, end);
+            if(empty) {
+                break;
+            }
+        }
+        int code = 0;
+        String message = status;
+        int space = status.indexOf(' ');
+        if(space > -1) {
+            int space2 = status.indexOf(' ', space + 1);
+            if(space2 < 0) {
+                space2 = status.length();
+            } else {
+                message = status.substring(space2 + 1);
+            }
+            try {
+                code = Integer.parseInt(status.substring(space + 1, space2));
+            } catch(NumberFormatException err) {
+                code = 0;
+            }
+        }
+        if(!r.isKilled()) {
+            try {
+                if(code == 200) {
+                    r.readResponse(new ByteArrayInputStream(data, pos, end - pos));
+                } else {
+                    r.handleErrorResponseCode(code, message);
+                }
+            } catch(IOException err) {
+                r.handleIOException(err);
+            } catch(RuntimeException err) {
+                r.handleRuntimeException(err);
+            }
+        }
+        completed(r);
+    }
+
+    private static int contentIdIndex(String id) {
+        id = id.trim();
+        int end = id.length();
+        if(end > 0 && id.charAt(end - 1) == '>') {
+            end--;
+        }
+        int start = end;
+        while(start > 0 && Character.isDigit(id.charAt(start - 1))) {
+            start--;
+        }
+        if(start == end) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(id.substring(start, end));
+        } catch(NumberFormatException err) {
+            return -1;
+        }
+    }
+
+    private static void completed(ConnectionRequest r) {
+        NetworkManager nm = NetworkManager.getInstance();
+        if(nm.hasProgressListeners()) {
+            nm.fireProgressEvent(r, NetworkEvent.PROGRESS_TYPE_COMPLETED, -1, 0);
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        int last = data.length - pattern.length;
+        byte first = pattern[0];
+        for(int iter = from ; iter <= last ; iter++) {
+            if(data[iter] != first) {
+                continue;
+            }
+            int match = 1;
+            while(match < pattern.length && data[iter + match] == pattern[match]) {
+                match++;
+            }
+            if(match == pattern.length) {
+                return iter;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the CR/LF that ends the line starting at pos
+     */
+    private static int lineEnd(byte[] data, int pos, int end) {
+        while(pos < end && data[pos] != '\r' && data[pos] != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the offset of the line following the line starting at pos
+     */
+    private static int nextLine(byte[] data, int pos, int end) {
+        pos = lineEnd(data, pos, end);
+        if(pos < end && data[pos] == '\r') {
+            pos++;
+        }
+        if(pos < end && data[pos] == '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * The server didn't accept the batch, the requests are sent individually
+     *
+     * @inheritDoc
+     */
+    protected void handleErrorResponseCode(int code, String message) {
+        Vector v = sentRequests;
+        if(v == null) {
+            super.handleErrorResponseCode(code, message);
+            return;
+        }
+        for(int iter = 0 ; iter < v.size() ; iter++) {
+            ConnectionRequest r = (ConnectionRequest)v.elementAt(iter);
+            if(!r.isKilled()) {
+                NetworkManager.getInstance().addToQueue(r);
+            }
+        }
+    }
+
+    /**
+     * The error is delivered to every request in the batch so their own error
+     * handling (e.g. retry) applies
+     *
+     * @inheritDoc
+     */
+    protected void handleException(Exception err) {
+        Vector v = sentRequests;
+        if(v == null) {
+            v = requests;
+        }
+        for(int iter = 0 ; iter < v.size() ; iter++) {
+            ConnectionRequest r = (ConnectionRequest)v.elementAt(iter);
+            if(!r.isKilled()) {
+                r.handleException(err);
+            }
+            completed(r);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void kill() {
+        super.kill();
+        for(int iter = 0 ; iter < requests.size() ; iter++) {
+            ((ConnectionRequest)requests.elementAt(iter)).kill();
+        }
+    }
+}
@@ -21,21 +21,23 @@
  * CA 94065 USA or visit www.oracle.com if you need additional information or
  * have any questions.
  */
-
 package com.sun.lwuit.io;
 
 import com.sun.lwuit.Display;
-import java.io.IOException;
-import java.util.Enumeration;
+import com.sun.lwuit.EncodedImage;
+import com.sun.lwuit.Image;
 import java.util.Hashtable;
 import java.util.Vector;
 
 /**
  * A cache map is essentially a hashtable that indexes entries based on age and is
  * limited to a fixed size. Hence when an entry is placed into the cache map and the
- * cache size needs to increase, the least referenced entry is removed.
+ * cache size needs to increase, the least recently used entry is removed.
  * A cache hit is made both on fetching and putting, hence frequently fetched elements
  * will never be removed from a sufficiently large cache.
+ * Entries are kept in a doubly linked list ordered by access so all operations are
+ * O(1), the cache can be limited both by the number of entries and by the size
+ * of the entries in bytes.
  * Cache can work purely in memory or swap data into storage based on user definitions.
  * Notice that this class isn't threadsafe.
  *
@@ -43,11 +45,38 @@ import java.util.Vector;
  */
 public class CacheMap {
     private int cacheSize = 10;
+    private int maxCacheBytes = 0;
+    private int cacheBytes;
     private Hashtable memoryCache = new Hashtable();
     private Hashtable weakCache = new Hashtable();
+    private Node memoryHead;
+    private Node memoryTail;
 
     private int storageCacheSize = 0;
-    private Vector storageCacheContent = new Vector();
+    private Hashtable storageIndex = new Hashtable();
+    private Node storageHead;
+    private Node storageTail;
+    private Vector freeStorageSlots = new Vector();
+    private int usedStorageSlots;
+
+    private int hitCount;
+    private int storageHitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * Entry in one of the access ordered lists, for the storage list the value
+     * is unused and the offset indicates the $CACHE$ slot
+     */
+    private static class Node {
+        Object key;
+        Object value;
+        int size;
+        int offset;
+        long lastAccessed;
+        Node previous;
+        Node next;
+    }
 
     /**
      * Indicates the size of the memory cache after which the cache won't grow further
@@ -67,6 +96,66 @@ public class CacheMap {
      */
     public void setCacheSize(int cacheSize) {
         this.cacheSize = cacheSize;
+        evict();
+    }
+
+    /**
+     * Indicates the size in bytes of the memory cache after which the oldest entries
+     * are evicted, 0 means the cache is limited only by the number of elements.
+     * The size of an entry is determined by the sizeOf method.
+     *
+     * @return the maximum size in bytes
+     */
+    public int getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+    /**
+     * Indicates the size in bytes of the memory cache after which the oldest entries
+     * are evicted, 0 means the cache is limited only by the number of elements.
+     * The size of an entry is determined by the sizeOf method.
+     *
+     * @param maxCacheBytes the maximum size in bytes
+     */
+    public void setMaxCacheBytes(int maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+        evict();
+    }
+
+    /**
+     * Returns the size in bytes of the entries currently in the memory cache
+     *
+     * @return the size in bytes
+     */
+    public int getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * Returns the estimated size in bytes of the given value, this is used for
+     * the byte limit of the cache and can be overriden to support additional types
+     *
+     * @param value the value placed in the cache
+     * @return the size in bytes or 0 if unknown
+     */
+    protected int sizeOf(Object value) {
+        if(value instanceof byte[]) {
+            return ((byte[])value).length;
+        }
+        if(value instanceof int[]) {
+            return ((int[])value).length * 4;
+        }
+        if(value instanceof String) {
+            return ((String)value).length() * 2;
+        }
+        if(value instanceof EncodedImage) {
+            return ((EncodedImage)value).getImageData().length;
+        }
+        if(value instanceof Image) {
+            Image i = (Image)value;
+            return i.getWidth() * i.getHeight() * 4;
+        }
+        return 0;
     }
 
     /**
@@ -76,29 +165,36 @@ public class CacheMap {
      * @param value the value
      */
     public void put(Object key, Object value) {
-        if(cacheSize <= memoryCache.size()) {
-            // we need to find the oldest entry
-            Enumeration e = memoryCache.keys();
-            long oldest = System.currentTimeMillis();
-            Object oldestKey = null;
-            Object[] oldestValue = null;
-            while(e.hasMoreElements()) {
-                Object currentKey = e.nextElement();
-                Object[] currentValue = (Object[])memoryCache.get(currentKey);
-                long currentAge = ((Long)currentValue[0]).longValue();
-                if(currentAge <= oldest) {
-                    oldest = currentAge;
-                    oldestKey = currentKey;
-                    oldestValue = currentValue;
-                }
-            }
-            placeInStorageCache(oldestKey, oldest, oldestValue[1]);
-            weakCache.put(oldestKey, Display.getInstance().createSoftWeakRef(oldestValue[1]));
-            memoryCache.remove(oldestKey);
+        Node n = (Node)memoryCache.get(key);
+        if(n != null) {
+            cacheBytes -= n.size;
+            unlink(n, true);
+        } else {
+            n = new Node();
+            n.key = key;
+            memoryCache.put(key, n);
+            weakCache.remove(key);
         }
-        memoryCache.put(key, new Object[]{new Long(System.currentTimeMillis()), value});
+        n.value = value;
+        n.size = sizeOf(value);
+        n.lastAccessed = System.currentTimeMillis();
+        cacheBytes += n.size;
+        linkFirst(n, true);
+        evict();
     }
 
+    private void evict() {
+        while(memoryTail != null && (memoryCache.size() > cacheSize ||
+                (maxCacheBytes > 0 && cacheBytes > maxCacheBytes && memoryCache.size() > 1))) {
+            Node oldest = memoryTail;
+            unlink(oldest, true);
+            memoryCache.remove(oldest.key);
+            cacheBytes -= oldest.size;
+            evictionCount++;
+            placeInStorageCache(oldest.key, oldest.lastAccessed, oldest.value);
+            weakCache.put(oldest.key, Display.getInstance().createSoftWeakRef(oldest.value));
+        }
+    }
 
     /**
      * Deletes a cached entry
@@ -106,8 +202,17 @@ public class CacheMap {
      * @param key entry to remove from the cache
      */
     public void delete(String key) {
-        memoryCache.remove(key);
+        Node n = (Node)memoryCache.remove(key);
+        if(n != null) {
+            unlink(n, true);
+            cacheBytes -= n.size;
+        }
         weakCache.remove(key);
+        n = (Node)storageIndex.remove(key);
+        if(n != null) {
+            unlink(n, false);
+            freeStorageSlots.addElement(new Integer(n.offset));
+        }
     }
 
     /**
@@ -117,31 +222,41 @@ public class CacheMap {
      * @return value from a previous put or null
      */
     public Object get(Object key) {
-        Object[] o = (Object[])memoryCache.get(key);
-        if(o != null) {
-            return o[1];
+        Node n = (Node)memoryCache.get(key);
+        if(n != null) {
+            hitCount++;
+            n.lastAccessed = System.currentTimeMillis();
+            if(n != memoryHead) {
+                unlink(n, true);
+                linkFirst(n, true);
+            }
+            return n.value;
         }
         Object ref = weakCache.get(key);
         if(ref != null) {
             ref = Display.getInstance().extractHardRef(ref);
             if(ref != null) {
                 // cache hit! Promote it to the hard cache again
+                hitCount++;
                 put(key, ref);
                 return ref;
             }
         }
         if(storageCacheSize > 0) {
-            for(int iter = 0 ; iter < storageCacheContent.size() ; iter++) {
-                Object[] obj = (Object[])storageCacheContent.elementAt(iter);
-                if(obj[1].equals(key)) {
+            n = (Node)storageIndex.get(key);
+            if(n != null) {
+                Vector v = fetchFromStorageCache(n.offset);
+                if(v != null) {
                     // place the object back into the memory cache and return the value
-                    Vector v = (Vector)Storage.getInstance().readObject("$CACHE$" + iter);
+                    hitCount++;
+                    storageHitCount++;
                     Object val = v.elementAt(0);
                     put(key, val);
                     return val;
                 }
             }
         }
+        missCount++;
         return null;
     }
 
@@ -159,49 +274,87 @@ public class CacheMap {
     public void clearMemoryCache() {
         memoryCache.clear();
         weakCache.clear();
+        memoryHead = null;
+        memoryTail = null;
+        cacheBytes = 0;
     }
 
     private void placeInStorageCache(Object key, long lastAccessed, Object value) {
         if(storageCacheSize < 1) {
             return;
         }
-        if(storageCacheContent.size() < storageCacheSize) {
-            placeInStorageCache(storageCacheContent.size(), key, lastAccessed, value);
+        Node n = (Node)storageIndex.get(key);
+        if(n != null) {
+            // rewrite the existing slot for this key
+            unlink(n, false);
+        } else if(freeStorageSlots.size() > 0) {
+            n = new Node();
+            n.offset = ((Integer)freeStorageSlots.elementAt(freeStorageSlots.size() - 1)).intValue();
+            freeStorageSlots.removeElementAt(freeStorageSlots.size() - 1);
+        } else if(usedStorageSlots < storageCacheSize) {
+            n = new Node();
+            n.offset = usedStorageSlots;
+            usedStorageSlots++;
         } else {
-            long smallest = Long.MAX_VALUE;
-            int offset = 0;
-
-            // find the best place
-            for(int iter = 0 ; iter < storageCacheSize ; iter++) {
-                Object[] index = (Object[])storageCacheContent.elementAt(iter);
-                long current = ((Long)index[0]).longValue();
-                if(smallest > current) {
-                    smallest = current;
-                    offset = iter;
-                }
-            }
-            placeInStorageCache(offset, key, lastAccessed, value);
+            // reuse the least recently used slot
+            n = storageTail;
+            unlink(n, false);
+            storageIndex.remove(n.key);
         }
-    }
-
-    private void placeInStorageCache(int offset, Object key, long lastAccessed, Object value) {
+        n.key = key;
+        n.lastAccessed = lastAccessed;
+        storageIndex.put(key, n);
+        linkFirst(n, false);
         Vector v = new Vector();
         v.addElement(value);
-        Long l = new Long(lastAccessed);
-        v.addElement(l);
+        v.addElement(new Long(lastAccessed));
         v.addElement(key);
-        Storage.getInstance().writeObject("$CACHE$" + offset, v);
-        if(storageCacheContent.size() > offset) {
-            storageCacheContent.setElementAt(new Object[] {l, key}, offset);
-        } else {
-            storageCacheContent.insertElementAt(new Object[] {l, key}, offset);
-        }
+        Storage.getInstance().writeObject("$CACHE$" + n.offset, v);
     }
 
     private Vector fetchFromStorageCache(int offset) {
         return (Vector)Storage.getInstance().readObject("$CACHE$" + offset);
     }
 
+    private void linkFirst(Node n, boolean memory) {
+        Node head = memory ? memoryHead : storageHead;
+        n.previous = null;
+        n.next = head;
+        if(head != null) {
+            head.previous = n;
+        }
+        if(memory) {
+            memoryHead = n;
+            if(memoryTail == null) {
+                memoryTail = n;
+            }
+        } else {
+            storageHead = n;
+            if(storageTail == null) {
+                storageTail = n;
+            }
+        }
+    }
+
+    private void unlink(Node n, boolean memory) {
+        if(n.previous != null) {
+            n.previous.next = n.next;
+        } else if(memory) {
+            memoryHead = n.next;
+        } else {
+            storageHead = n.next;
+        }
+        if(n.next != null) {
+            n.next.previous = n.previous;
+        } else if(memory) {
+            memoryTail = n.previous;
+        } else {
+            storageTail = n.previous;
+        }
+        n.previous = null;
+        n.next = null;
+    }
+
     /**
      * Clears the storage cache
      */
@@ -211,6 +364,11 @@ public class CacheMap {
                 Storage.getInstance().deleteStorageFile("$CACHE$" + iter);
             }
         }
+        storageIndex.clear();
+        storageHead = null;
+        storageTail = null;
+        freeStorageSlots.removeAllElements();
+        usedStorageSlots = 0;
     }
 
     /**
@@ -231,11 +389,93 @@ public class CacheMap {
      */
     public void setStorageCacheSize(int storageCacheSize) {
         this.storageCacheSize = storageCacheSize;
-        for(int iter = 0 ; iter < storageCacheSize ; iter++) {
+        storageIndex.clear();
+        storageHead = null;
+        storageTail = null;
+        freeStorageSlots.removeAllElements();
+        usedStorageSlots = storageCacheSize;
+        for(int iter = storageCacheSize - 1 ; iter >= 0 ; iter--) {
             Vector v = fetchFromStorageCache(iter);
-            if(v != null) {
-                storageCacheContent.insertElementAt(new Object[] {v.elementAt(1), v.elementAt(2)}, iter);
+            if(v == null) {
+                freeStorageSlots.addElement(new Integer(iter));
+                continue;
+            }
+            Node n = new Node();
+            n.offset = iter;
+            n.lastAccessed = ((Long)v.elementAt(1)).longValue();
+            n.key = v.elementAt(2);
+            storageIndex.put(n.key, n);
+
+            // keep the list ordered by the last access time
+            Node after = storageHead;
+            while(after != null && after.lastAccessed > n.lastAccessed) {
+                after = after.next;
+            }
+            if(after == null) {
+                n.previous = storageTail;
+                if(storageTail != null) {
+                    storageTail.next = n;
+                } else {
+                    storageHead = n;
+                }
+                storageTail = n;
+            } else {
+                n.next = after;
+                n.previous = after.previous;
+                if(after.previous != null) {
+                    after.previous.next = n;
+                } else {
+                    storageHead = n;
+                }
+                after.previous = n;
             }
         }
     }
+
+    /**
+     * Returns the number of successful lookups since the last reset
+     *
+     * @return the number of cache hits
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups served from the storage cache since the last reset,
+     * these are also counted as hits
+     *
+     * @return the number of storage cache hits
+     */
+    public int getStorageHitCount() {
+        return storageHitCount;
+    }
+
+    /**
+     * Returns the number of failed lookups since the last reset
+     *
+     * @return the number of cache misses
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of entries evicted from the memory cache since the last reset
+     *
+     * @return the number of evictions
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters
+     */
+    public void resetStatistics() {
+        hitCount = 0;
+        storageHitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
 }
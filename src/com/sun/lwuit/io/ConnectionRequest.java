@@ -34,6 +34,7 @@ import com.sun.lwuit.io.util.BufferedOutputStream;
 import com.sun.lwuit.io.util.IOProgressListener;
 import com.sun.lwuit.io.util.Util;
 import com.sun.lwuit.util.EventDispatcher;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -96,6 +97,24 @@ public class ConnectionRequest implements IOProgressListener {
         defaultFollowRedirects = aDefaultFollowRedirects;
     }
 
+    /**
+     * Indicates whether GET requests use the persistent HTTP cache by default
+     *
+     * @return the defaultHttpCacheEnabled
+     */
+    public static boolean isDefaultHttpCacheEnabled() {
+        return defaultHttpCacheEnabled;
+    }
+
+    /**
+     * Indicates whether GET requests use the persistent HTTP cache by default
+     *
+     * @param aDefaultHttpCacheEnabled the defaultHttpCacheEnabled to set
+     */
+    public static void setDefaultHttpCacheEnabled(boolean aDefaultHttpCacheEnabled) {
+        defaultHttpCacheEnabled = aDefaultHttpCacheEnabled;
+    }
+
     private byte priority = PRIORITY_NORMAL;
     private long timeSinceLastUpdate;
     private Hashtable requestArguments;
@@ -111,6 +130,9 @@ public class ConnectionRequest implements IOProgressListener {
     private boolean killed = false;
     private static boolean defaultFollowRedirects = true;
     private boolean followRedirects = defaultFollowRedirects;
+    private static boolean defaultHttpCacheEnabled = false;
+    private boolean httpCacheEnabled = defaultHttpCacheEnabled;
+    private boolean compressionEnabled = true;
     private int timeout = 300000;
     private InputStream input;
     private OutputStream output;
@@ -124,6 +146,41 @@ public class ConnectionRequest implements IOProgressListener {
 
     private int silentRetryCount = 0;
 
+    /**
+     * Identical requests that wait for the response of this request, their listeners
+     * are notified by the network manager once this request completes
+     */
+    private Vector coalesced;
+
+    /**
+     * The response events fired while identical requests can be coalesced into this
+     * request, they are handed to the coalesced requests when it completes
+     */
+    private Vector responseEvents;
+
+    /**
+     * The response events of the request into which this request was coalesced
+     */
+    Vector coalescedResponses;
+
+    /**
+     * The number of times this instance is referenced by the network manager
+     * request index (queued or in flight)
+     */
+    int indexReferences;
+
+    /**
+     * The host of the request URL, used by the network manager for the per host limits
+     */
+    private String networkHost;
+
+    /**
+     * The time at which the request was last queued and the metrics of the current
+     * execution, set by the network manager
+     */
+    long queuedTime;
+    RequestMetrics metrics;
+
     /**
      * Adds the given header to the request that will be sent
      * 
@@ -153,6 +210,50 @@ public class ConnectionRequest implements IOProgressListener {
         }
     }
 
+    /**
+     * Returns the value of a request header as it would be sent to the server
+     *
+     * @param key the header name (case insensitive)
+     * @return the header value or null
+     */
+    String getRequestHeader(String key) {
+        if(key.equalsIgnoreCase("User-Agent")) {
+            return getUserAgent();
+        }
+        if(key.equalsIgnoreCase("Content-Type")) {
+            return getContentType();
+        }
+        if(key.equalsIgnoreCase("Accept-Encoding")) {
+            return getAcceptEncoding();
+        }
+        if(userHeaders != null) {
+            Enumeration e = userHeaders.keys();
+            while(e.hasMoreElements()) {
+                String k = (String)e.nextElement();
+                if(k.equalsIgnoreCase(key)) {
+                    return (String)userHeaders.get(k);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the headers added to this request
+     *
+     * @return the headers or null
+     */
+    Hashtable getRequestHeaders() {
+        return userHeaders;
+    }
+
+    private String getAcceptEncoding() {
+        if(compressionEnabled && IOImplementation.getInstance().isResponseDecodingSupported()) {
+            return "gzip, deflate";
+        }
+        return "identity";
+    }
+
     void prepare() {
         timeSinceLastUpdate = System.currentTimeMillis();
     }
@@ -175,6 +276,8 @@ public class ConnectionRequest implements IOProgressListener {
             impl.setHeader(connection, "Content-Type", getContentType());
         }
 
+        impl.setHeader(connection, "Accept-Encoding", getAcceptEncoding());
+
         if(userHeaders != null) {
             Enumeration e = userHeaders.keys();
             while(e.hasMoreElements()) {
@@ -194,15 +297,45 @@ public class ConnectionRequest implements IOProgressListener {
         }
         IOImplementation impl = IOImplementation.getInstance();
         Object connection = null;
+        RequestMetrics m = metrics;
         input = null;
         output = null;
         try {
             String actualUrl = createRequestURL();
+            HttpCache.Entry cached = null;
+            boolean cacheable = isHttpCacheable();
+            if(cacheable) {
+                cached = HttpCache.getInstance().get(actualUrl, this);
+                if(cached != null && cached.isFresh()) {
+                    byte[] body = null;
+                    try {
+                        body = cached.readBody();
+                    } catch(IOException err) {
+                        // the entry is corrupt, fall back to the network
+                        err.printStackTrace();
+                        cached = null;
+                    }
+                    if(body != null) {
+                        if(m != null) {
+                            m.cached = true;
+                            m.readStart = System.currentTimeMillis();
+                        }
+                        readCachedResponse(body);
+                        if(m != null) {
+                            m.readEnd = System.currentTimeMillis();
+                        }
+                        return;
+                    }
+                }
+            }
             connection = impl.connect(actualUrl, isReadRequest(), isPost() || isWriteRequest());
             if(shouldStop()) {
                 return;
             }
             initConnection(connection);
+            if(cached != null) {
+                cached.addValidators(connection);
+            }
             Vector v = impl.getCookiesForURL(actualUrl);
             if(v != null) {
                 int c = v.size();
@@ -236,13 +369,23 @@ public class ConnectionRequest implements IOProgressListener {
                 }
                 if(output instanceof BufferedOutputStream) {
                     ((BufferedOutputStream)output).flushBuffer();
+                    if(m != null) {
+                        m.bytesSent = ((BufferedOutputStream)output).getTotalBytesWritten();
+                    }
                     if(shouldStop()) {
                         return;
                     }
                 }
             }
             timeSinceLastUpdate = System.currentTimeMillis();
+            if(m != null) {
+                m.sent = timeSinceLastUpdate;
+            }
             int responseCode = impl.getResponseCode(connection);
+            if(m != null) {
+                m.responded = System.currentTimeMillis();
+                m.responseCode = responseCode;
+            }
             
             String[] cookies = impl.getHeaderFields("Set-Cookie", connection);
             if(cookies != null && cookies.length > 0){
@@ -260,7 +403,21 @@ public class ConnectionRequest implements IOProgressListener {
                 impl.addCookie(arr);
             }
             
-            if(responseCode != 200) {
+            if(responseCode == 304 && cached != null) {
+                // the cached copy is still valid, the network response has no body
+                if(m != null) {
+                    m.cached = true;
+                    m.readStart = System.currentTimeMillis();
+                }
+                readCachedResponse(HttpCache.getInstance().revalidated(cached, connection));
+                if(m != null) {
+                    m.readEnd = System.currentTimeMillis();
+                }
+                return;
+            }
+
+            // 206 is the response to a Range request
+            if(responseCode != 200 && responseCode != 206) {
                 // redirect to new location
                 if(followRedirects && (responseCode == 301 || responseCode == 302
                         || responseCode == 303)) {
@@ -302,13 +459,51 @@ public class ConnectionRequest implements IOProgressListener {
                 if(shouldStop()) {
                     return;
                 }
+                BufferedInputStream raw = null;
                 if(input instanceof BufferedInputStream) {
+                    raw = (BufferedInputStream)input;
                     if(NetworkManager.getInstance().hasProgressListeners()) {
                         ((BufferedInputStream)input).setProgressListener(this);
                     }
                     ((BufferedInputStream)input).setYield(getYield());
+                    // the response is only read by this network thread
+                    ((BufferedInputStream)input).setSingleOwner(true);
+                }
+                String encoding = impl.getHeaderField("Content-Encoding", connection);
+                if(encoding != null && impl.isResponseDecodingSupported()) {
+                    // progress is still reported by the underlying stream in compressed bytes
+                    input = impl.createDecodingInputStream(input, encoding);
+                }
+                if(m != null) {
+                    m.readStart = System.currentTimeMillis();
+                }
+                HttpCache.CachingInputStream cachingInput = null;
+
+                // a 206 carries only part of the body and must never be stored as the response
+                if(cacheable && responseCode == 200 && HttpCache.getInstance().isCacheable(connection, contentLength)) {
+                    cachingInput = HttpCache.getInstance().createCachingInputStream(input);
+                    input = cachingInput;
                 }
                 readResponse(input);
+                if(cachingInput != null) {
+                    // the response was already delivered, failing to cache it mustn't fail the request
+                    try {
+                        byte[] body = cachingInput.getBody(shouldAutoCloseResponse());
+                        if(body != null) {
+                            HttpCache.getInstance().put(actualUrl, this, connection, body);
+                        }
+                    } catch(IOException err) {
+                        err.printStackTrace();
+                        HttpCache.getInstance().remove(actualUrl);
+                    }
+                }
+                if(m != null) {
+                    m.readEnd = System.currentTimeMillis();
+                    if(raw != null) {
+                        m.readTime = raw.getReadTime();
+                        m.bytesReceived = raw.getTotalBytesRead();
+                    }
+                }
                 if(shouldAutoCloseResponse()) {
                     input.close();
                 }
@@ -326,6 +521,23 @@ public class ConnectionRequest implements IOProgressListener {
         }
     }
 
+    /**
+     * Returns true if this request can be served from the HTTP cache
+     */
+    private boolean isHttpCacheable() {
+        return httpCacheEnabled && !post && !writeRequest && readRequest && Storage.isInitialized();
+    }
+
+    private void readCachedResponse(byte[] body) throws IOException {
+        contentLength = body.length;
+        progress = NetworkEvent.PROGRESS_TYPE_INPUT;
+        if(isReadRequest()) {
+            input = new ByteArrayInputStream(body);
+            readResponse(input);
+            input = null;
+        }
+    }
+
     /**
      * This mimics the behavior of browsers that convert post operations to get operations when redirecting a
      * request.
@@ -422,6 +634,24 @@ public class ConnectionRequest implements IOProgressListener {
             c.setDomain(IOImplementation.getInstance().getURLDomain(url));
         }
 
+        String lower = h.toLowerCase();
+        index = lower.indexOf("path=", edge);
+        if(index > -1) {
+            int end = h.indexOf(';', index);
+            c.setPath(h.substring(index + 5, end < 0 ? h.length() : end).trim());
+        }
+        index = lower.indexOf("max-age=", edge);
+        if(index > -1) {
+            int end = h.indexOf(';', index);
+            try {
+                long age = Long.parseLong(h.substring(index + 8, end < 0 ? h.length() : end).trim());
+                // a non-positive max age deletes the cookie
+                c.setExpires(age > 0 ? System.currentTimeMillis() + age * 1000 : 1);
+            } catch(NumberFormatException err) {
+                err.printStackTrace();
+            }
+        }
+
         return c;
     }
 
@@ -848,6 +1078,48 @@ public class ConnectionRequest implements IOProgressListener {
         this.followRedirects = followRedirects;
     }
 
+    /**
+     * Indicates whether the server may send a gzip/deflate compressed response
+     * that is transparently decoded before readResponse is invoked
+     *
+     * @return the compressionEnabled
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Indicates whether the server may send a gzip/deflate compressed response
+     * that is transparently decoded before readResponse is invoked, defaults to true.
+     * Notice that getContentLength() and the progress events refer to the compressed size.
+     *
+     * @param compressionEnabled the compressionEnabled to set
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Indicates whether this request uses the persistent HTTP cache, this only
+     * applies to GET requests
+     *
+     * @return the httpCacheEnabled
+     */
+    public boolean isHttpCacheEnabled() {
+        return httpCacheEnabled;
+    }
+
+    /**
+     * Indicates whether this request uses the persistent HTTP cache, this only
+     * applies to GET requests. Fresh responses are served from storage without
+     * contacting the server and stale responses are revalidated with the server.
+     *
+     * @param httpCacheEnabled the httpCacheEnabled to set
+     */
+    public void setHttpCacheEnabled(boolean httpCacheEnabled) {
+        this.httpCacheEnabled = httpCacheEnabled;
+    }
+
     /**
      * Indicates the timeout for this connection request 
      *
@@ -922,6 +1194,7 @@ public class ConnectionRequest implements IOProgressListener {
     public void setUrl(String url) {
         url = url.intern();
         this.url = url;
+        networkHost = null;
     }
 
     /**
@@ -991,7 +1264,8 @@ public class ConnectionRequest implements IOProgressListener {
      * @return true or false
      */
     protected boolean hasResponseListeners() {
-        return actionListeners != null;
+        // coalesced requests receive the response events of this request
+        return actionListeners != null || coalesced != null;
     }
 
     /**
@@ -1003,6 +1277,90 @@ public class ConnectionRequest implements IOProgressListener {
         if(actionListeners != null) {
             actionListeners.fireActionEvent(ev);
         }
+        if(indexReferences > 0) {
+            if(responseEvents == null) {
+                responseEvents = new Vector();
+            }
+            responseEvents.addElement(ev);
+        }
+    }
+
+    /**
+     * Fires a response event of the request into which this request was coalesced
+     * to the listeners of this request
+     *
+     * @param ev the event to fire
+     */
+    void fireCoalescedResponse(ActionEvent ev) {
+        if(actionListeners != null) {
+            actionListeners.fireActionEvent(ev);
+        }
+    }
+
+    /**
+     * Registers an identical request that is notified of this response instead of
+     * performing a second download, the listeners of this request aren't modified
+     *
+     * @param duplicate a request equal to this request
+     */
+    void coalesce(ConnectionRequest duplicate) {
+        if(coalesced == null) {
+            coalesced = new Vector();
+        }
+        coalesced.addElement(duplicate);
+    }
+
+    /**
+     * Returns the lower case host (and port) of the request URL or an empty string
+     *
+     * @return the host used for the network manager per host limits
+     */
+    String getNetworkHost() {
+        if(networkHost == null) {
+            String u = getUrl();
+            if(u == null) {
+                return "";
+            }
+            int start = u.indexOf("://");
+            if(start < 0) {
+                start = 0;
+            } else {
+                start += 3;
+            }
+            int end = start;
+            int len = u.length();
+            while(end < len) {
+                char c = u.charAt(end);
+                if(c == '/' || c == '?' || c == '#') {
+                    break;
+                }
+                end++;
+            }
+            String h = u.substring(start, end);
+            int at = h.lastIndexOf('@');
+            if(at > -1) {
+                h = h.substring(at + 1);
+            }
+            networkHost = h.toLowerCase();
+        }
+        return networkHost;
+    }
+
+    /**
+     * Returns the requests coalesced into this request and clears the list
+     *
+     * @return the coalesced requests or null
+     */
+    Vector removeCoalesced() {
+        Vector v = coalesced;
+        if(v != null) {
+            for(int iter = 0 ; iter < v.size() ; iter++) {
+                ((ConnectionRequest)v.elementAt(iter)).coalescedResponses = responseEvents;
+            }
+        }
+        coalesced = null;
+        responseEvents = null;
+        return v;
     }
 
     /**
@@ -1030,7 +1388,13 @@ public class ConnectionRequest implements IOProgressListener {
         if(url != null) {
             int i = url.hashCode();
             if(requestArguments != null) {
-                i = i ^ requestArguments.hashCode();
+                // Hashtable.hashCode() is identity based on CLDC, combine the entries
+                // so identical requests hash identically
+                Enumeration e = requestArguments.keys();
+                while(e.hasMoreElements()) {
+                    Object key = e.nextElement();
+                    i = i ^ (key.hashCode() * 31 + requestArguments.get(key).hashCode());
+                }
             }
             return i;
         }
@@ -24,6 +24,7 @@
 
 package com.sun.lwuit.io;
 
+import com.sun.lwuit.io.impl.IOImplementation;
 import com.sun.lwuit.io.util.Util;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -38,6 +39,7 @@ public class Cookie implements Externalizable {
     private String name;
     private String value;
     private String domain;
+    private String path = "/";
     private long expires;
 
     private static boolean autoStored = true;
@@ -89,6 +91,20 @@ public class Cookie implements Externalizable {
         this.domain = domain;
     }
 
+    /**
+     * @return the path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @param path the path to set
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
     /**
      * @return the expires
      */
@@ -107,7 +123,7 @@ public class Cookie implements Externalizable {
      * @inheritDoc
      */
     public int getVersion() {
-        return 1;
+        return 2;
     }
 
     /**
@@ -128,6 +144,7 @@ public class Cookie implements Externalizable {
             out.writeBoolean(false);
         }
         out.writeLong(expires);
+        Util.writeUTF(path, out);
     }
 
     /**
@@ -142,6 +159,9 @@ public class Cookie implements Externalizable {
             domain = in.readUTF();
         }
         expires = in.readLong();
+        if(version > 1) {
+            path = Util.readUTF(in);
+        }
     }
 
     /**
@@ -155,7 +175,7 @@ public class Cookie implements Externalizable {
      * @inheritDoc
      */
     public String toString() {
-        return "name = " + name + " value = " + value + " domain = " + domain;
+        return "name = " + name + " value = " + value + " domain = " + domain + " path = " + path;
     }
 
     /**
@@ -177,11 +197,9 @@ public class Cookie implements Externalizable {
     }
     
     /**
-     * Clears all cookies history from storage
+     * Clears all cookies history from storage and memory
      */
     public static void clearCookiesFromStorage() {
-        if (Storage.getInstance().exists(Cookie.STORAGE_NAME)) {
-            Storage.getInstance().deleteStorageFile(Cookie.STORAGE_NAME);
-        }
+        IOImplementation.getInstance().clearCookies();
     }
 }
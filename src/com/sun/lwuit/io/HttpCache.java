@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io;
+
+import com.sun.lwuit.io.impl.IOImplementation;
+import com.sun.lwuit.io.util.Util;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+/**
+ * Persistent HTTP response cache used by connection requests that enable
+ * HTTP caching. Responses are stored in the application storage keyed by URL,
+ * the cache honors the max-age/no-cache/no-store directives of the Cache-Control
+ * header and revalidates stale entries using the ETag and Last-Modified validators.
+ * Only a single variant is kept per URL, the values of the request headers listed
+ * in the Vary header are stored with the entry and must match for a cache hit.
+ *
+ * @author Shai Almog
+ */
+public class HttpCache {
+    private static final String PREFIX = "$HTTP$";
+    private static final HttpCache INSTANCE = new HttpCache();
+    private int maxEntrySize = 256 * 1024;
+
+    private HttpCache() {
+    }
+
+    /**
+     * Returns the singleton instance of this class
+     *
+     * @return instance of this class
+     */
+    public static HttpCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Responses larger than this size in bytes aren't cached
+     *
+     * @return the maximum size of a cached response
+     */
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Responses larger than this size in bytes aren't cached
+     *
+     * @param maxEntrySize the maximum size of a cached response
+     */
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Deletes all the cached responses from storage
+     */
+    public void clear() {
+        if(!Storage.isInitialized()) {
+            return;
+        }
+        String[] entries = Storage.getInstance().listEntries();
+        if(entries == null) {
+            return;
+        }
+        for(int iter = 0 ; iter < entries.length ; iter++) {
+            if(entries[iter].startsWith(PREFIX)) {
+                Storage.getInstance().deleteStorageFile(entries[iter]);
+            }
+        }
+    }
+
+    /**
+     * Deletes the cached response for the given URL
+     *
+     * @param url the request URL
+     */
+    void remove(String url) {
+        if(Storage.isInitialized()) {
+            Storage.getInstance().deleteStorageFile(storageName(url));
+        }
+    }
+
+    private static String storageName(String url) {
+        return PREFIX + Integer.toHexString(url.hashCode());
+    }
+
+    /**
+     * Returns the cache entry for the given URL if it matches the request
+     *
+     * @param url the request URL
+     * @param request the request
+     * @return the cache entry or null
+     */
+    Entry get(String url, ConnectionRequest request) {
+        String name = storageName(url);
+        Storage s = Storage.getInstance();
+        if(!s.exists(name)) {
+            return null;
+        }
+        DataInputStream d = null;
+        try {
+            d = new DataInputStream(s.createInputStream(name));
+            Entry e = new Entry();
+            e.name = name;
+            e.url = d.readUTF();
+            if(!e.url.equals(url)) {
+                d.close();
+                return null;
+            }
+            e.expires = d.readLong();
+            e.etag = Util.readUTF(d);
+            e.lastModified = Util.readUTF(d);
+            int varyCount = d.readInt();
+            e.varyNames = new String[varyCount];
+            e.varyValues = new String[varyCount];
+            for(int iter = 0 ; iter < varyCount ; iter++) {
+                e.varyNames[iter] = d.readUTF();
+                e.varyValues[iter] = Util.readUTF(d);
+                if(!equalValues(e.varyValues[iter], request.getRequestHeader(e.varyNames[iter]))) {
+                    d.close();
+                    return null;
+                }
+            }
+            d.close();
+            return e;
+        } catch(IOException err) {
+            err.printStackTrace();
+            IOImplementation.getInstance().cleanup(d);
+            s.deleteStorageFile(name);
+            return null;
+        }
+    }
+
+    private static boolean equalValues(String a, String b) {
+        if(a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Returns true if a response with the given headers can be stored in the cache
+     *
+     * @param connection the connection
+     * @param contentLength the content length of the response or -1 if unknown
+     * @return true if the response should be cached
+     */
+    boolean isCacheable(Object connection, int contentLength) throws IOException {
+        if(contentLength > maxEntrySize) {
+            return false;
+        }
+        IOImplementation impl = IOImplementation.getInstance();
+        String vary = impl.getHeaderField("Vary", connection);
+        if(vary != null && vary.indexOf('*') > -1) {
+            return false;
+        }
+        String cacheControl = impl.getHeaderField("Cache-Control", connection);
+        if(cacheControl != null && cacheControl.toLowerCase().indexOf("no-store") > -1) {
+            return false;
+        }
+        return getMaxAge(cacheControl) > 0 || impl.getHeaderField("ETag", connection) != null ||
+                impl.getHeaderField("Last-Modified", connection) != null;
+    }
+
+    /**
+     * Wraps the response stream so the body is copied as it is read, the copy is
+     * dropped once it exceeds the maximum entry size so a response of unknown length
+     * is never buffered in full
+     *
+     * @param in the response stream
+     * @return a stream that copies the response
+     */
+    CachingInputStream createCachingInputStream(InputStream in) {
+        return new CachingInputStream(in, maxEntrySize);
+    }
+
+    /**
+     * Stores the given response in the cache
+     *
+     * @param url the request URL
+     * @param request the request
+     * @param connection the connection from which the response headers are read
+     * @param body the response body
+     */
+    void put(String url, ConnectionRequest request, Object connection, byte[] body) throws IOException {
+        if(body.length > maxEntrySize) {
+            return;
+        }
+        IOImplementation impl = IOImplementation.getInstance();
+        Entry e = new Entry();
+        e.name = storageName(url);
+        e.url = url;
+        e.etag = impl.getHeaderField("ETag", connection);
+        e.lastModified = impl.getHeaderField("Last-Modified", connection);
+        e.expires = computeExpires(impl.getHeaderField("Cache-Control", connection));
+        String vary = impl.getHeaderField("Vary", connection);
+        if(vary != null) {
+            Vector names = new Vector();
+            int pos = 0;
+            while(pos < vary.length()) {
+                int comma = vary.indexOf(',', pos);
+                if(comma < 0) {
+                    comma = vary.length();
+                }
+                String n = vary.substring(pos, comma).trim();
+                if(n.length() > 0) {
+                    names.addElement(n);
+                }
+                pos = comma + 1;
+            }
+            e.varyNames = new String[names.size()];
+            e.varyValues = new String[names.size()];
+            for(int iter = 0 ; iter < e.varyNames.length ; iter++) {
+                e.varyNames[iter] = (String)names.elementAt(iter);
+                e.varyValues[iter] = request.getRequestHeader(e.varyNames[iter]);
+            }
+        } else {
+            e.varyNames = new String[0];
+            e.varyValues = new String[0];
+        }
+        write(e, body);
+    }
+
+    /**
+     * Updates the expiration of an entry following a 304 (not modified) response
+     *
+     * @param e the entry that was revalidated
+     * @param connection the connection from which the response headers are read
+     * @return the body of the entry
+     */
+    byte[] revalidated(Entry e, Object connection) throws IOException {
+        byte[] body = e.readBody();
+        IOImplementation impl = IOImplementation.getInstance();
+        e.expires = computeExpires(impl.getHeaderField("Cache-Control", connection));
+        String etag = impl.getHeaderField("ETag", connection);
+        if(etag != null) {
+            e.etag = etag;
+        }
+        write(e, body);
+        return body;
+    }
+
+    private void write(Entry e, byte[] body) throws IOException {
+        DataOutputStream d = null;
+        try {
+            d = new DataOutputStream(Storage.getInstance().createOutputStream(e.name));
+            d.writeUTF(e.url);
+            d.writeLong(e.expires);
+            Util.writeUTF(e.etag, d);
+            Util.writeUTF(e.lastModified, d);
+            d.writeInt(e.varyNames.length);
+            for(int iter = 0 ; iter < e.varyNames.length ; iter++) {
+                d.writeUTF(e.varyNames[iter]);
+                Util.writeUTF(e.varyValues[iter], d);
+            }
+            d.writeInt(body.length);
+            d.write(body);
+            d.close();
+        } catch(IOException err) {
+            IOImplementation.getInstance().cleanup(d);
+            Storage.getInstance().deleteStorageFile(e.name);
+            throw err;
+        }
+    }
+
+    private static long computeExpires(String cacheControl) {
+        if(cacheControl != null && cacheControl.toLowerCase().indexOf("no-cache") > -1) {
+            return 0;
+        }
+        int maxAge = getMaxAge(cacheControl);
+        if(maxAge <= 0) {
+            return 0;
+        }
+        return System.currentTimeMillis() + ((long)maxAge) * 1000;
+    }
+
+    private static int getMaxAge(String cacheControl) {
+        if(cacheControl == null) {
+            return -1;
+        }
+        String c = cacheControl.toLowerCase();
+        int pos = c.indexOf("max-age=");
+        if(pos < 0) {
+            return -1;
+        }
+        pos += 8;
+        int end = pos;
+        while(end < c.length() && Character.isDigit(c.charAt(end))) {
+            end++;
+        }
+        if(end == pos) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(c.substring(pos, end));
+        } catch(NumberFormatException err) {
+            return -1;
+        }
+    }
+
+    /**
+     * Copies the bytes read from the response up to a limit
+     */
+    static class CachingInputStream extends InputStream {
+        private final InputStream in;
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private boolean eof;
+
+        CachingInputStream(InputStream in, int limit) {
+            this.in = in;
+            this.limit = limit;
+        }
+
+        private void append(byte[] b, int off, int len) {
+            if(copy != null) {
+                if(copy.size() + len > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        public int read() throws IOException {
+            int v = in.read();
+            if(v < 0) {
+                eof = true;
+            } else {
+                append(new byte[] {(byte)v}, 0, 1);
+            }
+            return v;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int s = in.read(b, off, len);
+            if(s < 0) {
+                eof = true;
+            } else {
+                append(b, off, s);
+            }
+            return s;
+        }
+
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Returns the complete body if it was read to the end within the limit
+         *
+         * @param readRemaining reads the part of the body that wasn't consumed yet
+         * as long as it still fits the limit
+         * @return the body or null if it can't be cached
+         */
+        byte[] getBody(boolean readRemaining) throws IOException {
+            if(readRemaining) {
+                byte[] buffer = new byte[4096];
+                while(copy != null && !eof) {
+                    read(buffer, 0, buffer.length);
+                }
+            }
+            if(copy == null || !eof) {
+                return null;
+            }
+            return copy.toByteArray();
+        }
+    }
+
+    /**
+     * A cached response, the body is only read from storage on demand
+     */
+    static class Entry {
+        String name;
+        String url;
+        long expires;
+        String etag;
+        String lastModified;
+        String[] varyNames;
+        String[] varyValues;
+
+        /**
+         * Returns true if the entry can be served without contacting the server
+         */
+        boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        /**
+         * Adds the conditional request headers to the connection
+         */
+        void addValidators(Object connection) {
+            IOImplementation impl = IOImplementation.getInstance();
+            if(etag != null) {
+                impl.setHeader(connection, "If-None-Match", etag);
+            }
+            if(lastModified != null) {
+                impl.setHeader(connection, "If-Modified-Since", lastModified);
+            }
+        }
+
+        /**
+         * Reads the body of the response from storage
+         */
+        byte[] readBody() throws IOException {
+            DataInputStream d = null;
+            try {
+                d = new DataInputStream(Storage.getInstance().createInputStream(name));
+                d.readUTF();
+                d.readLong();
+                Util.readUTF(d);
+                Util.readUTF(d);
+                int varyCount = d.readInt();
+                for(int iter = 0 ; iter < varyCount ; iter++) {
+                    d.readUTF();
+                    Util.readUTF(d);
+                }
+                byte[] body = new byte[d.readInt()];
+                d.readFully(body);
+                d.close();
+                return body;
+            } catch(IOException err) {
+                IOImplementation.getInstance().cleanup(d);
+                throw err;
+            }
+        }
+    }
+}
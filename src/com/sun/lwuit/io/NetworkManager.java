@@ -75,7 +75,14 @@ public class NetworkManager {
 
     private static final Object LOCK = new Object();
     private static final NetworkManager INSTANCE = new NetworkManager();
-    private Vector pending = new Vector();
+    private NetworkQueue pending = new NetworkQueue();
+    private NetworkQueue[] assignedQueues;
+
+    /**
+     * Index of the queued and in flight requests that don't support duplicates,
+     * maps a request to the instance that is queued or executing
+     */
+    private Hashtable requestIndex = new Hashtable();
     private boolean running;
     private int threadCount = 1;
     private NetworkThread[] networkThreads;
@@ -85,6 +92,19 @@ public class NetworkManager {
     private Hashtable threadAssignements = new Hashtable();
     private Hashtable userHeaders;
 
+    /**
+     * Maps a host to the Integer number of its requests in flight
+     */
+    private Hashtable activeHosts = new Hashtable();
+    private int maxConnectionsPerHost;
+    private int idleThreads;
+    private int criticalRequests;
+    private int criticalFrameRate;
+    private int busyThreads;
+    private boolean metricsEnabled;
+    private NetworkMetrics metrics = new NetworkMetrics();
+    private EventDispatcher metricsListeners;
+
     private NetworkManager() {
     }
 
@@ -108,9 +128,9 @@ public class NetworkManager {
 
     /**
      * Thread count should never be changed when the network is running since it will have no effect.
-     * Increasing the thread count can bring many race conditions and problems to the surface,
-     * furthermore MIDP doesn't require support for more than one network thread hence increasing
-     * the thread count might fail.
+     * All the threads share the queue, requests are handed to the threads by priority and
+     * fairly between hosts (see setMaxConnectionsPerHost). Notice that MIDP doesn't require
+     * support for more than one network thread hence increasing the thread count might fail.
      *
      * @param threadCount the threadCount to set
      */
@@ -118,11 +138,49 @@ public class NetworkManager {
         this.threadCount = threadCount;
     }
 
+    /**
+     * The maximum number of requests to the same host that are processed at once
+     *
+     * @return the limit or 0 if there is no limit
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Limits the number of requests to the same host (and port) that are processed
+     * at once, this is only meaningful when the thread count is larger than one.
+     * Requests to a host that reached the limit stay in the queue while the threads
+     * process requests to other hosts.
+     *
+     * @param maxConnectionsPerHost the limit or 0 for no limit
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        synchronized(LOCK) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            LOCK.notifyAll();
+        }
+    }
+
     class NetworkThread implements Runnable {
-        private ConnectionRequest currentRequest;
+        private volatile ConnectionRequest currentRequest;
         private Thread threadInstance;
+        private int offset;
+
+        /**
+         * The host counted as in flight for the current request, null when the thread
+         * was abandoned by the timeout thread which already released the host
+         */
+        private String host;
 
-        public NetworkThread() {
+        /**
+         * Set when the current request was paused for a critical request, once its
+         * execution stops this thread queues it again without firing completion events
+         */
+        private boolean requeued;
+
+        public NetworkThread(int offset) {
+            this.offset = offset;
         }
 
         public ConnectionRequest getCurrentRequest() {
@@ -146,130 +204,231 @@ public class NetworkManager {
         public void run() {
             threadInstance = Thread.currentThread();
             while(running) {
-                if(pending.size() > 0) {
-                    // the synchronization here isn't essential, only for good measure
-                    synchronized(LOCK) {
-                        //double lock to prevent a potential exception
-                        if(pending.size() == 0){
-                            continue;
-                        }
-                        currentRequest = (ConnectionRequest)pending.elementAt(0);
-                        pending.removeElementAt(0);
-                        currentRequest.prepare();
-                        if(currentRequest.isKilled()){
-                            continue;
+                RequestMetrics m = null;
+                boolean dropped = false;
+                Vector droppedDuplicates = null;
+                synchronized(LOCK) {
+                    ConnectionRequest next = nextRequest(offset);
+                    if(next == null) {
+                        idleThreads++;
+                        try {
+                            LOCK.wait();
+                        } catch (InterruptedException ex) {
+                            ex.printStackTrace();
                         }
+                        idleThreads--;
+                        continue;
                     }
-                    if(userHeaders != null) {
-                        Enumeration e = userHeaders.keys();
-                        while(e.hasMoreElements()) {
-                            String key = (String)e.nextElement();
-                            String value = (String)userHeaders.get(key);
-                            currentRequest.addRequestHeaderDontRepleace(key, value);
+                    next.prepare();
+                    // a request paused for a critical request was queued again
+                    if((next.isPaused() && !next.isKilled() && !next.resume()) || next.isKilled()) {
+                        dropped = true;
+                        droppedDuplicates = unindexRequest(next);
+                    } else {
+                        host = next.getNetworkHost();
+                        hostStarted(host);
+                        currentRequest = next;
+                        requeued = false;
+                        busyThreads++;
+                        if(metricsEnabled) {
+                            m = new RequestMetrics(next, next.queuedTime);
+                            m.started = System.currentTimeMillis();
+                            next.metrics = m;
+                            metrics.busyThreadsChanged(busyThreads);
                         }
                     }
-                    if(threadAssignements.size() > 0) {
-                        String n = currentRequest.getClass().getName();
-                        Integer threadOffset = (Integer)threadAssignements.get(n);
-                        if(threadOffset != null && networkThreads[threadOffset.intValue()] != this) {
-                            synchronized(LOCK) {
-                                if(pending.size() > 0) {
-                                    pending.insertElementAt(currentRequest, 1);
-                                    continue;
-                                }
-                                pending.addElement(currentRequest);
-                                LOCK.notify();
-                                try {
-                                    LOCK.wait(30);
-                                } catch (InterruptedException ex) {
-                                    ex.printStackTrace();
-                                }
-                            }
-                        }
+                }
+                if(dropped) {
+                    fireCoalescedCompleted(droppedDuplicates);
+                    continue;
+                }
+                addDefaultHeaders(currentRequest);
+
+                boolean critical = false;
+                try {
+                    // for higher priority tasks increase the thread priority, for lower
+                    // prioirty tasks decrease it. In critical priority reduce the LWUIT
+                    // rendering thread speed for even faster download
+                    switch(currentRequest.getPriority()) {
+                        case ConnectionRequest.PRIORITY_CRITICAL:
+                            critical = true;
+                            criticalStarted();
+                            Thread.currentThread().setPriority(Thread.MAX_PRIORITY - 1);
+                            break;
+                        case ConnectionRequest.PRIORITY_HIGH:
+                            Thread.currentThread().setPriority(Thread.NORM_PRIORITY + 2);
+                            break;
+                        case ConnectionRequest.PRIORITY_NORMAL:
+                            break;
+                        case ConnectionRequest.PRIORITY_LOW:
+                            Thread.currentThread().setPriority(Thread.MIN_PRIORITY + 2);
+                            break;
+                        case ConnectionRequest.PRIORITY_REDUNDANT:
+                            Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                            break;
+                    }
+                    
+                    if(progressListeners != null) {
+                        progressListeners.fireActionEvent(new NetworkEvent(currentRequest, NetworkEvent.PROGRESS_TYPE_INITIALIZING));
+                    }
+                    if(currentRequest.getShowOnInit() != null) {
+                        currentRequest.getShowOnInit().showModeless();
                     }
 
-                    int frameRate = -1;
-                    try {
-                        // for higher priority tasks increase the thread priority, for lower
-                        // prioirty tasks decrease it. In critical priority reduce the LWUIT
-                        // rendering thread speed for even faster download
-                        switch(currentRequest.getPriority()) {
-                            case ConnectionRequest.PRIORITY_CRITICAL:
-                                frameRate = Display.getInstance().getFrameRate();
-                                Display.getInstance().setFramerate(4);
-                                Thread.currentThread().setPriority(Thread.MAX_PRIORITY - 1);
-                                break;
-                            case ConnectionRequest.PRIORITY_HIGH:
-                                Thread.currentThread().setPriority(Thread.NORM_PRIORITY + 2);
-                                break;
-                            case ConnectionRequest.PRIORITY_NORMAL:
-                                break;
-                            case ConnectionRequest.PRIORITY_LOW:
-                                Thread.currentThread().setPriority(Thread.MIN_PRIORITY + 2);
-                                break;
-                            case ConnectionRequest.PRIORITY_REDUNDANT:
-                                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-                                break;
-                        }
-                        
-                        if(progressListeners != null) {
-                            progressListeners.fireActionEvent(new NetworkEvent(currentRequest, NetworkEvent.PROGRESS_TYPE_INITIALIZING));
-                        }
-                        if(currentRequest.getShowOnInit() != null) {
-                            currentRequest.getShowOnInit().showModeless();
-                        }
+                    currentRequest.performOperation();
+                } catch(IOException e) {
+                    if(m != null) {
+                        m.error = e;
+                    }
+                    if(!handleException(currentRequest, e)) {
+                        currentRequest.handleIOException(e);
+                    }
+                } catch(RuntimeException er) {
+                    if(m != null) {
+                        m.error = er;
+                    }
+                    if(!handleException(currentRequest, er)) {
+                        currentRequest.handleRuntimeException(er);
+                    }
+                } finally {
+                    Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+                    if(critical) {
+                        criticalFinished();
+                    }
 
-                        currentRequest.performOperation();
-                    } catch(IOException e) {
-                        if(!handleException(currentRequest, e)) {
-                            currentRequest.handleIOException(e);
+                    Vector coalesced = null;
+                    boolean wasRequeued;
+                    ConnectionRequest finished = currentRequest;
+                    synchronized(LOCK) {
+                        // the request must stop being current in the same block that consumes
+                        // the flag so it can't be paused after it already finished
+                        wasRequeued = requeued && !finished.isKilled();
+                        requeued = false;
+                        currentRequest = null;
+                        if(wasRequeued) {
+                            // the queued request keeps the index reference of this execution and
+                            // resumes once the critical requests queued before it were processed
+                            finished.queuedTime = System.currentTimeMillis();
+                            queueFor(finished).addLast(finished, ConnectionRequest.PRIORITY_CRITICAL);
+                        } else {
+                            coalesced = unindexRequest(finished);
                         }
-                    } catch(RuntimeException er) {
-                        if(!handleException(currentRequest, er)) {
-                            currentRequest.handleRuntimeException(er);
+                        if(host != null) {
+                            hostFinished(host);
+                            host = null;
                         }
-                    } finally {
-                        Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
-                        if(frameRate > -1) {
-                            Display.getInstance().setFramerate(frameRate);
+                        busyThreads--;
+                        if(metricsEnabled) {
+                            metrics.busyThreadsChanged(busyThreads);
                         }
-
-                        if(progressListeners != null) {
-                            progressListeners.fireActionEvent(new NetworkEvent(currentRequest, NetworkEvent.PROGRESS_TYPE_COMPLETED));
+                        if(m != null && finished.metrics == m) {
+                            finished.metrics = null;
                         }
-                        if(currentRequest.getDisposeOnCompletion() != null) {
-                            // there may be a race condition where the dialog hasn't yet appeared but the
-                            // network request completed
-                            while(Display.getInstance().getCurrent() != currentRequest.getDisposeOnCompletion()) {
-                                try {
-                                    Thread.sleep(10);
-                                } catch (InterruptedException ex) {
-                                    ex.printStackTrace();
-                                }
-                            }
-                            currentRequest.getDisposeOnCompletion().dispose();
+
+                        // wakeup threads waiting for the completion of this network operation
+                        // and the threads that can process the requeued request
+                        LOCK.notifyAll();
+                    }
+                    if(m != null && !wasRequeued) {
+                        m.completed = System.currentTimeMillis();
+                        metrics.record(m);
+                        EventDispatcher d = metricsListeners;
+                        if(d != null) {
+                            d.fireActionEvent(new NetworkEvent(finished, m));
                         }
                     }
-                    currentRequest = null;
 
-                    // wakeup threads waiting for the completion of this network operation
-                    synchronized(LOCK) {
-                        LOCK.notifyAll();
+                    if(progressListeners != null && !wasRequeued) {
+                        progressListeners.fireActionEvent(new NetworkEvent(finished, NetworkEvent.PROGRESS_TYPE_COMPLETED));
                     }
-                } else {
-                    synchronized(LOCK) {
-                        try {
-                            // prevent waiting when there is still a pending request
-                            // this can occur with a race condition since the synchronize
-                            // scope is limited to prevent blocking on add...
-                            if(pending.size() == 0) {
-                                LOCK.wait();
+                    fireCoalescedCompleted(coalesced);
+                    if(finished.getDisposeOnCompletion() != null && !wasRequeued) {
+                        // there may be a race condition where the dialog hasn't yet appeared but the
+                        // network request completed
+                        while(Display.getInstance().getCurrent() != finished.getDisposeOnCompletion()) {
+                            try {
+                                Thread.sleep(10);
+                            } catch (InterruptedException ex) {
+                                ex.printStackTrace();
                             }
-                        } catch (InterruptedException ex) {
-                            ex.printStackTrace();
                         }
+                        finished.getDisposeOnCompletion().dispose();
                     }
                 }
+
+                // the timeout thread replaced this thread while it was stuck
+                if(networkThreads[offset] != this) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reduces the LWUIT rendering speed while critical requests are processed, the
+     * frame rate is restored when the last critical request completes
+     */
+    private void criticalStarted() {
+        synchronized(LOCK) {
+            criticalRequests++;
+            if(criticalRequests == 1) {
+                criticalFrameRate = Display.getInstance().getFrameRate();
+                Display.getInstance().setFramerate(4);
+            }
+        }
+    }
+
+    private void criticalFinished() {
+        synchronized(LOCK) {
+            criticalRequests--;
+            if(criticalRequests == 0) {
+                Display.getInstance().setFramerate(criticalFrameRate);
+            }
+        }
+    }
+
+    private void hostStarted(String host) {
+        Integer count = (Integer)activeHosts.get(host);
+        if(count == null) {
+            activeHosts.put(host, new Integer(1));
+        } else {
+            activeHosts.put(host, new Integer(count.intValue() + 1));
+        }
+    }
+
+    private void hostFinished(String host) {
+        Integer count = (Integer)activeHosts.get(host);
+        if(count == null) {
+            return;
+        }
+        if(count.intValue() <= 1) {
+            activeHosts.remove(host);
+        } else {
+            activeHosts.put(host, new Integer(count.intValue() - 1));
+        }
+    }
+
+    private int activeCount(String host) {
+        Integer count = (Integer)activeHosts.get(host);
+        if(count == null) {
+            return 0;
+        }
+        return count.intValue();
+    }
+
+    /**
+     * Adds the global default headers to the given request unless it defines them
+     *
+     * @param request the request
+     */
+    void addDefaultHeaders(ConnectionRequest request) {
+        Hashtable h = userHeaders;
+        if(h != null) {
+            Enumeration e = h.keys();
+            while(e.hasMoreElements()) {
+                String key = (String)e.nextElement();
+                String value = (String)h.get(key);
+                request.addRequestHeaderDontRepleace(key, value);
             }
         }
     }
@@ -289,8 +448,65 @@ public class NetworkManager {
         }
     }
 
-    private NetworkThread createNetworkThread() {
-        return new NetworkThread();
+    private NetworkThread createNetworkThread(int offset) {
+        return new NetworkThread(offset);
+    }
+
+    /**
+     * Returns the next request the thread with the given offset should process,
+     * requests assigned to the thread compete with the shared queue by priority
+     */
+    private ConnectionRequest nextRequest(int offset) {
+        NetworkQueue own = null;
+        if(assignedQueues != null && offset < assignedQueues.length) {
+            own = assignedQueues[offset];
+            if(own != null && own.size() > 0 && own.peekPriority() >= pending.peekPriority()) {
+                ConnectionRequest r = own.poll(activeHosts, maxConnectionsPerHost);
+                if(r != null) {
+                    return r;
+                }
+            }
+        }
+        ConnectionRequest r = pending.poll(activeHosts, maxConnectionsPerHost);
+        if(r == null && own != null && own.size() > 0) {
+            r = own.poll(activeHosts, maxConnectionsPerHost);
+        }
+        return r;
+    }
+
+    /**
+     * Returns the queue into which the given request should be placed based on
+     * the thread assignments
+     */
+    private NetworkQueue queueFor(ConnectionRequest request) {
+        if(threadAssignements.size() > 0) {
+            Integer offset = (Integer)threadAssignements.get(request.getClass().getName());
+            if(offset != null && offset.intValue() < threadCount) {
+                int o = offset.intValue();
+                if(assignedQueues == null) {
+                    assignedQueues = new NetworkQueue[threadCount];
+                }
+                if(assignedQueues[o] == null) {
+                    assignedQueues[o] = new NetworkQueue();
+                }
+                return assignedQueues[o];
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the queue that would hold the given request without creating an assigned
+     * queue, null if the request's assigned queue doesn't exist yet
+     */
+    private NetworkQueue existingQueueFor(ConnectionRequest request) {
+        if(threadAssignements.size() > 0) {
+            Integer offset = (Integer)threadAssignements.get(request.getClass().getName());
+            if(offset != null && offset.intValue() < threadCount) {
+                return assignedQueueOf(offset.intValue());
+            }
+        }
+        return pending;
     }
 
     /**
@@ -304,7 +520,7 @@ public class NetworkManager {
         running = true;
         networkThreads = new NetworkThread[getThreadCount()];
         for(int iter = 0 ; iter < getThreadCount() ; iter++) {
-            networkThreads[iter] = createNetworkThread();
+            networkThreads[iter] = createNetworkThread(iter);
             networkThreads[iter].start();
         }
         // we need to implement a timeout thread of our own for this case...
@@ -335,11 +551,16 @@ public class NetworkManager {
                                     }
 
                                     // did the attempt work?
-                                    if(networkThreads[iter].getCurrentRequest() == c) {
-                                        if(c.getTimeSinceLastActivity() > cTimeout) {
+                                    synchronized(LOCK) {
+                                        NetworkThread stuck = networkThreads[iter];
+                                        if(stuck.getCurrentRequest() == c && c.getTimeSinceLastActivity() > cTimeout) {
                                             // we need to create a whole new network thread and abandon this one!
                                             if(running) {
-                                                networkThreads[iter] = createNetworkThread();
+                                                if(stuck.host != null) {
+                                                    hostFinished(stuck.host);
+                                                    stuck.host = null;
+                                                }
+                                                networkThreads[iter] = createNetworkThread(iter);
                                                 networkThreads[iter].start();
                                             }
                                         }
@@ -369,17 +590,6 @@ public class NetworkManager {
         return INSTANCE;
     }
 
-    private void addSortedToQueue(ConnectionRequest request, int priority) {
-        for(int iter = 0 ; iter < pending.size() ; iter++) {
-            ConnectionRequest r = (ConnectionRequest)pending.elementAt(iter);
-            if(r.getPriority() < priority) {
-                pending.insertElementAt(request, iter);
-                return;
-            }
-        }
-        pending.addElement(request);
-    }
-
     /**
      * Adds a header to the global default headers, this header will be implicitly added 
      * to all requests going out from this point onwards. The main use case for this is
@@ -452,19 +662,36 @@ public class NetworkManager {
      */
     public void killAndWait(ConnectionRequest request) {
         request.kill();
-        for(int iter = 0 ; iter < threadCount ; iter++) {
-            if(networkThreads[iter].currentRequest == request) {
-                synchronized(LOCK) {
-                    while(networkThreads[iter].currentRequest == request) {
-                        try {
-                            LOCK.wait(20);
-                        } catch (InterruptedException ex) {
-                            ex.printStackTrace();
-                        }
-                    }
+        Vector coalesced = null;
+        synchronized(LOCK) {
+            NetworkQueue queue = existingQueueFor(request);
+            while(queue != null && queue.remove(request)) {
+                Vector v = unindexRequest(request);
+                if(v != null) {
+                    coalesced = v;
+                }
+            }
+            while(isExecuting(request)) {
+                try {
+                    LOCK.wait(20);
+                } catch (InterruptedException ex) {
+                    ex.printStackTrace();
                 }
             }
         }
+        fireCoalescedCompleted(coalesced);
+    }
+
+    private boolean isExecuting(ConnectionRequest request) {
+        if(networkThreads == null) {
+            return false;
+        }
+        for(int iter = 0 ; iter < networkThreads.length ; iter++) {
+            if(networkThreads[iter].currentRequest == request) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -481,40 +708,159 @@ public class NetworkManager {
             int i = request.getPriority();
             if(!retry) {
                 if(!request.isDuplicateSupported()) {
-                    if(pending.contains(request)) {
+                    ConnectionRequest existing = (ConnectionRequest)requestIndex.get(request);
+                    if(existing != null) {
                         System.out.println("Duplicate entry in the queue: " + request.getClass().getName() + ": " + request);
-                        return;
-                    }
-                    ConnectionRequest currentRequest = networkThreads[0].getCurrentRequest();
-                    if(currentRequest != null && currentRequest.equals(request)) {
-                        System.out.println("Duplicate entry detected");
+                        if(existing != request) {
+                            existing.coalesce(request);
+                        }
                         return;
                     }
                 }
             } else {
                 i = ConnectionRequest.PRIORITY_HIGH;
             }
-            switch(i) {
-                case ConnectionRequest.PRIORITY_CRITICAL:
-                    pending.insertElementAt(request, 0);
-                    ConnectionRequest currentRequest = networkThreads[0].getCurrentRequest();
-                    if(currentRequest != null && currentRequest.getPriority() < ConnectionRequest.PRIORITY_CRITICAL) {
-                        if(currentRequest.isPausable()) {
-                            currentRequest.pause();
-                            pending.insertElementAt(currentRequest, 1);
-                        } else {
-                            currentRequest.kill();
-                        }
-                    }
-                    break;
-                case ConnectionRequest.PRIORITY_HIGH:
-                case ConnectionRequest.PRIORITY_NORMAL:
-                case ConnectionRequest.PRIORITY_LOW:
-                case ConnectionRequest.PRIORITY_REDUNDANT:
-                    addSortedToQueue(request, i);
-                    break;
+            NetworkQueue queue = queueFor(request);
+            indexRequest(request);
+            request.queuedTime = System.currentTimeMillis();
+            if(metricsEnabled) {
+                metrics.sampleQueueDepth(queueSize());
+            }
+            if(i == ConnectionRequest.PRIORITY_CRITICAL) {
+                preemptFor(request, queue);
+                queue.addFirst(request, i);
+            } else {
+                queue.addLast(request, i);
+            }
+            if(queue == pending) {
+                LOCK.notify();
+            } else {
+                // only the assigned thread can process this request
+                LOCK.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Makes room for a critical request by pausing (or killing) the lowest priority
+     * request in flight, nothing is preempted if a thread that can process the
+     * critical request is idle
+     */
+    private void preemptFor(ConnectionRequest request, NetworkQueue queue) {
+        if(networkThreads == null) {
+            return;
+        }
+        String host = request.getNetworkHost();
+        boolean hostFull = maxConnectionsPerHost > 0 && activeCount(host) >= maxConnectionsPerHost;
+        if(idleThreads > 0 && queue == pending && !hostFull) {
+            return;
+        }
+        NetworkThread victim = null;
+        int victimPriority = ConnectionRequest.PRIORITY_CRITICAL;
+        for(int iter = 0 ; iter < networkThreads.length ; iter++) {
+            NetworkThread t = networkThreads[iter];
+            ConnectionRequest c = t.currentRequest;
+            if(c == null) {
+                // an idle thread assigned to this queue will pick up the request
+                if(queue != pending && queue == assignedQueueOf(iter) && !hostFull) {
+                    return;
+                }
+                continue;
+            }
+            if(queue != pending && queue != assignedQueueOf(iter)) {
+                continue;
+            }
+            if(hostFull && !host.equals(t.host)) {
+                continue;
+            }
+            if(c.isPaused() || c.isKilled()) {
+                // already stopping, possibly for a previous critical request
+                continue;
+            }
+            if(c.getPriority() < victimPriority) {
+                victim = t;
+                victimPriority = c.getPriority();
+            }
+        }
+        if(victim != null) {
+            ConnectionRequest currentRequest = victim.currentRequest;
+            if(currentRequest.isPausable()) {
+                // the victim thread queues the paused request once it stopped executing
+                // so it resumes right after the critical request
+                currentRequest.pause();
+                victim.requeued = true;
+            } else {
+                currentRequest.kill();
+            }
+        }
+    }
+
+    private int queueSize() {
+        int size = pending.size();
+        if(assignedQueues != null) {
+            for(int iter = 0 ; iter < assignedQueues.length ; iter++) {
+                if(assignedQueues[iter] != null) {
+                    size += assignedQueues[iter].size();
+                }
+            }
+        }
+        return size;
+    }
+
+    private NetworkQueue assignedQueueOf(int offset) {
+        if(assignedQueues != null && offset < assignedQueues.length) {
+            return assignedQueues[offset];
+        }
+        return null;
+    }
+
+    private void indexRequest(ConnectionRequest request) {
+        if(!request.isDuplicateSupported()) {
+            request.indexReferences++;
+            if(!requestIndex.containsKey(request)) {
+                requestIndex.put(request, request);
+            }
+        }
+    }
+
+    /**
+     * Drops a reference of the request from the index, once the last reference is gone
+     * the request will no longer execute so the requests coalesced into it are returned
+     * and must be completed by the caller via fireCoalescedCompleted outside of the lock
+     *
+     * @return the coalesced requests or null
+     */
+    private Vector unindexRequest(ConnectionRequest request) {
+        if(request.indexReferences > 0) {
+            request.indexReferences--;
+            if(request.indexReferences == 0) {
+                if(requestIndex.get(request) == request) {
+                    requestIndex.remove(request);
+                }
+                return request.removeCoalesced();
+            }
+        }
+        return null;
+    }
+
+    private void fireCoalescedCompleted(Vector coalesced) {
+        if(coalesced == null) {
+            return;
+        }
+        // progressListeners might be made null by a separate thread
+        EventDispatcher d = progressListeners;
+        for(int iter = 0 ; iter < coalesced.size() ; iter++) {
+            ConnectionRequest r = (ConnectionRequest)coalesced.elementAt(iter);
+            Vector responses = r.coalescedResponses;
+            r.coalescedResponses = null;
+            if(responses != null) {
+                for(int e = 0 ; e < responses.size() ; e++) {
+                    r.fireCoalescedResponse((ActionEvent)responses.elementAt(e));
+                }
+            }
+            if(d != null) {
+                d.fireActionEvent(new NetworkEvent(r, NetworkEvent.PROGRESS_TYPE_COMPLETED));
             }
-            LOCK.notify();
         }
     }
 
@@ -598,6 +944,65 @@ public class NetworkManager {
         }
     }
 
+    /**
+     * Returns the registry of the network statistics, use snapshot() on the result
+     * for a consistent copy. Statistics are only collected while metrics are enabled
+     *
+     * @return the network metrics
+     */
+    public NetworkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Indicates whether the network statistics are collected
+     *
+     * @return true if metrics are collected
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Indicates whether the network statistics are collected, this is off by default
+     *
+     * @param metricsEnabled true to collect metrics
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Adds a listener that is notified whenever a request completes, the event is
+     * a NetworkEvent whose meta data is the RequestMetrics of the request. Events are
+     * only fired while metrics are enabled
+     *
+     * @param al action listener
+     */
+    public void addMetricsListener(ActionListener al) {
+        if(metricsListeners == null) {
+            metricsListeners = new EventDispatcher();
+            metricsListeners.setBlocking(false);
+        }
+        metricsListeners.addListener(al);
+    }
+
+    /**
+     * Removes the given metrics listener
+     *
+     * @param al action listener
+     */
+    public void removeMetricsListener(ActionListener al) {
+        if(metricsListeners == null) {
+            return;
+        }
+        metricsListeners.removeListener(al);
+        Vector v = metricsListeners.getListenerVector();
+        if(v == null || v.size() == 0) {
+            metricsListeners = null;
+        }
+    }
+
     /**
      * Makes sure the given class (subclass of ConnectionRequest) is always assigned
      * to the given thread number. This is useful for a case of an application that wants
@@ -618,9 +1023,13 @@ public class NetworkManager {
     public Enumeration enumurateQueue(){
         Vector elements = new Vector();
         synchronized(LOCK) {
-            Enumeration e = pending.elements();
-            while(e.hasMoreElements()){
-                elements.addElement(e.nextElement());
+            pending.copyInto(elements);
+            if(assignedQueues != null) {
+                for(int iter = 0 ; iter < assignedQueues.length ; iter++) {
+                    if(assignedQueues[iter] != null) {
+                        assignedQueues[iter].copyInto(elements);
+                    }
+                }
             }
         }
         return elements.elements();
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io;
+
+/**
+ * In memory registry of the network statistics collected by the network manager:
+ * aggregate timings and byte counts of the completed requests, a latency histogram,
+ * a histogram of the queue depth sampled whenever a request is queued and a histogram
+ * of the time spent with a given number of busy network threads. The histograms use
+ * power of two buckets, bucket 0 holds the value 0 and bucket n holds the values
+ * from 2^(n-1) to 2^n - 1 with the last bucket holding everything larger.
+ * Use snapshot() to get a consistent copy for reporting.
+ *
+ * @author Shai Almog
+ */
+public class NetworkMetrics {
+    /**
+     * The number of buckets in the latency and queue depth histograms
+     */
+    public static final int BUCKET_COUNT = 16;
+    private static final int RECENT_SIZE = 32;
+
+    private int requestCount;
+    private int failureCount;
+    private long totalQueueWait;
+    private long totalConnectTime;
+    private long totalFirstByteTime;
+    private long totalTransferTime;
+    private long totalParseTime;
+    private long totalTime;
+    private long maxTime;
+    private long bytesSent;
+    private long bytesReceived;
+    private int[] latencyHistogram = new int[BUCKET_COUNT];
+    private int[] queueDepthHistogram = new int[BUCKET_COUNT];
+    private long[] utilizationHistogram = new long[2];
+    private int busyThreads;
+    private long busyChanged = System.currentTimeMillis();
+    private RequestMetrics[] recent = new RequestMetrics[RECENT_SIZE];
+    private int recentPos;
+
+    /**
+     * Returns the histogram bucket of the given value
+     *
+     * @param value a non negative value
+     * @return the bucket offset
+     */
+    public static int bucketOf(long value) {
+        int bucket = 0;
+        while(value > 0 && bucket < BUCKET_COUNT - 1) {
+            value >>= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the smallest value that falls into the given bucket
+     *
+     * @param bucket the bucket offset
+     * @return the lower bound of the bucket
+     */
+    public static long getBucketLowerBound(int bucket) {
+        if(bucket == 0) {
+            return 0;
+        }
+        return 1L << (bucket - 1);
+    }
+
+    synchronized void record(RequestMetrics m) {
+        requestCount++;
+        if(m.isFailed()) {
+            failureCount++;
+        }
+        totalQueueWait += m.getQueueWait();
+        totalConnectTime += m.getConnectTime();
+        totalFirstByteTime += m.getFirstByteTime();
+        totalTransferTime += m.getTransferTime();
+        totalParseTime += m.getParseTime();
+        long t = m.getTotalTime();
+        totalTime += t;
+        if(t > maxTime) {
+            maxTime = t;
+        }
+        bytesSent += m.getBytesSent();
+        bytesReceived += m.getBytesReceived();
+        latencyHistogram[bucketOf(t)]++;
+        recent[recentPos] = m;
+        recentPos = (recentPos + 1) % RECENT_SIZE;
+    }
+
+    synchronized void sampleQueueDepth(int depth) {
+        queueDepthHistogram[bucketOf(depth)]++;
+    }
+
+    /**
+     * Invoked when the number of busy network threads changes, the time since the
+     * previous change is added to the previous count
+     */
+    synchronized void busyThreadsChanged(int busy) {
+        long now = System.currentTimeMillis();
+        accumulateBusyTime(now);
+        busyThreads = busy;
+    }
+
+    private void accumulateBusyTime(long now) {
+        if(busyThreads >= utilizationHistogram.length) {
+            long[] n = new long[busyThreads + 1];
+            System.arraycopy(utilizationHistogram, 0, n, 0, utilizationHistogram.length);
+            utilizationHistogram = n;
+        }
+        utilizationHistogram[busyThreads] += now - busyChanged;
+        busyChanged = now;
+    }
+
+    /**
+     * Returns a consistent copy of the current statistics
+     *
+     * @return a copy of this registry
+     */
+    public synchronized NetworkMetrics snapshot() {
+        accumulateBusyTime(System.currentTimeMillis());
+        NetworkMetrics n = new NetworkMetrics();
+        n.requestCount = requestCount;
+        n.failureCount = failureCount;
+        n.totalQueueWait = totalQueueWait;
+        n.totalConnectTime = totalConnectTime;
+        n.totalFirstByteTime = totalFirstByteTime;
+        n.totalTransferTime = totalTransferTime;
+        n.totalParseTime = totalParseTime;
+        n.totalTime = totalTime;
+        n.maxTime = maxTime;
+        n.bytesSent = bytesSent;
+        n.bytesReceived = bytesReceived;
+        n.latencyHistogram = copy(latencyHistogram);
+        n.queueDepthHistogram = copy(queueDepthHistogram);
+        n.utilizationHistogram = new long[utilizationHistogram.length];
+        System.arraycopy(utilizationHistogram, 0, n.utilizationHistogram, 0, utilizationHistogram.length);
+        n.busyThreads = busyThreads;
+        n.busyChanged = busyChanged;
+        for(int iter = 0 ; iter < RECENT_SIZE ; iter++) {
+            n.recent[iter] = recent[iter];
+        }
+        n.recentPos = recentPos;
+        return n;
+    }
+
+    /**
+     * Clears all the statistics
+     */
+    public synchronized void reset() {
+        requestCount = 0;
+        failureCount = 0;
+        totalQueueWait = 0;
+        totalConnectTime = 0;
+        totalFirstByteTime = 0;
+        totalTransferTime = 0;
+        totalParseTime = 0;
+        totalTime = 0;
+        maxTime = 0;
+        bytesSent = 0;
+        bytesReceived = 0;
+        latencyHistogram = new int[BUCKET_COUNT];
+        queueDepthHistogram = new int[BUCKET_COUNT];
+        utilizationHistogram = new long[utilizationHistogram.length];
+        busyChanged = System.currentTimeMillis();
+        recent = new RequestMetrics[RECENT_SIZE];
+        recentPos = 0;
+    }
+
+    private static int[] copy(int[] arr) {
+        int[] n = new int[arr.length];
+        System.arraycopy(arr, 0, n, 0, arr.length);
+        return n;
+    }
+
+    /**
+     * The number of completed requests
+     *
+     * @return the request count
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * The number of requests that failed with an exception or an error response code
+     *
+     * @return the failure count
+     */
+    public synchronized int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * The sum of the queue wait of all the requests, divide by the request count
+     * for the average
+     *
+     * @return the total queue wait in milliseconds
+     */
+    public synchronized long getTotalQueueWait() {
+        return totalQueueWait;
+    }
+
+    /**
+     * The sum of the connect time of all the requests
+     *
+     * @return the total connect time in milliseconds
+     */
+    public synchronized long getTotalConnectTime() {
+        return totalConnectTime;
+    }
+
+    /**
+     * The sum of the time to first byte of all the requests
+     *
+     * @return the total time to first byte in milliseconds
+     */
+    public synchronized long getTotalFirstByteTime() {
+        return totalFirstByteTime;
+    }
+
+    /**
+     * The sum of the transfer time of all the requests
+     *
+     * @return the total transfer time in milliseconds
+     */
+    public synchronized long getTotalTransferTime() {
+        return totalTransferTime;
+    }
+
+    /**
+     * The sum of the parse time of all the requests
+     *
+     * @return the total parse time in milliseconds
+     */
+    public synchronized long getTotalParseTime() {
+        return totalParseTime;
+    }
+
+    /**
+     * The sum of the total time (queue to completion) of all the requests
+     *
+     * @return the total time in milliseconds
+     */
+    public synchronized long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * The longest total time of a request
+     *
+     * @return the maximum time in milliseconds
+     */
+    public synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * The number of request body bytes sent
+     *
+     * @return the bytes sent
+     */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * The number of response bytes received
+     *
+     * @return the bytes received
+     */
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * The number of requests per total time bucket
+     *
+     * @return a copy of the latency histogram
+     */
+    public synchronized int[] getLatencyHistogram() {
+        return copy(latencyHistogram);
+    }
+
+    /**
+     * The number of times a request was queued while the queue held a number of
+     * requests within the bucket
+     *
+     * @return a copy of the queue depth histogram
+     */
+    public synchronized int[] getQueueDepthHistogram() {
+        return copy(queueDepthHistogram);
+    }
+
+    /**
+     * The time in milliseconds spent with exactly n busy network threads at offset n
+     *
+     * @return a copy of the utilization histogram
+     */
+    public synchronized long[] getUtilizationHistogram() {
+        accumulateBusyTime(System.currentTimeMillis());
+        long[] n = new long[utilizationHistogram.length];
+        System.arraycopy(utilizationHistogram, 0, n, 0, n.length);
+        return n;
+    }
+
+    /**
+     * The metrics of the most recently completed requests, oldest first
+     *
+     * @return the recent requests
+     */
+    public synchronized RequestMetrics[] getRecentRequests() {
+        int count = 0;
+        for(int iter = 0 ; iter < RECENT_SIZE ; iter++) {
+            if(recent[iter] != null) {
+                count++;
+            }
+        }
+        RequestMetrics[] result = new RequestMetrics[count];
+        int pos = 0;
+        for(int iter = 0 ; iter < RECENT_SIZE ; iter++) {
+            RequestMetrics m = recent[(recentPos + iter) % RECENT_SIZE];
+            if(m != null) {
+                result[pos] = m;
+                pos++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public synchronized String toString() {
+        StringBuffer b = new StringBuffer();
+        b.append("requests=");
+        b.append(requestCount);
+        b.append(" failures=");
+        b.append(failureCount);
+        if(requestCount > 0) {
+            b.append(" avgQueue=");
+            b.append(totalQueueWait / requestCount);
+            b.append(" avgConnect=");
+            b.append(totalConnectTime / requestCount);
+            b.append(" avgFirstByte=");
+            b.append(totalFirstByteTime / requestCount);
+            b.append(" avgTransfer=");
+            b.append(totalTransferTime / requestCount);
+            b.append(" avgParse=");
+            b.append(totalParseTime / requestCount);
+            b.append(" avgTotal=");
+            b.append(totalTime / requestCount);
+            b.append(" maxTotal=");
+            b.append(maxTime);
+        }
+        b.append(" sent=");
+        b.append(bytesSent);
+        b.append(" received=");
+        b.append(bytesReceived);
+        b.append(" latency=");
+        appendHistogram(b, latencyHistogram);
+        b.append(" queueDepth=");
+        appendHistogram(b, queueDepthHistogram);
+        b.append(" busyThreadsMs=[");
+        for(int iter = 0 ; iter < utilizationHistogram.length ; iter++) {
+            if(iter > 0) {
+                b.append(',');
+            }
+            b.append(utilizationHistogram[iter]);
+        }
+        b.append(']');
+        return b.toString();
+    }
+
+    private static void appendHistogram(StringBuffer b, int[] h) {
+        b.append('[');
+        int last = h.length - 1;
+        while(last > 0 && h[last] == 0) {
+            last--;
+        }
+        for(int iter = 0 ; iter <= last ; iter++) {
+            if(iter > 0) {
+                b.append(',');
+            }
+            b.append(h[iter]);
+        }
+        b.append(']');
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Priority queue of pending connection requests used by the network manager.
+ * Requests are kept in one lane per priority value (priorities are bytes so there
+ * is a fixed number of lanes), within a lane every host has its own FIFO queue.
+ * This makes insertion and removal of the highest priority request independent of
+ * the queue length and lets the per host limits skip a saturated host without
+ * scanning its backlog. Every request gets a sequence number when it is queued so
+ * the order between the hosts of a lane remains FIFO. This class isn't thread safe,
+ * all access must be synchronized by the caller.
+ *
+ * @author Shai Almog
+ */
+class NetworkQueue {
+    private static final int LANE_COUNT = 256;
+    private static final int INITIAL_HOST_QUEUE_SIZE = 8;
+
+    private Lane[] lanes = new Lane[LANE_COUNT];
+    private int top = -1;
+    private int size;
+
+    /**
+     * Sequence numbers grow for requests added last and shrink for requests added
+     * first so the smallest sequence is always the oldest request of the lane
+     */
+    private long lastSequence;
+    private long firstSequence;
+
+    private static int laneOf(int priority) {
+        return (priority & 0xff) ^ 0x80;
+    }
+
+    /**
+     * Returns the number of requests in the queue
+     *
+     * @return the number of requests in the queue
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the request after all the requests with the same or higher priority
+     *
+     * @param request the request
+     * @param priority the priority under which the request should be queued
+     */
+    public void addLast(ConnectionRequest request, int priority) {
+        int lane = laneOf(priority);
+        lastSequence++;
+        hostQueue(lane, request.getNetworkHost()).addLast(request, lastSequence);
+        added(lane);
+    }
+
+    /**
+     * Adds the request before all the requests with the same priority
+     *
+     * @param request the request
+     * @param priority the priority under which the request should be queued
+     */
+    public void addFirst(ConnectionRequest request, int priority) {
+        int lane = laneOf(priority);
+        firstSequence--;
+        hostQueue(lane, request.getNetworkHost()).addFirst(request, firstSequence);
+        added(lane);
+    }
+
+    /**
+     * Returns the priority of the request that would be returned by poll or
+     * Integer.MIN_VALUE if the queue is empty
+     *
+     * @return the highest queued priority
+     */
+    public int peekPriority() {
+        if(top < 0) {
+            return Integer.MIN_VALUE;
+        }
+        return top - 128;
+    }
+
+    /**
+     * Removes and returns the highest priority request
+     *
+     * @return the request or null if the queue is empty
+     */
+    public ConnectionRequest poll() {
+        if(top < 0) {
+            return null;
+        }
+        Vector hosts = lanes[top].hosts;
+        HostQueue oldest = null;
+        for(int iter = 0 ; iter < hosts.size() ; iter++) {
+            HostQueue q = (HostQueue)hosts.elementAt(iter);
+            if(oldest == null || q.headSequence() < oldest.headSequence()) {
+                oldest = q;
+            }
+        }
+        return removeAt(top, oldest, 0);
+    }
+
+    /**
+     * Removes and returns the highest priority request whose host is below the limit
+     * of requests in flight. Within a priority the request whose host has the fewest
+     * requests in flight is picked so a host with a long backlog can't starve the
+     * other hosts, ties keep the FIFO order. Only the hosts of a lane are considered
+     * regardless of the number of requests queued for them.
+     *
+     * @param active maps a host to the Integer count of its requests in flight
+     * @param maxPerHost the maximum number of requests in flight per host or 0 for no limit
+     * @return the request or null if no request can be processed right now
+     */
+    public ConnectionRequest poll(Hashtable active, int maxPerHost) {
+        if(active.size() == 0) {
+            return poll();
+        }
+        for(int lane = top ; lane >= 0 ; lane--) {
+            Lane l = lanes[lane];
+            if(l == null || l.size == 0) {
+                continue;
+            }
+            HostQueue best = null;
+            int bestActive = Integer.MAX_VALUE;
+            for(int iter = 0 ; iter < l.hosts.size() ; iter++) {
+                HostQueue q = (HostQueue)l.hosts.elementAt(iter);
+                Integer a = (Integer)active.get(q.host);
+                int hostActive = 0;
+                if(a != null) {
+                    hostActive = a.intValue();
+                }
+                if(maxPerHost > 0 && hostActive >= maxPerHost) {
+                    continue;
+                }
+                if(hostActive < bestActive || (hostActive == bestActive && q.headSequence() < best.headSequence())) {
+                    best = q;
+                    bestActive = hostActive;
+                }
+            }
+            if(best != null) {
+                return removeAt(lane, best, 0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the given request instance from the queue
+     *
+     * @param request the request to remove
+     * @return true if the request was found
+     */
+    public boolean remove(ConnectionRequest request) {
+        String host = request.getNetworkHost();
+        for(int lane = top ; lane >= 0 ; lane--) {
+            Lane l = lanes[lane];
+            if(l == null || l.size == 0) {
+                continue;
+            }
+            HostQueue q = (HostQueue)l.byHost.get(host);
+            if(q != null) {
+                int index = q.indexOf(request);
+                if(index > -1) {
+                    removeAt(lane, q, index);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the queue content in the order in which it would be polled when no
+     * host is busy
+     *
+     * @param v vector into which the elements are added
+     */
+    public void copyInto(Vector v) {
+        for(int lane = top ; lane >= 0 ; lane--) {
+            Lane l = lanes[lane];
+            if(l == null || l.size == 0) {
+                continue;
+            }
+            int hostCount = l.hosts.size();
+            int[] positions = new int[hostCount];
+            for(int count = 0 ; count < l.size ; count++) {
+                // merge the host queues by sequence
+                int oldest = -1;
+                long oldestSequence = Long.MAX_VALUE;
+                for(int iter = 0 ; iter < hostCount ; iter++) {
+                    HostQueue q = (HostQueue)l.hosts.elementAt(iter);
+                    if(positions[iter] < q.size && q.sequenceAt(positions[iter]) < oldestSequence) {
+                        oldest = iter;
+                        oldestSequence = q.sequenceAt(positions[iter]);
+                    }
+                }
+                v.addElement(((HostQueue)l.hosts.elementAt(oldest)).requestAt(positions[oldest]));
+                positions[oldest]++;
+            }
+        }
+    }
+
+    private HostQueue hostQueue(int lane, String host) {
+        Lane l = lanes[lane];
+        if(l == null) {
+            l = new Lane();
+            lanes[lane] = l;
+        }
+        HostQueue q = (HostQueue)l.byHost.get(host);
+        if(q == null) {
+            q = new HostQueue(host);
+            l.byHost.put(host, q);
+            l.hosts.addElement(q);
+        }
+        return q;
+    }
+
+    private ConnectionRequest removeAt(int lane, HostQueue q, int index) {
+        ConnectionRequest r = q.removeAt(index);
+        if(q.size == 0) {
+            Lane l = lanes[lane];
+            l.byHost.remove(q.host);
+            l.hosts.removeElement(q);
+        }
+        removed(lane);
+        return r;
+    }
+
+    private void added(int lane) {
+        lanes[lane].size++;
+        size++;
+        if(lane > top) {
+            top = lane;
+        }
+    }
+
+    private void removed(int lane) {
+        lanes[lane].size--;
+        size--;
+        if(size == 0) {
+            lastSequence = 0;
+            firstSequence = 0;
+        }
+        if(lanes[lane].size == 0 && lane == top) {
+            while(top >= 0 && (lanes[top] == null || lanes[top].size == 0)) {
+                top--;
+            }
+        }
+    }
+
+    /**
+     * The requests of a single priority, the hosts that have queued requests are
+     * kept in the order in which they were added
+     */
+    static class Lane {
+        Hashtable byHost = new Hashtable();
+        Vector hosts = new Vector();
+        int size;
+    }
+
+    /**
+     * Circular FIFO of the requests of a host within a lane along with their sequence
+     * numbers
+     */
+    static class HostQueue {
+        String host;
+        ConnectionRequest[] requests = new ConnectionRequest[INITIAL_HOST_QUEUE_SIZE];
+        long[] sequences = new long[INITIAL_HOST_QUEUE_SIZE];
+        int head;
+        int size;
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        long headSequence() {
+            return sequences[head];
+        }
+
+        long sequenceAt(int index) {
+            return sequences[(head + index) % sequences.length];
+        }
+
+        ConnectionRequest requestAt(int index) {
+            return requests[(head + index) % requests.length];
+        }
+
+        int indexOf(ConnectionRequest request) {
+            for(int iter = 0 ; iter < size ; iter++) {
+                if(requestAt(iter) == request) {
+                    return iter;
+                }
+            }
+            return -1;
+        }
+
+        void addLast(ConnectionRequest request, long sequence) {
+            ensureCapacity();
+            int pos = (head + size) % requests.length;
+            requests[pos] = request;
+            sequences[pos] = sequence;
+            size++;
+        }
+
+        void addFirst(ConnectionRequest request, long sequence) {
+            ensureCapacity();
+            head = (head + requests.length - 1) % requests.length;
+            requests[head] = request;
+            sequences[head] = sequence;
+            size++;
+        }
+
+        ConnectionRequest removeAt(int index) {
+            ConnectionRequest r = requestAt(index);
+            if(index == 0) {
+                requests[head] = null;
+                head = (head + 1) % requests.length;
+            } else {
+                // shift the tail of the queue back by one
+                for(int shift = index ; shift < size - 1 ; shift++) {
+                    int to = (head + shift) % requests.length;
+                    int from = (head + shift + 1) % requests.length;
+                    requests[to] = requests[from];
+                    sequences[to] = sequences[from];
+                }
+                requests[(head + size - 1) % requests.length] = null;
+            }
+            size--;
+            return r;
+        }
+
+        private void ensureCapacity() {
+            if(size == requests.length) {
+                ConnectionRequest[] r = new ConnectionRequest[requests.length * 2];
+                long[] s = new long[requests.length * 2];
+                for(int iter = 0 ; iter < size ; iter++) {
+                    r[iter] = requestAt(iter);
+                    s[iter] = sequenceAt(iter);
+                }
+                requests = r;
+                sequences = s;
+                head = 0;
+            }
+        }
+    }
+}
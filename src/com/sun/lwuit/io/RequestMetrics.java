@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io;
+
+/**
+ * Timing breakdown and byte counts of a single execution of a connection request,
+ * delivered as the meta data of the metrics events of the network manager. All
+ * times are in milliseconds, phases that weren't reached (e.g. the response of
+ * a request that failed to connect) are 0.
+ *
+ * @author Shai Almog
+ */
+public class RequestMetrics {
+    String url;
+    int priority;
+    long queued;
+    long started;
+    long sent;
+    long responded;
+    long readStart;
+    long readEnd;
+    long readTime;
+    long completed;
+    int bytesSent;
+    int bytesReceived;
+    int responseCode = -1;
+    boolean cached;
+    Exception error;
+
+    RequestMetrics(ConnectionRequest request, long queued) {
+        this.url = request.getUrl();
+        this.priority = request.getPriority();
+        this.queued = queued;
+    }
+
+    /**
+     * The URL of the request
+     *
+     * @return the URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * The priority with which the request was queued
+     *
+     * @return one of the ConnectionRequest priority constants
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * The time (as in System.currentTimeMillis()) at which a network thread started
+     * processing the request
+     *
+     * @return the start time
+     */
+    public long getStartTime() {
+        return started;
+    }
+
+    /**
+     * The time the request waited in the queue for a network thread
+     *
+     * @return the queue wait
+     */
+    public long getQueueWait() {
+        return started - queued;
+    }
+
+    /**
+     * The time it took to open the connection and send the request, platforms that
+     * connect lazily might include the connection time in the first byte time
+     *
+     * @return the connect time
+     */
+    public long getConnectTime() {
+        if(sent == 0) {
+            return 0;
+        }
+        return sent - started;
+    }
+
+    /**
+     * The time from sending the request until the response status arrived
+     *
+     * @return the time to first byte
+     */
+    public long getFirstByteTime() {
+        if(responded == 0 || sent == 0) {
+            return 0;
+        }
+        return responded - sent;
+    }
+
+    /**
+     * The time spent waiting for the network while the response body was read
+     *
+     * @return the transfer time
+     */
+    public long getTransferTime() {
+        return readTime;
+    }
+
+    /**
+     * The time readResponse spent processing the response body, excluding the
+     * time spent waiting for the network
+     *
+     * @return the parse time
+     */
+    public long getParseTime() {
+        if(readEnd == 0) {
+            return 0;
+        }
+        return Math.max(0, readEnd - readStart - readTime);
+    }
+
+    /**
+     * The time from queuing the request to its completion
+     *
+     * @return the total time
+     */
+    public long getTotalTime() {
+        return completed - queued;
+    }
+
+    /**
+     * The number of request body bytes sent
+     *
+     * @return the bytes sent
+     */
+    public int getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * The number of response bytes received (before decompression)
+     *
+     * @return the bytes received
+     */
+    public int getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * The HTTP response code or -1 if no response was received
+     *
+     * @return the response code
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * Indicates whether the response was served (or revalidated) from the HTTP cache
+     *
+     * @return true for a cached response
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * The exception that failed the request or null
+     *
+     * @return the error
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Returns true if the request failed with an exception or an error response code
+     *
+     * @return true for a failure
+     */
+    public boolean isFailed() {
+        return error != null || responseCode >= 400;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String toString() {
+        return url + " code=" + responseCode + " queue=" + getQueueWait() + " connect=" + getConnectTime() +
+                " ttfb=" + getFirstByteTime() + " transfer=" + getTransferTime() + " parse=" + getParseTime() +
+                " total=" + getTotalTime() + " sent=" + bytesSent + " received=" + bytesReceived;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io.impl;
+
+import com.sun.lwuit.io.Cookie;
+import com.sun.lwuit.io.Storage;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * In memory cookie jar, cookies are indexed in a tree of reversed domain labels
+ * (com &gt; example &gt; www) so the cookies for a host are found by walking the
+ * labels of the host and only visiting the cookies that can match. Expired cookies
+ * are dropped lazily when they are encountered. When cookies are auto stored the
+ * jar is loaded from storage once and written back in the background shortly after
+ * it changes, so a burst of Set-Cookie headers results in a single write.
+ *
+ * @author Shai Almog
+ */
+class CookieStore {
+    /**
+     * Delay in milliseconds between a modification and the write to storage
+     */
+    private static final int PERSIST_DELAY = 2000;
+
+    private Node root = new Node();
+    private boolean loaded;
+    private boolean dirty;
+    private boolean persistScheduled;
+
+    /**
+     * A node in the domain tree, holds the cookies set for the domain ending with
+     * the labels leading to this node
+     */
+    static class Node {
+        Hashtable children;
+
+        /**
+         * Cookies ordered by descending path length
+         */
+        Vector cookies;
+    }
+
+    /**
+     * Adds or replaces the given cookie, a cookie that has already expired removes
+     * the cookie with the same name and path
+     *
+     * @param c the cookie
+     */
+    public synchronized void add(Cookie c) {
+        ensureLoaded();
+        if(put(c)) {
+            changed();
+        }
+    }
+
+    /**
+     * Adds or replaces the given cookies
+     *
+     * @param arr the cookies
+     */
+    public synchronized void add(Cookie[] arr) {
+        ensureLoaded();
+        boolean modified = false;
+        for(int iter = 0 ; iter < arr.length ; iter++) {
+            modified = put(arr[iter]) || modified;
+        }
+        if(modified) {
+            changed();
+        }
+    }
+
+    /**
+     * Returns the cookies matching the given host and path
+     *
+     * @param host the host name, a port is ignored
+     * @param path the path of the request
+     * @return the matching cookies or null if there are none
+     */
+    public synchronized Vector get(String host, String path) {
+        ensureLoaded();
+        String[] labels = split(normalizeDomain(host));
+        long now = System.currentTimeMillis();
+        Vector response = null;
+        boolean expired = false;
+        Node current = root;
+        for(int iter = labels.length - 1 ; iter >= 0 ; iter--) {
+            if(current.children == null) {
+                break;
+            }
+            current = (Node)current.children.get(labels[iter]);
+            if(current == null) {
+                break;
+            }
+            Vector v = current.cookies;
+            if(v == null) {
+                continue;
+            }
+            for(int c = 0 ; c < v.size() ; c++) {
+                Cookie cookie = (Cookie)v.elementAt(c);
+                if(isExpired(cookie, now)) {
+                    v.removeElementAt(c);
+                    c--;
+                    expired = true;
+                    continue;
+                }
+                if(pathMatches(cookie.getPath(), path)) {
+                    if(response == null) {
+                        response = new Vector();
+                    }
+                    response.addElement(cookie);
+                }
+            }
+        }
+        if(expired) {
+            changed();
+        }
+        return response;
+    }
+
+    /**
+     * Removes all the cookies from memory and storage
+     */
+    public synchronized void clear() {
+        root = new Node();
+        loaded = true;
+        dirty = false;
+        if(Storage.isInitialized() && Storage.getInstance().exists(Cookie.STORAGE_NAME)) {
+            Storage.getInstance().deleteStorageFile(Cookie.STORAGE_NAME);
+        }
+    }
+
+    private static boolean isExpired(Cookie c, long now) {
+        return c.getExpires() != 0 && c.getExpires() <= now;
+    }
+
+    private static boolean pathMatches(String cookiePath, String path) {
+        if(cookiePath == null || cookiePath.length() == 0 || cookiePath.equals("/")) {
+            return true;
+        }
+        if(!path.startsWith(cookiePath)) {
+            return false;
+        }
+        return path.length() == cookiePath.length() || cookiePath.endsWith("/") ||
+                path.charAt(cookiePath.length()) == '/';
+    }
+
+    /**
+     * Strips the port and leading dot from a domain and lower cases it
+     */
+    static String normalizeDomain(String domain) {
+        int colon = domain.indexOf(':');
+        if(colon > -1) {
+            domain = domain.substring(0, colon);
+        }
+        if(domain.startsWith(".")) {
+            domain = domain.substring(1);
+        }
+        return domain.toLowerCase();
+    }
+
+    private static String[] split(String domain) {
+        int count = 1;
+        for(int iter = 0 ; iter < domain.length() ; iter++) {
+            if(domain.charAt(iter) == '.') {
+                count++;
+            }
+        }
+        String[] result = new String[count];
+        int start = 0;
+        for(int iter = 0 ; iter < count - 1 ; iter++) {
+            int dot = domain.indexOf('.', start);
+            result[iter] = domain.substring(start, dot);
+            start = dot + 1;
+        }
+        result[count - 1] = domain.substring(start);
+        return result;
+    }
+
+    /**
+     * Places the cookie in the tree
+     *
+     * @return true if the jar was modified
+     */
+    private boolean put(Cookie c) {
+        String[] labels = split(normalizeDomain(c.getDomain()));
+        Node current = root;
+        for(int iter = labels.length - 1 ; iter >= 0 ; iter--) {
+            if(current.children == null) {
+                current.children = new Hashtable();
+            }
+            Node n = (Node)current.children.get(labels[iter]);
+            if(n == null) {
+                n = new Node();
+                current.children.put(labels[iter], n);
+            }
+            current = n;
+        }
+        if(current.cookies == null) {
+            current.cookies = new Vector();
+        }
+        Vector v = current.cookies;
+        String path = c.getPath();
+        boolean modified = false;
+        for(int iter = 0 ; iter < v.size() ; iter++) {
+            Cookie existing = (Cookie)v.elementAt(iter);
+            if(existing.getName().equals(c.getName()) && equalPaths(existing.getPath(), path)) {
+                v.removeElementAt(iter);
+                modified = true;
+                break;
+            }
+        }
+        if(isExpired(c, System.currentTimeMillis())) {
+            return modified;
+        }
+        int length = path == null ? 0 : path.length();
+        int pos = 0;
+        while(pos < v.size()) {
+            String p = ((Cookie)v.elementAt(pos)).getPath();
+            if((p == null ? 0 : p.length()) < length) {
+                break;
+            }
+            pos++;
+        }
+        v.insertElementAt(c, pos);
+        return true;
+    }
+
+    private static boolean equalPaths(String a, String b) {
+        if(a == null || a.length() == 0) {
+            a = "/";
+        }
+        if(b == null || b.length() == 0) {
+            b = "/";
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Loads the cookies stored by a previous session, both the current list format
+     * and the older domain table format are supported
+     */
+    private void ensureLoaded() {
+        if(loaded || !Cookie.isAutoStored()) {
+            return;
+        }
+        if(!Storage.isInitialized()) {
+            System.out.println("Warning: Storage is not initialized");
+            return;
+        }
+        loaded = true;
+        Object o = Storage.getInstance().readObject(Cookie.STORAGE_NAME);
+        if(o instanceof Vector) {
+            Vector v = (Vector)o;
+            for(int iter = 0 ; iter < v.size() ; iter++) {
+                put((Cookie)v.elementAt(iter));
+            }
+        } else if(o instanceof Hashtable) {
+            Enumeration domains = ((Hashtable)o).elements();
+            while(domains.hasMoreElements()) {
+                Enumeration e = ((Hashtable)domains.nextElement()).elements();
+                while(e.hasMoreElements()) {
+                    put((Cookie)e.nextElement());
+                }
+            }
+            dirty = true;
+        }
+    }
+
+    private void changed() {
+        if(!Cookie.isAutoStored() || !Storage.isInitialized()) {
+            return;
+        }
+        dirty = true;
+        if(!persistScheduled) {
+            persistScheduled = true;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        Thread.sleep(PERSIST_DELAY);
+                    } catch(InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                    persist();
+                }
+            };
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.start();
+        }
+    }
+
+    /**
+     * Writes the cookies to storage if they changed since the last write
+     */
+    void persist() {
+        Vector snapshot;
+        synchronized(this) {
+            persistScheduled = false;
+            if(!dirty) {
+                return;
+            }
+            dirty = false;
+            snapshot = new Vector();
+            collect(root, snapshot, System.currentTimeMillis());
+        }
+        Storage.getInstance().writeObject(Cookie.STORAGE_NAME, snapshot);
+    }
+
+    private static void collect(Node n, Vector dest, long now) {
+        if(n.cookies != null) {
+            for(int iter = 0 ; iter < n.cookies.size() ; iter++) {
+                Cookie c = (Cookie)n.cookies.elementAt(iter);
+                if(!isExpired(c, now)) {
+                    dest.addElement(c);
+                }
+            }
+        }
+        if(n.children != null) {
+            Enumeration e = n.children.elements();
+            while(e.hasMoreElements()) {
+                collect((Node)e.nextElement(), dest, now);
+            }
+        }
+    }
+}
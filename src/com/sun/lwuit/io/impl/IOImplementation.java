@@ -30,14 +30,11 @@ import com.sun.lwuit.events.ActionListener;
 import com.sun.lwuit.io.Cookie;
 import com.sun.lwuit.io.FileSystemStorage;
 import com.sun.lwuit.io.NetworkManager;
-import com.sun.lwuit.io.Storage;
 import com.sun.lwuit.util.EventDispatcher;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -55,8 +52,12 @@ public abstract class IOImplementation {
     }
 
     private Object storageData;
-    private Hashtable cookies;
+    private final CookieStore cookies = new CookieStore();
     private ActionListener logger;
+    private boolean keepAlive = true;
+    private int maxIdleConnections = 5;
+    private int idleConnectionTimeout = 30000;
+    private boolean batchedStorage;
 
     /**
      * Creating the subclass instance allows the singleton to initialize
@@ -65,30 +66,13 @@ public abstract class IOImplementation {
         INSTANCE = this;
     }
 
+    /**
+     * Adds/replaces the given cookies
+     *
+     * @param cookiesArray cookies to add
+     */
     public void addCookie(Cookie [] cookiesArray) {
-        if(cookies == null){
-            cookies = new Hashtable();
-        }
-        for (int i = 0; i < cookiesArray.length; i++) {
-            Cookie cookie = cookiesArray[i];
-            Hashtable h = (Hashtable)cookies.get(cookie.getDomain());
-            if(h == null){
-                h = new Hashtable();
-                cookies.put(cookie.getDomain(), h);
-            }
-            h.put(cookie.getName(), cookie);
-        }
-        
-        if(Cookie.isAutoStored()){
-            if(Storage.isInitialized()){
-                if(Storage.getInstance().exists(Cookie.STORAGE_NAME)){
-                    Storage.getInstance().deleteStorageFile(Cookie.STORAGE_NAME);
-                }
-                Storage.getInstance().writeObject(Cookie.STORAGE_NAME, cookies);
-            }else{
-               System.out.println("Warning: Storage is not initialized");
-            }
-        }
+        cookies.add(cookiesArray);
     }
 
     /**
@@ -97,25 +81,14 @@ public abstract class IOImplementation {
      * @param c cookie to add
      */
     public void addCookie(Cookie c) {
-        if(cookies == null){
-            cookies = new Hashtable();
-        }
-        Hashtable h = (Hashtable)cookies.get(c.getDomain());
-        if(h == null){
-            h = new Hashtable();
-            cookies.put(c.getDomain(), h);
-        }
-        h.put(c.getName(), c);
-        if(Cookie.isAutoStored()){
-            if(Storage.isInitialized()){
-                if(Storage.getInstance().exists(Cookie.STORAGE_NAME)){
-                    Storage.getInstance().deleteStorageFile(Cookie.STORAGE_NAME);
-                }
-                Storage.getInstance().writeObject(Cookie.STORAGE_NAME, cookies);
-            }else{
-               System.out.println("Warning: Storage is not initialized");
-            }
-        }
+        cookies.add(c);
+    }
+
+    /**
+     * Removes all the cookies from memory and from storage
+     */
+    public void clearCookies() {
+        cookies.clear();
     }
 
     /**
@@ -140,35 +113,23 @@ public abstract class IOImplementation {
      * @return the cookies to submit to the given URL
      */
     public Vector getCookiesForURL(String url) {
-        Vector response = null;
-        if (Cookie.isAutoStored()) {
-            if (Storage.isInitialized()) {
-                cookies = (Hashtable) Storage.getInstance().readObject(Cookie.STORAGE_NAME);
-            } else {
-                System.out.println("Warning: Storage is not initialized");
+        String domain = getURLDomain(url);
+        int pathStart = url.indexOf("//");
+        pathStart = pathStart < 0 ? -1 : url.indexOf('/', pathStart + 2);
+        String path = "/";
+        if(pathStart > -1) {
+            int pathEnd = url.length();
+            int q = url.indexOf('?', pathStart);
+            if(q > -1) {
+                pathEnd = q;
             }
-        }
-
-        if(cookies != null && cookies.size() > 0) {
-            String domain = getURLDomain(url);
-            Enumeration e = cookies.keys();
-            while (e.hasMoreElements()) {
-                String domainKey = (String) e.nextElement();
-                if (domain.indexOf(domainKey) > -1) {
-                    Hashtable h = (Hashtable) cookies.get(domainKey);
-                    if (h != null) {
-                        Enumeration enumCookies = h.elements();
-                        if(response == null){
-                            response = new Vector();
-                        }
-                        while (enumCookies.hasMoreElements()) {
-                            response.addElement(enumCookies.nextElement());
-                        }
-                    }
-                }
+            q = url.indexOf('#', pathStart);
+            if(q > -1 && q < pathEnd) {
+                pathEnd = q;
             }
+            path = url.substring(pathStart, pathEnd);
         }
-        return response;
+        return cookies.get(domain, path);
     }
 
     /**
@@ -343,6 +304,105 @@ public abstract class IOImplementation {
     public void setTimeout(int t) {
     }
 
+    /**
+     * Indicates whether the underlying implementation can decode gzip/deflate
+     * compressed HTTP responses
+     *
+     * @return true if createDecodingInputStream is supported
+     */
+    public boolean isResponseDecodingSupported() {
+        return false;
+    }
+
+    /**
+     * Wraps the given response stream with a stream that decodes the given
+     * content encoding, this is only invoked if isResponseDecodingSupported()
+     * returns true
+     *
+     * @param input the raw response stream
+     * @param contentEncoding the value of the Content-Encoding header e.g. gzip or deflate
+     * @return the decoded stream or the original stream if the encoding isn't supported
+     * @throws IOException on failure to read the compression header
+     */
+    public InputStream createDecodingInputStream(InputStream input, String contentEncoding) throws IOException {
+        return input;
+    }
+
+    /**
+     * Indicates whether the underlying implementation can keep HTTP connections alive
+     * and reuse them for subsequent requests to the same host. The keep-alive settings
+     * configure the platform connection pool which reads them once, so they must be
+     * set before the first connection is opened
+     *
+     * @return true if connection pooling is supported by this IO implementation
+     */
+    public boolean isConnectionPoolingSupported() {
+        return false;
+    }
+
+    /**
+     * Indicates whether HTTP connections should be kept alive and reused, this only
+     * works if connection pooling is supported. The value only applies if it is set
+     * before the first connection is opened, later calls are ignored
+     *
+     * @param keepAlive true to reuse connections
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Indicates whether HTTP connections should be kept alive and reused
+     *
+     * @return true to reuse connections
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * The maximum number of idle connections the platform connection pool keeps
+     * alive, this only works if connection pooling is supported. The value only
+     * applies if it is set before the first connection is opened, later calls are
+     * ignored
+     *
+     * @param maxIdleConnections the maximum number of idle connections
+     */
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    /**
+     * The maximum number of idle connections the platform connection pool keeps alive
+     *
+     * @return the maximum number of idle connections
+     */
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * The time in milliseconds after which an idle connection is discarded from
+     * the pool, this only works if connection pooling is supported. The value only
+     * applies if it is set before the first connection is opened, later calls are
+     * ignored
+     *
+     * @param idleConnectionTimeout time in milliseconds
+     */
+    public void setIdleConnectionTimeout(int idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    /**
+     * The time in milliseconds after which an idle connection is discarded from
+     * the pool
+     *
+     * @return time in milliseconds
+     */
+    public int getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
     /**
      * Flush the storage cache allowing implementations that cache storage objects
      * to store
@@ -350,6 +410,37 @@ public abstract class IOImplementation {
     public void flushStorageCache() {
     }
 
+    /**
+     * Returns true if the platform can keep the storage entries in a single log
+     * structured file where writes are committed in batches in the background
+     *
+     * @return false by default
+     */
+    public boolean isBatchedStorageSupported() {
+        return false;
+    }
+
+    /**
+     * Indicates whether storage writes should be batched into a single log structured
+     * file, this only works if batched storage is supported and must be set before
+     * the storage is first used. Writes become durable only once flushStorageCache
+     * is invoked or the background commit completes.
+     *
+     * @param batchedStorage true to batch the storage writes
+     */
+    public void setBatchedStorage(boolean batchedStorage) {
+        this.batchedStorage = batchedStorage;
+    }
+
+    /**
+     * Indicates whether storage writes should be batched into a single log structured file
+     *
+     * @return true if storage writes are batched
+     */
+    public boolean isBatchedStorage() {
+        return batchedStorage;
+    }
+
 
     /**
      * The storage data is used by some storage implementations (e.g. CDC) to place the
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+package com.sun.lwuit.io.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage backend that keeps all the storage entries in a single append only file.
+ * Writes are queued in memory and committed in groups by a background thread so
+ * many small writes cost a single append and a single sync, an in memory index maps
+ * every key to the offset of its latest value. Space taken by overwritten and
+ * deleted entries is reclaimed by compacting the file in the background.
+ * <p>Record format: type byte (put/delete), key length short, UTF-8 key bytes,
+ * value length int and the value bytes (put only).
+ *
+ * @author Shai Almog
+ */
+class LogStorage {
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    /**
+     * Time in milliseconds the writer waits to group additional writes into a commit
+     */
+    private static final int COMMIT_DELAY = 50;
+    private static final int IDLE_TIMEOUT = 5000;
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+    /**
+     * The key length is written as an unsigned short
+     */
+    private static final int MAX_KEY_LENGTH = 0xffff;
+
+    private final File file;
+    private RandomAccessFile data;
+
+    /**
+     * Maps a key to {payload offset, payload length, record length}
+     */
+    private Map<String, long[]> index = new HashMap<String, long[]>();
+
+    /**
+     * Writes that weren't committed yet, a null value indicates a deletion
+     */
+    private final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+    private final Object commitLock = new Object();
+    private long liveBytes;
+    private long deadBytes;
+    private boolean writerRunning;
+
+    LogStorage(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    private void open() throws IOException {
+        data = new RandomAccessFile(file, "rw");
+        long length = data.length();
+        long pos = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (pos < length) {
+                byte type = in.readByte();
+                int keyLength = in.readUnsignedShort();
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                long headerLength = 1 + 2 + keyLength;
+                String k = new String(key, "UTF-8");
+                if (type == RECORD_PUT) {
+                    int valueLength = in.readInt();
+                    headerLength += 4;
+                    if (pos + headerLength + valueLength > length) {
+                        break;
+                    }
+                    skipFully(in, valueLength);
+                    long[] entry = new long[]{pos + headerLength, valueLength, headerLength + valueLength};
+                    replaced(index.put(k, entry));
+                    liveBytes += entry[2];
+                    pos += entry[2];
+                } else if (type == RECORD_DELETE) {
+                    replaced(index.remove(k));
+                    deadBytes += headerLength;
+                    pos += headerLength;
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException err) {
+            // a partially written record from a crash
+        } finally {
+            in.close();
+        }
+        if (pos < length) {
+            data.setLength(pos);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        while (count > 0) {
+            int s = in.skipBytes(count);
+            if (s <= 0) {
+                throw new EOFException();
+            }
+            count -= s;
+        }
+    }
+
+    private void replaced(long[] old) {
+        if (old != null) {
+            liveBytes -= old[2];
+            deadBytes += old[2];
+        }
+    }
+
+    /**
+     * Returns an output stream that queues the value for commit when it is closed
+     */
+    OutputStream createOutputStream(final String key) throws IOException {
+        if (key.getBytes("UTF-8").length > MAX_KEY_LENGTH) {
+            throw new IOException("Storage key is too long: " + key.length() + " characters");
+        }
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    put(key, toByteArray());
+                }
+            }
+        };
+    }
+
+    InputStream createInputStream(String key) throws IOException {
+        byte[] b = read(key);
+        if (b == null) {
+            throw new FileNotFoundException(key);
+        }
+        return new ByteArrayInputStream(b);
+    }
+
+    private byte[] read(String key) throws IOException {
+        synchronized (this) {
+            if (pending.containsKey(key)) {
+                return pending.get(key);
+            }
+            long[] entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            byte[] b = new byte[(int) entry[1]];
+            data.seek(entry[0]);
+            data.readFully(b);
+            return b;
+        }
+    }
+
+    synchronized boolean exists(String key) {
+        if (pending.containsKey(key)) {
+            return pending.get(key) != null;
+        }
+        return index.containsKey(key);
+    }
+
+    synchronized String[] list() {
+        List<String> keys = new ArrayList<String>(index.keySet());
+        for (Map.Entry<String, byte[]> e : pending.entrySet()) {
+            if (e.getValue() == null) {
+                keys.remove(e.getKey());
+            } else if (!index.containsKey(e.getKey())) {
+                keys.add(e.getKey());
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    void delete(String key) {
+        synchronized (this) {
+            if (!exists(key)) {
+                return;
+            }
+        }
+        put(key, null);
+    }
+
+    private synchronized void put(String key, byte[] value) {
+        // remove first so the insertion order matches the order of the writes
+        pending.remove(key);
+        pending.put(key, value);
+        if (!writerRunning) {
+            writerRunning = true;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    writerLoop();
+                }
+            }, "Storage Writer");
+            t.setDaemon(true);
+            t.start();
+        } else {
+            notify();
+        }
+    }
+
+    private void writerLoop() {
+        while (true) {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    try {
+                        wait(IDLE_TIMEOUT);
+                    } catch (InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                    if (pending.isEmpty()) {
+                        writerRunning = false;
+                        return;
+                    }
+                }
+            }
+            try {
+                Thread.sleep(COMMIT_DELAY);
+            } catch (InterruptedException ex) {
+                ex.printStackTrace();
+            }
+            try {
+                flush();
+                compactIfNeeded();
+            } catch (IOException ex) {
+                // the writes remain pending and will be retried
+                ex.printStackTrace();
+                try {
+                    Thread.sleep(IDLE_TIMEOUT);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits all the pending writes with a single append and a single sync
+     */
+    void flush() throws IOException {
+        synchronized (commitLock) {
+            Map<String, byte[]> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<String, byte[]>(pending);
+            }
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bo);
+            Map<String, long[]> offsets = new HashMap<String, long[]>();
+            for (Map.Entry<String, byte[]> e : batch.entrySet()) {
+                byte[] key = e.getKey().getBytes("UTF-8");
+                byte[] value = e.getValue();
+                long start = out.size();
+                out.writeByte(value != null ? RECORD_PUT : RECORD_DELETE);
+                out.writeShort(key.length);
+                out.write(key);
+                if (value != null) {
+                    out.writeInt(value.length);
+                    long payload = out.size();
+                    out.write(value);
+                    offsets.put(e.getKey(), new long[]{payload, value.length, out.size() - start});
+                } else {
+                    offsets.put(e.getKey(), new long[]{-1, 0, out.size() - start});
+                }
+            }
+            out.close();
+            long base;
+            synchronized (this) {
+                base = data.length();
+                data.seek(base);
+                data.write(bo.toByteArray());
+            }
+            data.getFD().sync();
+            synchronized (this) {
+                for (Map.Entry<String, byte[]> e : batch.entrySet()) {
+                    long[] entry = offsets.get(e.getKey());
+                    if (e.getValue() != null) {
+                        entry[0] += base;
+                        replaced(index.put(e.getKey(), entry));
+                        liveBytes += entry[2];
+                    } else {
+                        replaced(index.remove(e.getKey()));
+                        deadBytes += entry[2];
+                    }
+
+                    // a newer write to the same key might have been queued meanwhile
+                    if (pending.get(e.getKey()) == e.getValue()) {
+                        pending.remove(e.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the live entries into a new file once most of the file is made
+     * of overwritten or deleted entries
+     */
+    private void compactIfNeeded() throws IOException {
+        synchronized (commitLock) {
+            Map<String, long[]> snapshot;
+            synchronized (this) {
+                if (deadBytes < COMPACT_THRESHOLD || deadBytes < liveBytes) {
+                    return;
+                }
+                snapshot = new HashMap<String, long[]>(index);
+            }
+
+            // only commits modify the file and the index and we hold the commit lock
+            File tmp = new File(file.getPath() + ".compact");
+            FileOutputStream fo = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fo));
+            Map<String, long[]> newIndex = new HashMap<String, long[]>();
+            long pos = 0;
+            long live = 0;
+            try {
+                Iterator<Map.Entry<String, long[]>> i = snapshot.entrySet().iterator();
+                while (i.hasNext()) {
+                    Map.Entry<String, long[]> e = i.next();
+                    byte[] value = new byte[(int) e.getValue()[1]];
+                    synchronized (this) {
+                        data.seek(e.getValue()[0]);
+                        data.readFully(value);
+                    }
+                    byte[] key = e.getKey().getBytes("UTF-8");
+                    out.writeByte(RECORD_PUT);
+                    out.writeShort(key.length);
+                    out.write(key);
+                    out.writeInt(value.length);
+                    long header = 1 + 2 + key.length + 4;
+                    out.write(value);
+                    newIndex.put(e.getKey(), new long[]{pos + header, value.length, header + value.length});
+                    pos += header + value.length;
+                    live += header + value.length;
+                }
+                out.flush();
+
+                // the new file must be durable before it replaces the old one
+                fo.getFD().sync();
+            } catch (IOException err) {
+                out.close();
+                tmp.delete();
+                throw err;
+            }
+            out.close();
+            synchronized (this) {
+                data.close();
+                if (!tmp.renameTo(file)) {
+                    data = new RandomAccessFile(file, "rw");
+                    tmp.delete();
+                    throw new IOException("Failed to replace " + file);
+                }
+                data = new RandomAccessFile(file, "rw");
+                index = newIndex;
+                liveBytes = live;
+                deadBytes = 0;
+            }
+        }
+    }
+}
@@ -36,17 +36,39 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
 import java.io.RandomAccessFile;
 import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class PlatformImplementation extends IOImplementation {
 
+    /**
+     * The file in which the storage entries are kept when batched storage is enabled
+     */
+    private static final String STORAGE_LOG = "lwuit.storage";
+    private LogStorage logStorage;
+
+    /**
+     * Set once the first HTTP connection is opened, the connection pool has read the
+     * keep-alive settings at that point so later changes are ignored
+     */
+    private volatile boolean connectionOpened;
+
+    public PlatformImplementation() {
+        configureKeepAlive();
+    }
+
     private Context getContext() {
         Object s = super.getStorageData();
         if (s == null || !(s instanceof Context)) {
@@ -67,13 +89,124 @@ public class PlatformImplementation extends IOImplementation {
             host = host.substring(0, index);
             return new Socket(host, port);
         } else {
-            URLConnection c = new URL(url).openConnection();
+            URL u = new URL(url);
+            connectionOpened = true;
+            URLConnection c = u.openConnection();
             c.setDoInput(read);
             c.setDoOutput(write);
             return c;
         }
     }
 
+    private void configureKeepAlive() {
+        // these are read once by the HttpURLConnection connection pool when it is
+        // first used
+        System.setProperty("http.keepAlive", String.valueOf(isKeepAlive()));
+        System.setProperty("http.maxConnections", String.valueOf(getMaxIdleConnections()));
+        System.setProperty("http.keepAliveDuration", String.valueOf(getIdleConnectionTimeout()));
+    }
+
+    private void releaseConnection(HttpURLConnection c) {
+        if (!isKeepAlive()) {
+            c.disconnect();
+            return;
+        }
+        try {
+            // an unread error body prevents the socket from returning to the pool
+            InputStream err = c.getErrorStream();
+            if (err != null) {
+                byte[] buffer = new byte[1024];
+                while (err.read(buffer) > -1) {
+                }
+                err.close();
+            }
+        } catch (IOException ex) {
+            c.disconnect();
+        }
+    }
+
+    @Override
+    public boolean isResponseDecodingSupported() {
+        return true;
+    }
+
+    @Override
+    public InputStream createDecodingInputStream(InputStream input, String contentEncoding) throws IOException {
+        String enc = contentEncoding.trim().toLowerCase();
+        if (enc.equals("gzip") || enc.equals("x-gzip")) {
+            return new BufferedInputStream(new GZIPInputStream(input));
+        }
+        if (enc.equals("deflate")) {
+            return new BufferedInputStream(createInflaterInputStream(input));
+        }
+        return input;
+    }
+
+    /**
+     * Deflate should be zlib wrapped but some servers send raw deflate data, the zlib
+     * header is checked to pick the right mode
+     */
+    private InputStream createInflaterInputStream(InputStream input) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(input, 2);
+        int cmf = in.read();
+        if (cmf < 0) {
+            return in;
+        }
+        int flg = in.read();
+        if (flg > -1) {
+            in.unread(flg);
+        }
+        in.unread(cmf);
+        if (flg > -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0) {
+            return new InflaterInputStream(in);
+        }
+        return new InflaterInputStream(in, new Inflater(true)) {
+            public void close() throws IOException {
+                super.close();
+
+                // only the default inflater is released by the stream
+                inf.end();
+            }
+        };
+    }
+
+    @Override
+    public boolean isConnectionPoolingSupported() {
+        return true;
+    }
+
+    @Override
+    public void setKeepAlive(boolean keepAlive) {
+        if (keepAliveConfigurable()) {
+            super.setKeepAlive(keepAlive);
+            configureKeepAlive();
+        }
+    }
+
+    @Override
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        if (keepAliveConfigurable()) {
+            super.setMaxIdleConnections(maxIdleConnections);
+            configureKeepAlive();
+        }
+    }
+
+    @Override
+    public void setIdleConnectionTimeout(int idleConnectionTimeout) {
+        if (keepAliveConfigurable()) {
+            super.setIdleConnectionTimeout(idleConnectionTimeout);
+            configureKeepAlive();
+        }
+    }
+
+    private boolean keepAliveConfigurable() {
+        if (connectionOpened) {
+            Log.w("LWUIT", "keep-alive settings are ignored once a connection was opened");
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void setHeader(Object connection, String key, String val) {
         ((HttpURLConnection) connection).setRequestProperty(key, val);
@@ -146,6 +279,9 @@ public class PlatformImplementation extends IOImplementation {
             } catch (Throwable ex) {
                 ex.printStackTrace();
             }
+        } else if (o instanceof HttpURLConnection) {
+            releaseConnection((HttpURLConnection) o);
+            super.cleanup(o);
         } else {
             super.cleanup(o);
         }
@@ -186,24 +322,73 @@ public class PlatformImplementation extends IOImplementation {
         return map != null && map.containsKey(name) ? map.get(name).toArray(new String[0]) : new String[0];
     }
 
+    @Override
+    public boolean isBatchedStorageSupported() {
+        return true;
+    }
+
+    /**
+     * Returns the log storage or null if batched storage is disabled
+     */
+    private synchronized LogStorage getLogStorage() {
+        if (logStorage == null && isBatchedStorage()) {
+            try {
+                logStorage = new LogStorage(new File(getContext().getFilesDir(), STORAGE_LOG));
+            } catch (IOException err) {
+                Log.e("LWUIT", "Failed to open the storage log, falling back to files", err);
+                setBatchedStorage(false);
+            }
+        }
+        return logStorage;
+    }
+
+    @Override
+    public void flushStorageCache() {
+        LogStorage l = getLogStorage();
+        if (l != null) {
+            try {
+                l.flush();
+            } catch (IOException err) {
+                Log.e("LWUIT", "Failed to flush the storage log", err);
+            }
+        }
+    }
+
     @Override
     public void deleteStorageFile(String name) {
+        LogStorage l = getLogStorage();
+        if (l != null) {
+            l.delete(name);
+        }
+        // entries written before batched storage was enabled are plain files
         this.getContext().deleteFile(name);
     }
 
     @Override
     public OutputStream createStorageOutputStream(String name) throws IOException {
+        LogStorage l = getLogStorage();
+        if (l != null) {
+            return l.createOutputStream(name);
+        }
         return this.getContext().openFileOutput(name, Context.MODE_PRIVATE);
     }
 
     @Override
     public InputStream createStorageInputStream(String name) throws IOException {
+        LogStorage l = getLogStorage();
+        if (l != null && l.exists(name)) {
+            return l.createInputStream(name);
+        }
         return this.getContext().openFileInput(name);
     }
 
     @Override
     public boolean storageFileExists(String name) {
-        String[] files = listStorageEntries();
+        LogStorage l = getLogStorage();
+        if (l != null && l.exists(name)) {
+            return true;
+        }
+        String[] files = listPlainStorageFiles();
         if (files != null) {
             for (int i = 0; i < files.length; i++) {
                 if (files[i].equals(name)) {
@@ -216,7 +401,35 @@ public class PlatformImplementation extends IOImplementation {
 
     @Override
     public String[] listStorageEntries() {
-        return this.getContext().fileList();
+        LogStorage l = getLogStorage();
+        if (l == null) {
+            return this.getContext().fileList();
+        }
+        List<String> entries = new ArrayList<String>(Arrays.asList(l.list()));
+        String[] files = listPlainStorageFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (!entries.contains(files[i])) {
+                entries.add(files[i]);
+            }
+        }
+        return entries.toArray(new String[entries.size()]);
+    }
+
+    /**
+     * Lists the storage entries kept as separate files excluding the storage log
+     */
+    private String[] listPlainStorageFiles() {
+        String[] files = this.getContext().fileList();
+        if (files == null) {
+            return new String[0];
+        }
+        List<String> result = new ArrayList<String>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            if (!files[i].startsWith(STORAGE_LOG)) {
+                result.add(files[i]);
+            }
+        }
+        return result.toArray(new String[result.size()]);
     }
 
     @Override
@@ -0,0 +1,627 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io.services;
+
+import com.sun.lwuit.io.ConnectionRequest;
+import com.sun.lwuit.io.FileSystemStorage;
+import com.sun.lwuit.io.NetworkEvent;
+import com.sun.lwuit.io.NetworkManager;
+import com.sun.lwuit.io.impl.IOImplementation;
+import com.sun.lwuit.io.util.Util;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Downloads a large file into the file system in a way that survives pausing, killing
+ * and restarting the application. The download progress is recorded in a state file
+ * next to the destination file and a new request for the same URL and file resumes
+ * from the recorded position using HTTP Range requests (validated with If-Range so
+ * a file that changed on the server is downloaded again). When the server supports
+ * ranges and the file is large enough the download can be split into several ranges
+ * that are fetched in parallel (given enough network threads) and written directly
+ * into their position within the destination file.
+ * <p>The response listeners are invoked with the destination file as the meta data
+ * of the event once all the ranges completed, this might happen after this request
+ * itself completed.
+ *
+ * @author Shai Almog
+ */
+public class FileDownloadService extends ConnectionRequest {
+    private static final String STATE_SUFFIX = ".download";
+    private static final int STATE_VERSION = 1;
+
+    private String destinationFile;
+    private int segmentCount = 1;
+    private int minSegmentSize = 512 * 1024;
+    private int checkpointSize = 64 * 1024;
+
+    /**
+     * Download state shared by this request and the segment requests, guarded by lock
+     */
+    private final Object lock = new Object();
+    private boolean stateLoaded;
+    private String validator;
+    private long totalLength = -1;
+    private long[] starts;
+    private long[] ends;
+    private long[] written;
+    private Segment[] active;
+    private boolean completed;
+
+    /**
+     * Incremented whenever the ranges are replaced so writers of stale ranges stop
+     */
+    private int generation;
+
+    /**
+     * The segment downloaded by this request itself in the current attempt
+     */
+    private int segment;
+    private boolean partialResponse;
+
+    /**
+     * Creates a download of the given URL into the given file, if a previous download
+     * of the same URL into the same file was interrupted it is resumed
+     *
+     * @param url the URL of the file
+     * @param destinationFile the file system path of the destination
+     */
+    public FileDownloadService(String url, String destinationFile) {
+        setUrl(url);
+        setPost(false);
+        // byte offsets are meaningless for a compressed or cached response
+        setCompressionEnabled(false);
+        setHttpCacheEnabled(false);
+        this.destinationFile = destinationFile;
+    }
+
+    /**
+     * Returns the destination file
+     *
+     * @return the file system path of the destination
+     */
+    public String getDestinationFile() {
+        return destinationFile;
+    }
+
+    /**
+     * The number of ranges downloaded in parallel for a file that is large enough,
+     * this only applies to a download that didn't start yet
+     *
+     * @return the number of ranges
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * The number of ranges downloaded in parallel for a file that is large enough,
+     * this only applies to a download that didn't start yet. Ranges are processed
+     * by the network threads so the thread count of the network manager should be
+     * increased for a real gain.
+     *
+     * @param segmentCount the number of ranges
+     */
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * A file isn't split into ranges smaller than this size in bytes
+     *
+     * @return the minimum size of a range
+     */
+    public int getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * A file isn't split into ranges smaller than this size in bytes
+     *
+     * @param minSegmentSize the minimum size of a range
+     */
+    public void setMinSegmentSize(int minSegmentSize) {
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    /**
+     * The progress is recorded in the state file every time this number of bytes
+     * was written, at most this amount is downloaded again when resuming
+     *
+     * @return the checkpoint size in bytes
+     */
+    public int getCheckpointSize() {
+        return checkpointSize;
+    }
+
+    /**
+     * The progress is recorded in the state file every time this number of bytes
+     * was written, at most this amount is downloaded again when resuming
+     *
+     * @param checkpointSize the checkpoint size in bytes
+     */
+    public void setCheckpointSize(int checkpointSize) {
+        this.checkpointSize = checkpointSize;
+    }
+
+    /**
+     * Returns the number of bytes that were written to the destination file
+     *
+     * @return the downloaded byte count
+     */
+    public long getDownloadedBytes() {
+        synchronized(lock) {
+            long sum = 0;
+            if(written != null) {
+                for(int iter = 0 ; iter < written.length ; iter++) {
+                    sum += written[iter];
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Returns the size of the file or -1 if it isn't known yet
+     *
+     * @return the total size of the download
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns true once all the ranges of the file were downloaded
+     *
+     * @return true if the download completed
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    protected boolean isPausable() {
+        return true;
+    }
+
+    /**
+     * Kills this request and the ranges that are downloaded in parallel, the
+     * progress is kept and a new request resumes the download
+     */
+    public void kill() {
+        super.kill();
+        synchronized(lock) {
+            if(active != null) {
+                for(int iter = 0 ; iter < active.length ; iter++) {
+                    if(active[iter] != null) {
+                        active[iter].kill();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    protected void initConnection(Object connection) {
+        synchronized(lock) {
+            if(!stateLoaded) {
+                stateLoaded = true;
+                loadState();
+            }
+            segment = -1;
+            if(starts != null) {
+                for(int iter = 0 ; iter < starts.length ; iter++) {
+                    if(!isSegmentDone(iter) && (active == null || active[iter] == null)) {
+                        segment = iter;
+                        break;
+                    }
+                }
+                if(segment < 0) {
+                    // every range is complete or in progress, ask for a single byte
+                    segment = 0;
+                }
+                startSegments();
+            } else {
+                segment = 0;
+            }
+            addRangeHeaders(this, segment);
+        }
+        super.initConnection(connection);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    protected void readHeaders(Object connection) throws IOException {
+        String range = getHeader(connection, "Content-Range");
+        partialResponse = range != null;
+        String v = getHeader(connection, "ETag");
+        if(v == null) {
+            v = getHeader(connection, "Last-Modified");
+        }
+        synchronized(lock) {
+            if(!partialResponse) {
+                // the server ignored the range or the file changed, start over
+                long length = -1;
+                String l = getHeader(connection, "Content-Length");
+                if(l != null) {
+                    try {
+                        length = Long.parseLong(l.trim());
+                    } catch(NumberFormatException err) {
+                    }
+                }
+                restart(length, v);
+                segment = 0;
+                return;
+            }
+            long total = -1;
+            int slash = range.indexOf('/');
+            if(slash > -1) {
+                try {
+                    total = Long.parseLong(range.substring(slash + 1).trim());
+                } catch(NumberFormatException err) {
+                }
+            }
+            if(starts == null) {
+                validator = v;
+                totalLength = total;
+                plan(total);
+                saveState();
+                startSegments();
+            }
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    protected void readResponse(InputStream input) throws IOException {
+        if(!writeSegment(segment, input, null) && !isKilled() && !isPaused()) {
+            // the ranges were replaced while writing, start over on the new ranges
+            retry();
+        }
+    }
+
+    /**
+     * Splits a new download into ranges
+     */
+    private void plan(long total) {
+        int count = 1;
+        if(total > 0 && segmentCount > 1 && minSegmentSize > 0) {
+            count = (int)Math.min(segmentCount, total / minSegmentSize);
+            if(count < 1) {
+                count = 1;
+            }
+        }
+        starts = new long[count];
+        ends = new long[count];
+        written = new long[count];
+        active = new Segment[count];
+        if(total < 0) {
+            ends[0] = -1;
+            return;
+        }
+        long size = total / count;
+        for(int iter = 0 ; iter < count ; iter++) {
+            starts[iter] = iter * size;
+            if(iter == count - 1) {
+                ends[iter] = total;
+            } else {
+                ends[iter] = (iter + 1) * size;
+            }
+        }
+    }
+
+    /**
+     * Discards the progress following a full (non range) response and downloads the
+     * file as a single stream
+     */
+    private void restart(long length, String v) {
+        if(active != null) {
+            for(int iter = 0 ; iter < active.length ; iter++) {
+                if(active[iter] != null) {
+                    active[iter].kill();
+                }
+            }
+        }
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        if(fs.exists(destinationFile)) {
+            fs.delete(destinationFile);
+        }
+        generation++;
+        completed = false;
+        validator = v;
+        totalLength = length;
+        starts = new long[] {0};
+        ends = new long[] {length};
+        written = new long[1];
+        active = new Segment[1];
+        saveState();
+    }
+
+    /**
+     * Queues a request for every incomplete range other than the one downloaded by
+     * this request
+     */
+    private void startSegments() {
+        for(int iter = 0 ; iter < starts.length ; iter++) {
+            if(iter != segment && !isSegmentDone(iter) && active[iter] == null) {
+                active[iter] = new Segment(iter);
+                NetworkManager.getInstance().addToQueue(active[iter]);
+            }
+        }
+    }
+
+    private boolean isSegmentDone(int index) {
+        return ends[index] > -1 && starts[index] + written[index] >= ends[index];
+    }
+
+    /**
+     * Adds the Range header for the remainder of the given range to the request
+     */
+    private void addRangeHeaders(ConnectionRequest r, int index) {
+        if(starts == null) {
+            // probe for range support
+            r.addRequestHeader("Range", "bytes=0-");
+            return;
+        }
+        long from = starts[index] + written[index];
+        String range = "bytes=" + from + "-";
+        if(ends[index] > -1) {
+            if(from >= ends[index]) {
+                from = ends[index] - 1;
+                range = "bytes=" + from + "-";
+            }
+            range += (ends[index] - 1);
+        }
+        r.addRequestHeader("Range", range);
+        if(validator != null) {
+            r.addRequestHeader("If-Range", validator);
+        }
+    }
+
+    /**
+     * Writes the response body into the destination file at the position of the range
+     *
+     * @param index the range
+     * @param input the response body
+     * @param owner the segment request or null for this request
+     * @return false if the ranges were replaced while writing
+     */
+    private boolean writeSegment(int index, InputStream input, Segment owner) throws IOException {
+        long offset;
+        long end;
+        int gen;
+        synchronized(lock) {
+            gen = generation;
+            offset = starts[index] + written[index];
+            end = ends[index];
+            if(end > -1 && offset >= end) {
+                segmentDone(index, owner);
+                return true;
+            }
+        }
+        OutputStream out = FileSystemStorage.getInstance().openOutputStream(destinationFile, (int)offset);
+        boolean eof = false;
+        try {
+            byte[] buffer = new byte[8192];
+            int sinceCheckpoint = 0;
+            while(true) {
+                if(owner == null && shouldStop() || owner != null && owner.stopped() || gen != generation) {
+                    break;
+                }
+                int len = buffer.length;
+                if(end > -1) {
+                    long remaining = end - offset;
+                    if(remaining <= 0) {
+                        break;
+                    }
+                    if(remaining < len) {
+                        len = (int)remaining;
+                    }
+                }
+                int size = input.read(buffer, 0, len);
+                if(size < 0) {
+                    eof = true;
+                    break;
+                }
+                out.write(buffer, 0, size);
+                offset += size;
+                sinceCheckpoint += size;
+                if(sinceCheckpoint >= checkpointSize) {
+                    // the data must reach the file before the progress is recorded
+                    out.flush();
+                    checkpoint(index, offset, gen);
+                    sinceCheckpoint = 0;
+                }
+            }
+            out.flush();
+        } finally {
+            IOImplementation.getInstance().cleanup(out);
+        }
+        synchronized(lock) {
+            if(gen != generation) {
+                return false;
+            }
+            checkpoint(index, offset, gen);
+            if(end > -1 && offset >= end || end < 0 && eof) {
+                if(end < 0) {
+                    ends[index] = offset;
+                    totalLength = offset;
+                }
+                segmentDone(index, owner);
+            }
+            return true;
+        }
+    }
+
+    private void checkpoint(int index, long offset, int gen) {
+        synchronized(lock) {
+            if(gen == generation && offset - starts[index] > written[index]) {
+                written[index] = offset - starts[index];
+                saveState();
+            }
+        }
+    }
+
+    private void segmentDone(int index, Segment owner) {
+        if(index < active.length && active[index] == owner) {
+            active[index] = null;
+        }
+        if(completed) {
+            return;
+        }
+        for(int iter = 0 ; iter < starts.length ; iter++) {
+            if(!isSegmentDone(iter)) {
+                return;
+            }
+        }
+        completed = true;
+        FileSystemStorage.getInstance().delete(destinationFile + STATE_SUFFIX);
+        fireResponseListener(new NetworkEvent(this, destinationFile));
+    }
+
+    private void loadState() {
+        FileSystemStorage fs = FileSystemStorage.getInstance();
+        String stateFile = destinationFile + STATE_SUFFIX;
+        if(!fs.exists(stateFile)) {
+            return;
+        }
+        if(!fs.exists(destinationFile)) {
+            fs.delete(stateFile);
+            return;
+        }
+        DataInputStream d = null;
+        try {
+            d = new DataInputStream(fs.openInputStream(stateFile));
+            if(d.readInt() != STATE_VERSION || !d.readUTF().equals(getUrl())) {
+                d.close();
+                return;
+            }
+            validator = Util.readUTF(d);
+            totalLength = d.readLong();
+            int count = d.readInt();
+            long[] s = new long[count];
+            long[] e = new long[count];
+            long[] w = new long[count];
+            for(int iter = 0 ; iter < count ; iter++) {
+                s[iter] = d.readLong();
+                e[iter] = d.readLong();
+                w[iter] = d.readLong();
+            }
+            d.close();
+            starts = s;
+            ends = e;
+            written = w;
+            active = new Segment[count];
+        } catch(IOException err) {
+            // a torn state file, the download starts over
+            err.printStackTrace();
+            IOImplementation.getInstance().cleanup(d);
+            starts = null;
+        }
+    }
+
+    private void saveState() {
+        DataOutputStream d = null;
+        try {
+            d = new DataOutputStream(FileSystemStorage.getInstance().openOutputStream(destinationFile + STATE_SUFFIX));
+            d.writeInt(STATE_VERSION);
+            d.writeUTF(getUrl());
+            Util.writeUTF(validator, d);
+            d.writeLong(totalLength);
+            d.writeInt(starts.length);
+            for(int iter = 0 ; iter < starts.length ; iter++) {
+                d.writeLong(starts[iter]);
+                d.writeLong(ends[iter]);
+                d.writeLong(written[iter]);
+            }
+            d.close();
+        } catch(IOException err) {
+            err.printStackTrace();
+            IOImplementation.getInstance().cleanup(d);
+        }
+    }
+
+    /**
+     * A request for one of the ranges downloaded in parallel
+     */
+    class Segment extends ConnectionRequest {
+        private int index;
+        private boolean partial;
+
+        Segment(int index) {
+            this.index = index;
+            setUrl(FileDownloadService.this.getUrl());
+            setPost(false);
+            setCompressionEnabled(false);
+            setHttpCacheEnabled(false);
+            setDuplicateSupported(true);
+            setPriority(FileDownloadService.this.getPriority());
+            setSilentRetryCount(FileDownloadService.this.getSilentRetryCount());
+        }
+
+        boolean stopped() {
+            return shouldStop();
+        }
+
+        protected boolean isPausable() {
+            return true;
+        }
+
+        protected void initConnection(Object connection) {
+            synchronized(lock) {
+                addRangeHeaders(this, index);
+            }
+            super.initConnection(connection);
+        }
+
+        protected void readHeaders(Object connection) throws IOException {
+            partial = getHeader(connection, "Content-Range") != null;
+        }
+
+        protected void readResponse(InputStream input) throws IOException {
+            if(!partial) {
+                // the file changed on the server, the main request starts over
+                synchronized(lock) {
+                    if(active[index] == this) {
+                        active[index] = null;
+                    }
+                    restart(-1, null);
+                }
+                NetworkManager.getInstance().addToQueue(FileDownloadService.this);
+                return;
+            }
+            writeSegment(index, input, this);
+        }
+    }
+}
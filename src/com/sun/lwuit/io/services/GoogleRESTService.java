@@ -28,9 +28,9 @@ import com.sun.lwuit.io.ConnectionRequest;
 import com.sun.lwuit.io.NetworkEvent;
 import com.sun.lwuit.io.util.JSONParseCallback;
 import com.sun.lwuit.io.util.JSONParser;
+import com.sun.lwuit.io.util.UTF8Reader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Vector;
 
 /**
@@ -194,7 +194,7 @@ public class GoogleRESTService extends ConnectionRequest implements JSONParseCal
      * @inheritDoc
      */
     protected void readResponse(InputStream input) throws IOException  {
-        InputStreamReader i = new InputStreamReader(input, "UTF-8");
+        UTF8Reader i = new UTF8Reader(input);
         results = new Vector();
         JSONParser.parse(i, this);
         fireResponseListener(new NetworkEvent(this, results));
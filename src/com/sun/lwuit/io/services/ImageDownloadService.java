@@ -284,12 +284,13 @@ public class ImageDownloadService extends ConnectionRequest {
         }
         
         
-        // trigger an exception in case of an invalid image
-        result.getWidth();
+        // trigger an exception in case of an invalid image, when scaling only the
+        // scaled image is decoded
         Image image = result;
-
         if (toScale != null) {
             image = image.scaled(toScale.getWidth(), toScale.getHeight());
+        } else {
+            result.getWidth();
         }
 
         if(parentLabel != null) {
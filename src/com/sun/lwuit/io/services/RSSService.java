@@ -27,6 +27,7 @@ package com.sun.lwuit.io.services;
 import com.sun.lwuit.Dialog;
 import com.sun.lwuit.io.ConnectionRequest;
 import com.sun.lwuit.io.NetworkEvent;
+import com.sun.lwuit.io.util.UTF8Reader;
 import com.sun.lwuit.xml.Element;
 import com.sun.lwuit.xml.ParserCallback;
 import com.sun.lwuit.xml.XMLParser;
@@ -147,7 +148,7 @@ public class RSSService extends ConnectionRequest implements ParserCallback {
         input.reset();
 
         try {
-            p.eventParser(new InputStreamReader(input, "UTF-8"));
+            p.eventParser(new UTF8Reader(input));
         } catch(FinishParsing ignor) {
             hasMore = true;
         }
@@ -27,9 +27,9 @@ package com.sun.lwuit.io.services;
 import com.sun.lwuit.io.ConnectionRequest;
 import com.sun.lwuit.io.NetworkEvent;
 import com.sun.lwuit.io.util.JSONParser;
+import com.sun.lwuit.io.util.UTF8Reader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 /**
  * Calls to the Twitter REST API can be performed via this class although currently
@@ -75,7 +75,7 @@ public class TwitterRESTService extends ConnectionRequest {
      * @inheritDoc
      */
     protected void readResponse(InputStream input) throws IOException  {
-        InputStreamReader i = new InputStreamReader(input, "UTF-8");
+        UTF8Reader i = new UTF8Reader(input);
         fireResponseListener(new NetworkEvent(this, new JSONParser().parse(i)));
     }
 }
@@ -54,11 +54,16 @@ public class BufferedInputStream extends InputStream {
     private int count;
     private long lastActivityTime;
     private int totalBytesRead;
+    private long readTime;
 
     private boolean printInput;
     private String name;
     private int yield = -1;
     private long elapsedSinceLastYield;
+    private boolean singleOwner;
+    private static int defaultProgressInterval = 4096;
+    private int progressInterval = defaultProgressInterval;
+    private int lastProgressBytes;
 
     /**
      * Indicates the name of the stream for debugging purposes
@@ -257,7 +262,10 @@ public class BufferedInputStream extends InputStream {
             return;
         }
         int sizeOfBuffer = (buffer.length - pos);
+        long start = System.currentTimeMillis();
         int n = getInIfOpen().read(buffer, pos, sizeOfBuffer);
+        lastActivityTime = System.currentTimeMillis();
+        readTime += lastActivityTime - start;
         if (n > 0) {
             count = n + pos;
         } else {
@@ -279,25 +287,40 @@ public class BufferedInputStream extends InputStream {
      *				or an I/O error occurs. 
      * @see        java.io.FilterInputStream#in
      */
-    public synchronized int read() throws IOException {
-        lastActivityTime = System.currentTimeMillis();
+    public int read() throws IOException {
+        if(singleOwner) {
+            return readByte();
+        }
+        synchronized(this) {
+            return readByte();
+        }
+    }
+
+    private int readByte() throws IOException {
         if(disableBuffering) {
+            lastActivityTime = System.currentTimeMillis();
             int v = getInIfOpen().read();
-            if(printInput && v > -1) {
+            readTime += System.currentTimeMillis() - lastActivityTime;
+            if(v < 0) {
+                flushProgress();
+                return v;
+            }
+            if(printInput) {
                 System.out.print((char)v);
             }
             totalBytesRead++;
-            fireProgress();
+            updateProgress();
             return v;
         }
         if (pos >= count) {
             fill();
             if (pos >= count) {
+                flushProgress();
                 return -1;
             }
         }
         totalBytesRead++;
-        fireProgress();
+        updateProgress();
         int v = getBufIfOpen()[pos++] & 0xff;
         if(printInput) {
             System.out.print((char)v);
@@ -306,7 +329,28 @@ public class BufferedInputStream extends InputStream {
 
     }
 
+    /**
+     * Progress events and activity time updates are batched to once every progress
+     * interval bytes
+     */
+    private void updateProgress() {
+        if(totalBytesRead - lastProgressBytes >= progressInterval) {
+            lastActivityTime = System.currentTimeMillis();
+            fireProgress();
+        }
+    }
+
+    /**
+     * Reports the bytes that weren't reported yet, invoked when reaching the end of the stream
+     */
+    private void flushProgress() {
+        if(totalBytesRead != lastProgressBytes) {
+            fireProgress();
+        }
+    }
+
     private void fireProgress() {
+        lastProgressBytes = totalBytesRead;
         if (progressListener != null) {
             progressListener.ioStreamUpdate(this, totalBytesRead);
         }
@@ -324,7 +368,10 @@ public class BufferedInputStream extends InputStream {
             bytes into the local buffer.  In this way buffered streams will
             cascade harmlessly. */
             if (len >= getBufIfOpen().length && markpos < 0) {
+                long start = System.currentTimeMillis();
                 int val = getInIfOpen().read(b, off, len);
+                lastActivityTime = System.currentTimeMillis();
+                readTime += lastActivityTime - start;
                 if(val < 0) {
                     actualAvailable = -1;
                 } else {
@@ -397,20 +444,34 @@ public class BufferedInputStream extends InputStream {
      *				invoking its {@link #close()} method,
      *				or an I/O error occurs. 
      */
-    public synchronized int read(byte b[], int off, int len)
+    public int read(byte b[], int off, int len)
             throws IOException {
+        if(singleOwner) {
+            return readBytes(b, off, len);
+        }
+        synchronized(this) {
+            return readBytes(b, off, len);
+        }
+    }
+
+    private int readBytes(byte b[], int off, int len) throws IOException {
         if(yield > -1 && !Display.getInstance().isEdt()) {
             yieldTime();
         }
-        lastActivityTime = System.currentTimeMillis();
         if(disableBuffering) {
+            lastActivityTime = System.currentTimeMillis();
             int v = getInIfOpen().read(b, off, len);
-            if(printInput && v > -1) {
+            readTime += System.currentTimeMillis() - lastActivityTime;
+            if(v < 0) {
+                flushProgress();
+                return v;
+            }
+            if(printInput) {
                 System.out.print(new String(b, off, v));
             }
 
             totalBytesRead += v;
-            fireProgress();
+            updateProgress();
             return v;
         }
         getBufIfOpen(); // Check for closed stream
@@ -422,7 +483,6 @@ public class BufferedInputStream extends InputStream {
 
         int n = 0;
         for (;;) {
-            lastActivityTime = System.currentTimeMillis();
             int nread = read1(b, off + n, len - n);
             if (nread <= 0) {
                 n = (n == 0) ? nread : n;
@@ -441,13 +501,77 @@ public class BufferedInputStream extends InputStream {
                 yieldTime();
             }
         }
+        if(n < 0) {
+            flushProgress();
+            return n;
+        }
         totalBytesRead += n;
-        fireProgress();
-        lastActivityTime = System.currentTimeMillis();
+        updateProgress();
 
         return n;
     }
 
+    /**
+     * Makes sure the internal buffer holds unread data and returns the number of
+     * buffered bytes. Together with getBuffer, getBufferOffset and skipBuffered this
+     * allows a decoder to process the data in place without copying it.
+     *
+     * @return the number of bytes available in the buffer starting at getBufferOffset(),
+     * -1 at the end of the stream or 0 if buffering is disabled
+     * @throws IOException thrown by the underlying stream
+     */
+    public int fillBuffer() throws IOException {
+        if(disableBuffering) {
+            return 0;
+        }
+        if (pos >= count) {
+            fill();
+            if (pos >= count) {
+                flushProgress();
+                return -1;
+            }
+        }
+        return count - pos;
+    }
+
+    /**
+     * Returns the internal buffer, the content must not be modified
+     *
+     * @return the internal buffer
+     * @see #fillBuffer()
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Returns the offset of the next unread byte in the internal buffer
+     *
+     * @return the offset of the next unread byte
+     * @see #fillBuffer()
+     */
+    public int getBufferOffset() {
+        return pos;
+    }
+
+    /**
+     * Marks bytes from the internal buffer as read after they were processed in place
+     *
+     * @param n number of bytes, must not exceed the value returned by fillBuffer
+     * @see #fillBuffer()
+     */
+    public void skipBuffered(int n) {
+        if(n < 0 || n > count - pos) {
+            throw new IndexOutOfBoundsException();
+        }
+        if(printInput) {
+            System.out.print(new String(buf, pos, n));
+        }
+        pos += n;
+        totalBytesRead += n;
+        updateProgress();
+    }
+
     /**
      * See the general contract of the <code>skip</code>
      * method of <code>InputStream</code>.
@@ -461,7 +585,7 @@ public class BufferedInputStream extends InputStream {
         if(disableBuffering) {
             long v = getInIfOpen().skip(n);
             totalBytesRead += v;
-            fireProgress();
+            updateProgress();
             return v;
         }
         getBufIfOpen(); // Check for closed stream
@@ -487,8 +611,7 @@ public class BufferedInputStream extends InputStream {
         long skipped = (avail < n) ? avail : n;
         pos += skipped;
         totalBytesRead += (int) skipped;
-        fireProgress();
-        lastActivityTime = System.currentTimeMillis();
+        updateProgress();
         return skipped;
     }
 
@@ -633,6 +756,16 @@ public class BufferedInputStream extends InputStream {
         return totalBytesRead;
     }
 
+    /**
+     * Returns the time in milliseconds spent waiting for the underlying stream,
+     * this excludes the time in which the data was processed by the reader
+     *
+     * @return the time spent blocking on the underlying stream
+     */
+    public long getReadTime() {
+        return readTime;
+    }
+
     /**
      * Sets the callback for IO updates from a buffered stream
      *
@@ -719,6 +852,64 @@ public class BufferedInputStream extends InputStream {
         this.printInput = printInput;
     }
 
+    /**
+     * Indicates the stream is only accessed by a single thread, in that case reads
+     * skip the locking which is otherwise performed for every read call
+     *
+     * @return true if the stream is accessed by a single thread
+     */
+    public boolean isSingleOwner() {
+        return singleOwner;
+    }
+
+    /**
+     * Indicates the stream is only accessed by a single thread, in that case reads
+     * skip the locking which is otherwise performed for every read call
+     *
+     * @param singleOwner true if the stream is accessed by a single thread
+     */
+    public void setSingleOwner(boolean singleOwner) {
+        this.singleOwner = singleOwner;
+    }
+
+    /**
+     * The number of bytes between progress events and updates of the last activity
+     * time, progress is also reported when the end of the stream is reached
+     *
+     * @return the progress interval in bytes
+     */
+    public int getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * The number of bytes between progress events and updates of the last activity
+     * time, progress is also reported when the end of the stream is reached
+     *
+     * @param progressInterval the progress interval in bytes
+     */
+    public void setProgressInterval(int progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * The progress interval for newly created streams
+     *
+     * @return the default progress interval in bytes
+     */
+    public static int getDefaultProgressInterval() {
+        return defaultProgressInterval;
+    }
+
+    /**
+     * The progress interval for newly created streams
+     *
+     * @param aDefaultProgressInterval the default progress interval in bytes
+     */
+    public static void setDefaultProgressInterval(int aDefaultProgressInterval) {
+        defaultProgressInterval = aDefaultProgressInterval;
+    }
+
     /**
      * Allows setting a yield duration for this stream which is useful for background
      * operations to release CPU
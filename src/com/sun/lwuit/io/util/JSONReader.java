@@ -0,0 +1,753 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Pull parser for JSON content, the caller requests one token at a time using
+ * nextToken() and reads its value using the typed getters. Numbers are available
+ * as long or double without boxing and whole objects/arrays can be skipped without
+ * allocating. A JSONPath like selection allows streaming only the values of interest
+ * out of a large document e.g.:
+ * <pre>
+ * JSONReader r = new JSONReader(reader);
+ * r.select("$.results[*]");
+ * while(r.nextMatch()) {
+ *     model.addItem(r.readValue());
+ * }
+ * </pre>
+ * The supported selection syntax is $ for the root followed by any number of
+ * .name, ['name'], .* (any key), [n] (array index) and [*] (any index) segments.
+ *
+ * @author Shai Almog
+ */
+public class JSONReader {
+    /**
+     * Token indicating the end of the document was reached
+     */
+    public static final int END_DOCUMENT = 0;
+
+    /**
+     * Token indicating the start of an object
+     */
+    public static final int START_OBJECT = 1;
+
+    /**
+     * Token indicating the end of an object
+     */
+    public static final int END_OBJECT = 2;
+
+    /**
+     * Token indicating the start of an array
+     */
+    public static final int START_ARRAY = 3;
+
+    /**
+     * Token indicating the end of an array
+     */
+    public static final int END_ARRAY = 4;
+
+    /**
+     * Token indicating an object key, its name is available from getString()
+     */
+    public static final int KEY = 5;
+
+    /**
+     * Token indicating a string value available from getString()
+     */
+    public static final int STRING = 6;
+
+    /**
+     * Token indicating a number available from getLong() or getDouble()
+     */
+    public static final int NUMBER = 7;
+
+    /**
+     * Token indicating the value true
+     */
+    public static final int TRUE = 8;
+
+    /**
+     * Token indicating the value false
+     */
+    public static final int FALSE = 9;
+
+    /**
+     * Token indicating the value null
+     */
+    public static final int NULL = 10;
+
+    private static final int IN_OBJECT_KEY = 1;
+    private static final int IN_OBJECT_VALUE = 2;
+    private static final int IN_ARRAY = 3;
+
+    private static final int SEGMENT_NAME = 0;
+    private static final int SEGMENT_INDEX = 1;
+    private static final int SEGMENT_ANY = 2;
+
+    private Reader in;
+    private char[] buf = new char[4096];
+    private int pos;
+    private int limit;
+
+    private char[] tok = new char[64];
+    private int tokLength;
+    private String tokString;
+    private int token = -1;
+    private long longValue;
+    private boolean integer;
+
+    private int depth;
+    private int[] state = new int[16];
+    private int[] index = new int[16];
+    private boolean[] matched = new boolean[16];
+
+    private int[] segmentTypes;
+    private String[] segmentNames;
+    private int[] segmentIndexes;
+    private boolean keyMatch;
+    private boolean valueMatch;
+    private int valueLevel;
+
+    /**
+     * Creates a reader for the given JSON source
+     *
+     * @param in the source of the JSON text
+     */
+    public JSONReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns the current token
+     *
+     * @return one of the token constants or -1 if nextToken wasn't invoked yet
+     */
+    public int getToken() {
+        return token;
+    }
+
+    /**
+     * Returns the number of objects/arrays enclosing the current position
+     *
+     * @return the nesting depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    private int read() throws IOException {
+        if(pos >= limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if(limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private int readNonWhitespace() throws IOException {
+        while(true) {
+            int c = read();
+            switch(c) {
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                case ',':
+                case ':':
+                    continue;
+                default:
+                    return c;
+            }
+        }
+    }
+
+    private void push(int s) {
+        if(depth + 1 == state.length) {
+            int[] n = new int[state.length * 2];
+            System.arraycopy(state, 0, n, 0, state.length);
+            state = n;
+            n = new int[index.length * 2];
+            System.arraycopy(index, 0, n, 0, index.length);
+            index = n;
+            boolean[] m = new boolean[matched.length * 2];
+            System.arraycopy(matched, 0, m, 0, matched.length);
+            matched = m;
+        }
+        depth++;
+        state[depth] = s;
+        index[depth] = -1;
+        matched[depth] = valueMatch;
+    }
+
+    /**
+     * Invoked before a value is returned, computes whether the value matches the selection
+     */
+    private void valueStarted() {
+        valueLevel = depth;
+        if(depth > 0 && state[depth] == IN_ARRAY) {
+            index[depth]++;
+        }
+        if(segmentTypes == null) {
+            return;
+        }
+        if(depth == 0) {
+            valueMatch = true;
+            return;
+        }
+        if(!matched[depth] || depth > segmentTypes.length) {
+            valueMatch = false;
+            return;
+        }
+        int seg = depth - 1;
+        if(state[depth] == IN_ARRAY) {
+            valueMatch = segmentTypes[seg] == SEGMENT_ANY ||
+                    (segmentTypes[seg] == SEGMENT_INDEX && segmentIndexes[seg] == index[depth]);
+        } else {
+            valueMatch = keyMatch;
+        }
+    }
+
+    /**
+     * Invoked after a value was fully read
+     */
+    private void valueEnded() {
+        if(depth > 0 && state[depth] == IN_OBJECT_VALUE) {
+            state[depth] = IN_OBJECT_KEY;
+        }
+    }
+
+    private boolean tokenEquals(String s) {
+        if(s.length() != tokLength) {
+            return false;
+        }
+        for(int iter = 0 ; iter < tokLength ; iter++) {
+            if(tok[iter] != s.charAt(iter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Advances to the next token
+     *
+     * @return the token type
+     * @throws IOException if thrown by the reader or for malformed input
+     */
+    public int nextToken() throws IOException {
+        tokString = null;
+        int c = readNonWhitespace();
+        switch(c) {
+            case -1:
+                token = END_DOCUMENT;
+                return token;
+            case '{':
+                valueStarted();
+                push(IN_OBJECT_KEY);
+                token = START_OBJECT;
+                return token;
+            case '[':
+                valueStarted();
+                push(IN_ARRAY);
+                token = START_ARRAY;
+                return token;
+            case '}':
+            case ']':
+                if(depth == 0) {
+                    throw new IOException("Unexpected " + (char)c);
+                }
+                depth--;
+                valueEnded();
+                token = c == '}' ? END_OBJECT : END_ARRAY;
+                return token;
+            case '"':
+                if(depth > 0 && state[depth] == IN_OBJECT_KEY) {
+                    readString(true);
+                    state[depth] = IN_OBJECT_VALUE;
+                    if(segmentTypes != null) {
+                        int seg = depth - 1;
+                        keyMatch = depth <= segmentTypes.length && (segmentTypes[seg] == SEGMENT_ANY ||
+                                (segmentTypes[seg] == SEGMENT_NAME && tokenEquals(segmentNames[seg])));
+                    }
+                    token = KEY;
+                    return token;
+                }
+                valueStarted();
+                readString(true);
+                valueEnded();
+                token = STRING;
+                return token;
+            case 't':
+                valueStarted();
+                expect("rue");
+                valueEnded();
+                token = TRUE;
+                return token;
+            case 'f':
+                valueStarted();
+                expect("alse");
+                valueEnded();
+                token = FALSE;
+                return token;
+            case 'n':
+                valueStarted();
+                expect("ull");
+                valueEnded();
+                token = NULL;
+                return token;
+            default:
+                if(c == '-' || (c >= '0' && c <= '9')) {
+                    valueStarted();
+                    readNumber(c);
+                    valueEnded();
+                    token = NUMBER;
+                    return token;
+                }
+                throw new IOException("Unexpected character " + (char)c);
+        }
+    }
+
+    private void expect(String rest) throws IOException {
+        for(int iter = 0 ; iter < rest.length() ; iter++) {
+            if(read() != rest.charAt(iter)) {
+                throw new IOException("Malformed literal, expected " + rest);
+            }
+        }
+    }
+
+    private void append(char c) {
+        if(tokLength == tok.length) {
+            char[] n = new char[tok.length * 2];
+            System.arraycopy(tok, 0, n, 0, tokLength);
+            tok = n;
+        }
+        tok[tokLength++] = c;
+    }
+
+    /**
+     * Reads a string following the opening quote
+     *
+     * @param store false to skip the content without storing it
+     */
+    private void readString(boolean store) throws IOException {
+        tokLength = 0;
+        while(true) {
+            int c = read();
+            switch(c) {
+                case -1:
+                    throw new IOException("Unterminated string");
+                case '"':
+                    return;
+                case '\\':
+                    c = read();
+                    switch(c) {
+                        case 'n':
+                            c = '\n';
+                            break;
+                        case 't':
+                            c = '\t';
+                            break;
+                        case 'r':
+                            c = '\r';
+                            break;
+                        case 'b':
+                            c = '\b';
+                            break;
+                        case 'f':
+                            c = '\f';
+                            break;
+                        case 'u':
+                            int value = 0;
+                            for(int iter = 0 ; iter < 4 ; iter++) {
+                                int digit = Character.digit((char)read(), 16);
+                                if(digit < 0) {
+                                    throw new IOException("Malformed \\u escape");
+                                }
+                                value = (value << 4) | digit;
+                            }
+                            c = value;
+                            break;
+                        case -1:
+                            throw new IOException("Unterminated string");
+                    }
+                    break;
+            }
+            if(store) {
+                append((char)c);
+            }
+        }
+    }
+
+    /**
+     * Returns the next char without consuming it or -1 at the end of the input
+     */
+    private int peek() throws IOException {
+        if(pos >= limit) {
+            if(read() < 0) {
+                return -1;
+            }
+            pos--;
+        }
+        return buf[pos];
+    }
+
+    private void readNumber(int c) throws IOException {
+        tokLength = 0;
+        integer = true;
+        boolean negative = c == '-';
+        long value = 0;
+        boolean digits = false;
+        while(true) {
+            if(c >= '0' && c <= '9') {
+                if(integer) {
+                    int d = c - '0';
+                    // accumulate as a negative number so Long.MIN_VALUE fits
+                    if(value < (Long.MIN_VALUE + d) / 10) {
+                        integer = false;
+                    } else {
+                        value = value * 10 - d;
+                    }
+                }
+                digits = true;
+            } else if(c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                if(tokLength > 0) {
+                    integer = false;
+                }
+            } else {
+                break;
+            }
+            append((char)c);
+            c = peek();
+            if(c > -1) {
+                pos++;
+            }
+        }
+        if(c > -1) {
+            pos--;
+        }
+        if(!digits) {
+            throw new IOException("Malformed number");
+        }
+        if(integer) {
+            if(!negative) {
+                if(value == Long.MIN_VALUE) {
+                    integer = false;
+                }
+                value = -value;
+            }
+            longValue = value;
+        }
+    }
+
+    /**
+     * Returns the string value of the current KEY, STRING or NUMBER token
+     *
+     * @return the string value
+     */
+    public String getString() {
+        if(tokString == null) {
+            switch(token) {
+                case KEY:
+                case STRING:
+                case NUMBER:
+                    tokString = new String(tok, 0, tokLength);
+                    break;
+                case TRUE:
+                    return "true";
+                case FALSE:
+                    return "false";
+                default:
+                    return null;
+            }
+        }
+        return tokString;
+    }
+
+    /**
+     * Returns true if the current number token is an integer that fits in a long
+     *
+     * @return true if getLong() returns the exact value
+     */
+    public boolean isInteger() {
+        return token == NUMBER && integer;
+    }
+
+    /**
+     * Returns the value of the current number token as a long, fractions are truncated
+     *
+     * @return the numeric value
+     */
+    public long getLong() {
+        if(integer) {
+            return longValue;
+        }
+        return (long)getDouble();
+    }
+
+    /**
+     * Returns the value of the current number token as a double
+     *
+     * @return the numeric value
+     */
+    public double getDouble() {
+        if(integer) {
+            return longValue;
+        }
+        return Double.parseDouble(getString());
+    }
+
+    /**
+     * Returns the value of the current TRUE/FALSE token
+     *
+     * @return true for the TRUE token
+     */
+    public boolean getBoolean() {
+        return token == TRUE;
+    }
+
+    /**
+     * Skips a value without allocating, if the current token is the start of an object
+     * or array the reader advances to its end. If the current token is a key the value
+     * of the key is skipped. This method does nothing for other tokens.
+     *
+     * @throws IOException if thrown by the reader or for malformed input
+     */
+    public void skipValue() throws IOException {
+        if(token == KEY) {
+            int t = nextToken();
+            if(t != START_OBJECT && t != START_ARRAY) {
+                return;
+            }
+        }
+        if(token != START_OBJECT && token != START_ARRAY) {
+            return;
+        }
+        int nesting = 1;
+        while(nesting > 0) {
+            int c = read();
+            switch(c) {
+                case -1:
+                    throw new IOException("Unexpected end of document");
+                case '"':
+                    readString(false);
+                    break;
+                case '{':
+                case '[':
+                    nesting++;
+                    break;
+                case '}':
+                case ']':
+                    nesting--;
+                    if(nesting == 0) {
+                        token = c == '}' ? END_OBJECT : END_ARRAY;
+                    }
+                    break;
+            }
+        }
+        tokString = null;
+        tokLength = 0;
+        depth--;
+        valueEnded();
+    }
+
+    /**
+     * Reads the value starting at the current token into the same structure produced
+     * by JSONParser.parse(Reader): objects become Hashtables, arrays Vectors, numbers
+     * Doubles and booleans the strings true/false. Keys with a null value are omitted.
+     *
+     * @return the value at the current position
+     * @throws IOException if thrown by the reader or for malformed input
+     */
+    public Object readValue() throws IOException {
+        if(token == KEY) {
+            nextToken();
+        }
+        switch(token) {
+            case START_OBJECT: {
+                Hashtable h = new Hashtable();
+                while(nextToken() == KEY) {
+                    String key = getString();
+                    nextToken();
+                    Object value = readValue();
+                    if(value != null) {
+                        h.put(key, value);
+                    }
+                }
+                if(token != END_OBJECT) {
+                    throw new IOException("Unexpected end of object");
+                }
+                return h;
+            }
+            case START_ARRAY: {
+                Vector v = new Vector();
+                while(true) {
+                    int t = nextToken();
+                    if(t == END_ARRAY) {
+                        return v;
+                    }
+                    if(t == END_DOCUMENT || t == END_OBJECT) {
+                        throw new IOException("Unexpected end of array");
+                    }
+                    v.addElement(readValue());
+                }
+            }
+            case NUMBER:
+                return new Double(getDouble());
+            case STRING:
+            case TRUE:
+            case FALSE:
+                return getString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sets the selection used by nextMatch
+     *
+     * @param path the selection e.g. $.statuses[*].user
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    public void select(String path) {
+        if(!path.startsWith("$")) {
+            throw new IllegalArgumentException("Path must start with $: " + path);
+        }
+        Vector types = new Vector();
+        Vector names = new Vector();
+        Vector indexes = new Vector();
+        int p = 1;
+        int len = path.length();
+        while(p < len) {
+            char c = path.charAt(p);
+            if(c == '.') {
+                int end = p + 1;
+                while(end < len && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                String name = path.substring(p + 1, end);
+                if(name.length() == 0) {
+                    throw new IllegalArgumentException("Empty segment in " + path);
+                }
+                addSegment(types, names, indexes, name.equals("*") ? SEGMENT_ANY : SEGMENT_NAME, name, -1);
+                p = end;
+            } else if(c == '[') {
+                int end = path.indexOf(']', p);
+                if(end < 0) {
+                    throw new IllegalArgumentException("Missing ] in " + path);
+                }
+                String content = path.substring(p + 1, end);
+                if(content.equals("*")) {
+                    addSegment(types, names, indexes, SEGMENT_ANY, null, -1);
+                } else if(content.length() > 1 && (content.charAt(0) == '\'' || content.charAt(0) == '"')) {
+                    addSegment(types, names, indexes, SEGMENT_NAME, content.substring(1, content.length() - 1), -1);
+                } else {
+                    try {
+                        addSegment(types, names, indexes, SEGMENT_INDEX, null, Integer.parseInt(content));
+                    } catch(NumberFormatException err) {
+                        throw new IllegalArgumentException("Invalid index in " + path);
+                    }
+                }
+                p = end + 1;
+            } else {
+                throw new IllegalArgumentException("Unexpected character " + c + " in " + path);
+            }
+        }
+        int count = types.size();
+        segmentTypes = new int[count];
+        segmentNames = new String[count];
+        segmentIndexes = new int[count];
+        for(int iter = 0 ; iter < count ; iter++) {
+            segmentTypes[iter] = ((Integer)types.elementAt(iter)).intValue();
+            segmentNames[iter] = (String)names.elementAt(iter);
+            segmentIndexes[iter] = ((Integer)indexes.elementAt(iter)).intValue();
+        }
+    }
+
+    private static void addSegment(Vector types, Vector names, Vector indexes, int type, String name, int index) {
+        types.addElement(new Integer(type));
+        names.addElement(name);
+        indexes.addElement(new Integer(index));
+    }
+
+    /**
+     * Advances to the next value matching the selection, subtrees that can't contain
+     * a match are skipped without allocating. When this method returns true the current
+     * token is the first token of the matching value which can be read using readValue()
+     * or the pull methods.
+     *
+     * @return false when the end of the document is reached
+     * @throws IOException if thrown by the reader or for malformed input
+     */
+    public boolean nextMatch() throws IOException {
+        if(segmentTypes == null) {
+            throw new IllegalStateException("select() must be invoked before nextMatch()");
+        }
+        while(true) {
+            switch(nextToken()) {
+                case END_DOCUMENT:
+                    return false;
+                case KEY:
+                    if(!keyMatch || !matched[depth]) {
+                        skipValue();
+                    }
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    break;
+                case START_OBJECT:
+                case START_ARRAY:
+                    if(valueMatch && valueLevel == segmentTypes.length) {
+                        return true;
+                    }
+                    if(!valueMatch || valueLevel > segmentTypes.length) {
+                        skipValue();
+                    }
+                    break;
+                default:
+                    if(valueMatch && valueLevel == segmentTypes.length) {
+                        return true;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying reader
+     *
+     * @throws IOException if thrown by the reader
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -72,9 +72,41 @@ public class Log {
      * followed by info, warning and error
      */
     public static final int ERROR = 4;
+
+    /**
+     * Overflow policy for the async mode, records logged while the buffer is full
+     * are discarded and counted
+     */
+    public static final int OVERFLOW_DROP = 1;
+
+    /**
+     * Overflow policy for the async mode, threads logging while the buffer is full
+     * wait for the background writer to make room
+     */
+    public static final int OVERFLOW_BLOCK = 2;
     
     
     private int level = DEBUG;
+
+    private boolean async;
+    private int bufferSize = 256;
+    private int overflowPolicy = OVERFLOW_DROP;
+    private int batchSize = 32;
+    private int flushInterval = 1000;
+
+    /**
+     * Ring buffer of the pending records in async mode, records are stored in parallel
+     * arrays so logging doesn't allocate a record object
+     */
+    private final Object queueLock = new Object();
+    private Object[] queueMessages;
+    private int[] queueLevels;
+    private long[] queueTimes;
+    private String[] queueThreads;
+    private int queueHead;
+    private int queueCount;
+    private int droppedCount;
+    private Thread writerThread;
     private static Log instance = new Log();
     private long zeroTime = System.currentTimeMillis();
     private Writer output;
@@ -109,6 +141,41 @@ public class Log {
         instance.print(text, level);
     }
 
+    /**
+     * Logs the given message object, in async mode toString() is only invoked by the
+     * background writer so expensive formatting can be deferred by passing an object
+     * whose toString() builds the message. Nothing is done if the level is disabled.
+     *
+     * @param message the message object, a Throwable is logged with its stack trace
+     * @param level one of DEBUG, INFO, WARNING, ERROR
+     */
+    public static void p(Object message, int level) {
+        Log l = instance;
+        if(l.level > level) {
+            return;
+        }
+        if(l.async) {
+            l.enqueue(message, level);
+            return;
+        }
+        if(message instanceof Throwable) {
+            l.logThrowable((Throwable)message);
+        } else {
+            l.print(String.valueOf(message), level);
+        }
+    }
+
+    /**
+     * Returns true if messages of the given level are logged, this allows avoiding
+     * the cost of building messages that would be discarded
+     *
+     * @param level one of DEBUG, INFO, WARNING, ERROR
+     * @return true if the level is enabled
+     */
+    public static boolean isEnabled(int level) {
+        return instance.level <= level;
+    }
+
     /**
      * This method is a shorthand form for logThrowable
      *
@@ -125,6 +192,10 @@ public class Log {
      * @param t
      */
     protected void logThrowable(Throwable t) {
+        if(async) {
+            enqueue(t, ERROR);
+            return;
+        }
         print("Exception: " + t.getClass().getName() + " - " + t.getMessage(), ERROR);
         t.printStackTrace();
         try {
@@ -149,6 +220,10 @@ public class Log {
         if(this.level > level) {
             return;
         }
+        if(async) {
+            enqueue(text, level);
+            return;
+        }
         text = getThreadAndTimeStamp() + " - " + text;
         System.out.println(text);
         try {
@@ -162,6 +237,232 @@ public class Log {
         }
     }
     
+    /**
+     * Adds a record to the ring buffer of the async mode
+     */
+    private void enqueue(Object message, int level) {
+        Thread current = Thread.currentThread();
+        synchronized(queueLock) {
+            if(queueMessages == null) {
+                queueMessages = new Object[bufferSize];
+                queueLevels = new int[bufferSize];
+                queueTimes = new long[bufferSize];
+                queueThreads = new String[bufferSize];
+            }
+            while(queueCount == queueMessages.length) {
+                // the writer can't wait for itself to make room
+                if(overflowPolicy == OVERFLOW_DROP || current == writerThread) {
+                    droppedCount++;
+                    return;
+                }
+                try {
+                    queueLock.wait();
+                } catch(InterruptedException err) {
+                    droppedCount++;
+                    return;
+                }
+            }
+            int pos = (queueHead + queueCount) % queueMessages.length;
+            queueMessages[pos] = message;
+            queueLevels[pos] = level;
+            queueTimes[pos] = System.currentTimeMillis();
+            queueThreads[pos] = current.getName();
+            queueCount++;
+            if(writerThread == null) {
+                writerThread = new Thread(new Runnable() {
+                    public void run() {
+                        writerLoop();
+                    }
+                }, "Log Writer");
+                writerThread.setPriority(Thread.MIN_PRIORITY);
+                writerThread.start();
+            } else if(queueCount >= batchSize) {
+                queueLock.notifyAll();
+            }
+        }
+    }
+
+    private void writerLoop() {
+        while(true) {
+            synchronized(queueLock) {
+                if(queueCount < batchSize) {
+                    try {
+                        queueLock.wait(flushInterval);
+                    } catch(InterruptedException err) {
+                        err.printStackTrace();
+                    }
+                }
+                if(!async && queueCount == 0) {
+                    writerThread = null;
+                    return;
+                }
+            }
+            flushQueue();
+        }
+    }
+
+    /**
+     * Writes all the records pending in the async mode buffer with a single flush
+     */
+    private void flushQueue() {
+        synchronized(this) {
+            Object[] messages;
+            int[] levels;
+            long[] times;
+            String[] threads;
+            int count;
+            int dropped;
+            synchronized(queueLock) {
+                count = queueCount;
+                dropped = droppedCount;
+                droppedCount = 0;
+                if(count == 0 && dropped == 0) {
+                    return;
+                }
+                messages = new Object[count];
+                levels = new int[count];
+                times = new long[count];
+                threads = new String[count];
+                int length = queueMessages.length;
+                for(int iter = 0 ; iter < count ; iter++) {
+                    int pos = (queueHead + iter) % length;
+                    messages[iter] = queueMessages[pos];
+                    levels[iter] = queueLevels[pos];
+                    times[iter] = queueTimes[pos];
+                    threads[iter] = queueThreads[pos];
+                    queueMessages[pos] = null;
+                    queueThreads[pos] = null;
+                }
+                queueHead = (queueHead + count) % length;
+                queueCount = 0;
+                queueLock.notifyAll();
+            }
+            try {
+                Writer w = getWriter();
+                StringBuffer sb = new StringBuffer();
+                if(dropped > 0) {
+                    sb.append(dropped);
+                    sb.append(" log records were dropped\n");
+                }
+                for(int iter = 0 ; iter < count ; iter++) {
+                    Object m = messages[iter];
+                    String prefix = formatThreadAndTimeStamp(threads[iter], times[iter]) + " - ";
+                    if(m instanceof Throwable) {
+                        Throwable t = (Throwable)m;
+                        sb.append(prefix);
+                        sb.append("Exception: ");
+                        sb.append(t.getClass().getName());
+                        sb.append(" - ");
+                        sb.append(t.getMessage());
+                        sb.append('\n');
+                        String text = sb.toString();
+                        System.out.print(text);
+                        t.printStackTrace();
+                        w.write(text);
+                        sb.setLength(0);
+                        IOImplementation.getInstance().printStackTraceToStream(t, w);
+                        continue;
+                    }
+                    sb.append(prefix);
+                    sb.append(String.valueOf(m));
+                    sb.append('\n');
+                }
+                String text = sb.toString();
+                System.out.print(text);
+                w.write(text);
+                w.flush();
+            } catch(Throwable err) {
+                err.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes all the records pending in the async mode buffer, this is invoked
+     * implicitly by getLogContent()
+     */
+    public static void flush() {
+        if(instance.queueMessages != null) {
+            instance.flushQueue();
+        }
+    }
+
+    /**
+     * Enables the async mode where log calls only place the record in a bounded
+     * buffer and a background thread formats and writes the records in batches.
+     * Disabling the mode writes the pending records.
+     *
+     * @param async true to enable the async mode
+     */
+    public static void setAsync(boolean async) {
+        Log l = instance;
+        l.async = async;
+        if(!async) {
+            synchronized(l.queueLock) {
+                l.queueLock.notifyAll();
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Indicates whether the async mode is enabled
+     *
+     * @return true if log calls are written by a background thread
+     */
+    public static boolean isAsync() {
+        return instance.async;
+    }
+
+    /**
+     * The number of records the async mode buffer can hold, this must be set before
+     * the async mode is first used
+     *
+     * @param size the buffer size in records
+     */
+    public static void setBufferSize(int size) {
+        instance.bufferSize = size;
+    }
+
+    /**
+     * The number of records the async mode buffer can hold
+     *
+     * @return the buffer size in records
+     */
+    public static int getBufferSize() {
+        return instance.bufferSize;
+    }
+
+    /**
+     * Indicates what happens to records logged while the async mode buffer is full
+     *
+     * @param policy OVERFLOW_DROP or OVERFLOW_BLOCK
+     */
+    public static void setOverflowPolicy(int policy) {
+        instance.overflowPolicy = policy;
+    }
+
+    /**
+     * Indicates what happens to records logged while the async mode buffer is full
+     *
+     * @return OVERFLOW_DROP or OVERFLOW_BLOCK
+     */
+    public static int getOverflowPolicy() {
+        return instance.overflowPolicy;
+    }
+
+    /**
+     * The background writer writes as soon as this many records are pending or
+     * once the flush interval elapses
+     *
+     * @param batchSize the number of records that triggers a write
+     * @param flushInterval the maximum time in milliseconds a record stays pending
+     */
+    public static void setBatching(int batchSize, int flushInterval) {
+        instance.batchSize = batchSize;
+        instance.flushInterval = flushInterval;
+    }
+
     /**
      * Default method for creating the output writer into which we write, this method
      * creates a simple log file using the file connector
@@ -200,7 +501,11 @@ public class Log {
      * @return timestamp string for use in the log
      */
     protected String getThreadAndTimeStamp() {
-        long time = System.currentTimeMillis() - zeroTime;
+        return formatThreadAndTimeStamp(Thread.currentThread().getName(), System.currentTimeMillis());
+    }
+
+    private String formatThreadAndTimeStamp(String thread, long timestamp) {
+        long time = timestamp - zeroTime;
         long milli = time % 1000;
         time /= 1000;
         long sec = time % 60;
@@ -209,7 +514,7 @@ public class Log {
         time /= 60;
         long hour = time % 60; 
         
-        return "[" + Thread.currentThread().getName() + "] " + hour  + ":" + min + ":" + sec + "," + milli;
+        return "[" + thread + "] " + hour  + ":" + min + ":" + sec + "," + milli;
     }
     
     /**
@@ -239,6 +544,7 @@ public class Log {
      * @return string containing the whole log
      */
     public static String getLogContent() {
+        flush();
         try {
             String text = "";
             if(instance.isFileWriteEnabled()) {
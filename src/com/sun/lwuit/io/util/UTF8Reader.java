@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2008, 2010, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores
+ * CA 94065 USA or visit www.oracle.com if you need additional information or
+ * have any questions.
+ */
+
+package com.sun.lwuit.io.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * A UTF-8 reader that decodes the bytes in place within the buffer of a
+ * {@link BufferedInputStream} rather than pulling them one at a time through a
+ * generic input stream reader. Malformed input is replaced with U+FFFD.
+ *
+ * @author Shai Almog
+ */
+public class UTF8Reader extends Reader {
+    private static final char REPLACEMENT = '\ufffd';
+    private BufferedInputStream in;
+
+    /**
+     * Low surrogate of a supplementary character that didn't fit in the destination
+     */
+    private char pendingChar;
+
+    /**
+     * A byte read past the end of a malformed sequence or -1
+     */
+    private int pushback = -1;
+
+    /**
+     * Creates a reader for the given stream, streams other than a BufferedInputStream
+     * are wrapped in one
+     *
+     * @param input the source stream
+     */
+    public UTF8Reader(InputStream input) {
+        if(input instanceof BufferedInputStream) {
+            in = (BufferedInputStream)input;
+        } else {
+            in = new BufferedInputStream(input, "UTF8Reader");
+            in.setSingleOwner(true);
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        int written = 0;
+        if(pendingChar != 0) {
+            cbuf[off] = pendingChar;
+            pendingChar = 0;
+            written = 1;
+        }
+        if(pushback > -1 && written < len) {
+            int c = pushback;
+            pushback = -1;
+            written += decodeSlow(c, cbuf, off + written, len - written);
+        }
+        while(written < len && pendingChar == 0) {
+            int avail = in.fillBuffer();
+            if(avail < 0) {
+                break;
+            }
+            if(avail == 0) {
+                // buffering is disabled, decode from the stream directly
+                int c = in.read();
+                if(c < 0) {
+                    break;
+                }
+                written += decodeSlow(c, cbuf, off + written, len - written);
+                break;
+            }
+            byte[] b = in.getBuffer();
+            int start = in.getBufferOffset();
+            int p = start;
+            int end = start + avail;
+            int o = off + written;
+            int oEnd = off + len;
+            while(o < oEnd && p < end) {
+                int c = b[p];
+                if(c >= 0) {
+                    cbuf[o++] = (char)c;
+                    p++;
+                    continue;
+                }
+                c &= 0xff;
+                int need = sequenceLength(c);
+                if(need < 0) {
+                    cbuf[o++] = REPLACEMENT;
+                    p++;
+                    continue;
+                }
+                if(p + need >= end) {
+                    // the sequence continues past the buffer
+                    break;
+                }
+                int value = c & (0x3f >> need);
+                boolean valid = true;
+                for(int iter = 1 ; iter <= need ; iter++) {
+                    int cont = b[p + iter] & 0xff;
+                    if((cont & 0xc0) != 0x80) {
+                        valid = false;
+                        need = iter - 1;
+                        break;
+                    }
+                    value = (value << 6) | (cont & 0x3f);
+                }
+                p += need + 1;
+                if(!valid) {
+                    cbuf[o++] = REPLACEMENT;
+                    continue;
+                }
+                o = store(value, cbuf, o, oEnd);
+            }
+            in.skipBuffered(p - start);
+            written = o - off;
+            if(o == oEnd || p == end) {
+                // don't block for more input once the buffered data was decoded
+                break;
+            }
+            if(p == start) {
+                // only an incomplete sequence is buffered, read it byte by byte
+                written += decodeSlow(in.read(), cbuf, o, oEnd - o);
+            }
+        }
+        if(written == 0) {
+            return -1;
+        }
+        return written;
+    }
+
+    /**
+     * Returns the number of continuation bytes following the given lead byte or -1
+     * if it isn't a valid lead byte
+     */
+    private static int sequenceLength(int c) {
+        if(c >= 0xc2 && c < 0xe0) {
+            return 1;
+        }
+        if(c >= 0xe0 && c < 0xf0) {
+            return 2;
+        }
+        if(c >= 0xf0 && c < 0xf5) {
+            return 3;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the code point in the destination, splitting supplementary characters
+     * into a surrogate pair
+     *
+     * @return the new offset in the destination
+     */
+    private int store(int value, char[] cbuf, int o, int oEnd) {
+        if(value < 0x10000) {
+            cbuf[o++] = (char)value;
+            return o;
+        }
+        value -= 0x10000;
+        cbuf[o++] = (char)(0xd800 + (value >> 10));
+        char low = (char)(0xdc00 + (value & 0x3ff));
+        if(o < oEnd) {
+            cbuf[o++] = low;
+        } else {
+            pendingChar = low;
+        }
+        return o;
+    }
+
+    /**
+     * Decodes a character whose lead byte was already read from the stream
+     *
+     * @return the number of chars written
+     */
+    private int decodeSlow(int c, char[] cbuf, int o, int available) throws IOException {
+        if(c < 0x80) {
+            cbuf[o] = (char)c;
+            return 1;
+        }
+        int need = sequenceLength(c);
+        if(need < 0) {
+            cbuf[o] = REPLACEMENT;
+            return 1;
+        }
+        int value = c & (0x3f >> need);
+        for(int iter = 0 ; iter < need ; iter++) {
+            int cont = in.read();
+            if(cont < 0 || (cont & 0xc0) != 0x80) {
+                pushback = cont;
+                cbuf[o] = REPLACEMENT;
+                return 1;
+            }
+            value = (value << 6) | (cont & 0x3f);
+        }
+        return store(value, cbuf, o, o + available) - o;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -46,6 +46,52 @@ import java.util.Vector;
 public class Util {
     private static Hashtable externalizables = new Hashtable();
 
+    /**
+     * Maps a numeric type id to the object id of an externalizable and vice versa
+     */
+    private static Hashtable typeIdToObjectId = new Hashtable();
+    private static Hashtable objectIdToTypeId = new Hashtable();
+
+    /**
+     * The first byte of a value in the v1 format is a boolean, this marker can't
+     * appear there and indicates a value in the compact v2 format
+     */
+    private static final int V2_MARKER = 0xb2;
+
+    /**
+     * Strings longer than this aren't added to the intern table of a v2 stream
+     */
+    private static final int MAX_INTERNED_LENGTH = 64;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_STRING_REF = 2;
+    private static final int TYPE_STRING_RAW = 3;
+    private static final int TYPE_INT = 4;
+    private static final int TYPE_LONG = 5;
+    private static final int TYPE_BYTE = 6;
+    private static final int TYPE_SHORT = 7;
+    private static final int TYPE_FLOAT = 8;
+    private static final int TYPE_DOUBLE = 9;
+    private static final int TYPE_TRUE = 10;
+    private static final int TYPE_FALSE = 11;
+    private static final int TYPE_DATE = 12;
+    private static final int TYPE_VECTOR = 13;
+    private static final int TYPE_HASHTABLE = 14;
+    private static final int TYPE_VECTOR_SUBCLASS = 15;
+    private static final int TYPE_HASHTABLE_SUBCLASS = 16;
+    private static final int TYPE_OBJECT_ARRAY = 17;
+    private static final int TYPE_BYTE_ARRAY = 18;
+    private static final int TYPE_SHORT_ARRAY = 19;
+    private static final int TYPE_INT_ARRAY = 20;
+    private static final int TYPE_LONG_ARRAY = 21;
+    private static final int TYPE_FLOAT_ARRAY = 22;
+    private static final int TYPE_DOUBLE_ARRAY = 23;
+    private static final int TYPE_EXTERNALIZABLE = 24;
+    private static final int TYPE_EXTERNALIZABLE_ID = 25;
+
+    private static int serializationVersion = 2;
+
     private static boolean charArrayBugTested;
     private static boolean charArrayBug;
 
@@ -160,6 +206,46 @@ public class Util {
         externalizables.put(id, c);
     }
 
+    /**
+     * Registers this externalizable with a numeric type id, the v2 format writes the
+     * type id instead of the object id. The type id must be unique and must remain
+     * the same across versions of the application for stored objects to be readable.
+     *
+     * @param id id of the externalizable
+     * @param c the class for the externalizable
+     * @param typeId a non negative number uniquely identifying the type
+     */
+    public static void register(String id, Class c, int typeId) {
+        externalizables.put(id, c);
+        Integer i = new Integer(typeId);
+        typeIdToObjectId.put(i, id);
+        objectIdToTypeId.put(id, i);
+    }
+
+    /**
+     * Indicates the format used by writeObject, version 1 writes the full type name
+     * before every value while version 2 (the default) uses single byte type codes,
+     * variable length numbers and writes every repeated short string once per stream.
+     * readObject reads both formats regardless of this value.
+     *
+     * @param version 1 or 2
+     */
+    public static void setSerializationVersion(int version) {
+        if(version != 1 && version != 2) {
+            throw new IllegalArgumentException("Unsupported serialization version " + version);
+        }
+        serializationVersion = version;
+    }
+
+    /**
+     * Indicates the format used by writeObject
+     *
+     * @return 1 or 2
+     */
+    public static int getSerializationVersion() {
+        return serializationVersion;
+    }
+
     /**
      * Writes an object to the given output stream
      *
@@ -168,6 +254,11 @@ public class Util {
      * @throws IOException thrown by the stream
      */
     public static void writeObject(Object o, DataOutputStream out) throws IOException {
+        if(serializationVersion == 2) {
+            out.writeByte(V2_MARKER);
+            writeObjectV2(o, out, new StreamContext());
+            return;
+        }
         if(o == null) {
             out.writeBoolean(false);
             return;
@@ -349,7 +440,11 @@ public class Util {
      */
     public static Object readObject(DataInputStream input) throws IOException {
         try {
-            if (!input.readBoolean()) {
+            int header = input.readUnsignedByte();
+            if (header == V2_MARKER) {
+                return readObjectV2(input, new StreamContext());
+            }
+            if (header == 0) {
                 return null;
             }
             String type = input.readUTF();
@@ -467,6 +562,448 @@ public class Util {
         }
     }
 
+    /**
+     * Per stream state of the v2 format, strings and externalizable types are
+     * numbered in the order in which they first appear in the stream
+     */
+    private static class StreamContext {
+        Hashtable stringIds = new Hashtable();
+        Vector strings = new Vector();
+        Hashtable versions = new Hashtable();
+    }
+
+    private static void writeVarInt(int i, DataOutputStream out) throws IOException {
+        while((i & ~0x7f) != 0) {
+            out.writeByte((i & 0x7f) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    private static void writeVarLong(long l, DataOutputStream out) throws IOException {
+        while((l & ~0x7fL) != 0) {
+            out.writeByte(((int)l & 0x7f) | 0x80);
+            l >>>= 7;
+        }
+        out.writeByte((int)l);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        for(int shift = 0 ; shift < 32 ; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length int");
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for(int shift = 0 ; shift < 64 ; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= ((long)(b & 0x7f)) << shift;
+            if((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length long");
+    }
+
+    private static int zigZag(int i) {
+        return (i << 1) ^ (i >> 31);
+    }
+
+    private static int unZigZag(int i) {
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    private static long zigZag(long l) {
+        return (l << 1) ^ (l >> 63);
+    }
+
+    private static long unZigZag(long l) {
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    private static void writeStringV2(String str, DataOutputStream out, StreamContext ctx) throws IOException {
+        Integer id = (Integer)ctx.stringIds.get(str);
+        if(id != null) {
+            out.writeByte(TYPE_STRING_REF);
+            writeVarInt(id.intValue(), out);
+            return;
+        }
+        if(str.length() > MAX_INTERNED_LENGTH) {
+            out.writeByte(TYPE_STRING_RAW);
+        } else {
+            out.writeByte(TYPE_STRING);
+            ctx.stringIds.put(str, new Integer(ctx.strings.size()));
+            ctx.strings.addElement(str);
+        }
+        byte[] b = str.getBytes("UTF-8");
+        writeVarInt(b.length, out);
+        out.write(b);
+    }
+
+    private static String readStringV2(int type, DataInputStream in, StreamContext ctx) throws IOException {
+        if(type == TYPE_STRING_REF) {
+            int id = readVarInt(in);
+            if(id < 0 || id >= ctx.strings.size()) {
+                throw new IOException("Invalid string reference " + id);
+            }
+            return (String)ctx.strings.elementAt(id);
+        }
+        byte[] b = new byte[readVarInt(in)];
+        in.readFully(b);
+        String str = new String(b, 0, b.length, "UTF-8");
+        if(type == TYPE_STRING) {
+            ctx.strings.addElement(str);
+        }
+        return str;
+    }
+
+    /**
+     * The version of an externalizable type is written with the first instance of
+     * the type in the stream and omitted for the following instances of the same version
+     */
+    private static void writeVersionV2(Object typeKey, int version, DataOutputStream out, StreamContext ctx) throws IOException {
+        Integer last = (Integer)ctx.versions.get(typeKey);
+        if(last != null && last.intValue() == version) {
+            out.writeByte(0);
+            return;
+        }
+        ctx.versions.put(typeKey, new Integer(version));
+        writeVarInt(zigZag(version) + 1, out);
+    }
+
+    private static int readVersionV2(Object typeKey, DataInputStream in, StreamContext ctx) throws IOException {
+        int v = readVarInt(in);
+        if(v == 0) {
+            Integer last = (Integer)ctx.versions.get(typeKey);
+            if(last == null) {
+                throw new IOException("Missing version for " + typeKey);
+            }
+            return last.intValue();
+        }
+        int version = unZigZag(v - 1);
+        ctx.versions.put(typeKey, new Integer(version));
+        return version;
+    }
+
+    private static void writeObjectV2(Object o, DataOutputStream out, StreamContext ctx) throws IOException {
+        if(o == null) {
+            out.writeByte(TYPE_NULL);
+            return;
+        }
+        if(o instanceof String) {
+            writeStringV2((String)o, out, ctx);
+            return;
+        }
+        if(o instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            writeVarInt(zigZag(((Integer)o).intValue()), out);
+            return;
+        }
+        if(o instanceof Externalizable) {
+            Externalizable e = (Externalizable)o;
+            String id = e.getObjectId();
+            Integer typeId = (Integer)objectIdToTypeId.get(id);
+            if(typeId != null) {
+                out.writeByte(TYPE_EXTERNALIZABLE_ID);
+                writeVarInt(typeId.intValue(), out);
+            } else {
+                out.writeByte(TYPE_EXTERNALIZABLE);
+                writeStringV2(id, out, ctx);
+            }
+            writeVersionV2(id, e.getVersion(), out, ctx);
+            e.externalize(out);
+            return;
+        }
+        if(o instanceof Hashtable) {
+            Hashtable v = (Hashtable)o;
+            if(o.getClass() == Hashtable.class) {
+                out.writeByte(TYPE_HASHTABLE);
+            } else {
+                out.writeByte(TYPE_HASHTABLE_SUBCLASS);
+                writeStringV2(o.getClass().getName(), out, ctx);
+            }
+            writeVarInt(v.size(), out);
+            Enumeration k = v.keys();
+            while(k.hasMoreElements()) {
+                Object key = k.nextElement();
+                writeObjectV2(key, out, ctx);
+                writeObjectV2(v.get(key), out, ctx);
+            }
+            return;
+        }
+        if(o instanceof Vector) {
+            Vector v = (Vector)o;
+            if(o.getClass() == Vector.class) {
+                out.writeByte(TYPE_VECTOR);
+            } else {
+                out.writeByte(TYPE_VECTOR_SUBCLASS);
+                writeStringV2(o.getClass().getName(), out, ctx);
+            }
+            int size = v.size();
+            writeVarInt(size, out);
+            for(int iter = 0 ; iter < size ; iter++) {
+                writeObjectV2(v.elementAt(iter), out, ctx);
+            }
+            return;
+        }
+        if(o instanceof Boolean) {
+            out.writeByte(((Boolean)o).booleanValue() ? TYPE_TRUE : TYPE_FALSE);
+            return;
+        }
+        if(o instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            writeVarLong(zigZag(((Long)o).longValue()), out);
+            return;
+        }
+        if(o instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date)o).getTime());
+            return;
+        }
+        if(o instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Double)o).doubleValue());
+            return;
+        }
+        if(o instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat(((Float)o).floatValue());
+            return;
+        }
+        if(o instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte(((Byte)o).byteValue());
+            return;
+        }
+        if(o instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            writeVarInt(zigZag(((Short)o).shortValue()), out);
+            return;
+        }
+        if(o instanceof Object[]) {
+            Object[] v = (Object[])o;
+            out.writeByte(TYPE_OBJECT_ARRAY);
+            writeVarInt(v.length, out);
+            for(int iter = 0 ; iter < v.length ; iter++) {
+                writeObjectV2(v[iter], out, ctx);
+            }
+            return;
+        }
+        if(o instanceof byte[]) {
+            byte[] v = (byte[])o;
+            out.writeByte(TYPE_BYTE_ARRAY);
+            writeVarInt(v.length, out);
+            out.write(v);
+            return;
+        }
+        if(o instanceof short[]) {
+            short[] v = (short[])o;
+            out.writeByte(TYPE_SHORT_ARRAY);
+            writeVarInt(v.length, out);
+            for(int iter = 0 ; iter < v.length ; iter++) {
+                writeVarInt(zigZag(v[iter]), out);
+            }
+            return;
+        }
+        if(o instanceof int[]) {
+            int[] v = (int[])o;
+            out.writeByte(TYPE_INT_ARRAY);
+            writeVarInt(v.length, out);
+            for(int iter = 0 ; iter < v.length ; iter++) {
+                writeVarInt(zigZag(v[iter]), out);
+            }
+            return;
+        }
+        if(o instanceof long[]) {
+            long[] v = (long[])o;
+            out.writeByte(TYPE_LONG_ARRAY);
+            writeVarInt(v.length, out);
+            for(int iter = 0 ; iter < v.length ; iter++) {
+                writeVarLong(zigZag(v[iter]), out);
+            }
+            return;
+        }
+        if(o instanceof float[]) {
+            float[] v = (float[])o;
+            out.writeByte(TYPE_FLOAT_ARRAY);
+            writeVarInt(v.length, out);
+            for(int iter = 0 ; iter < v.length ; iter++) {
+                out.writeFloat(v[iter]);
+            }
+            return;
+        }
+        if(o instanceof double[]) {
+            double[] v = (double[])o;
+            out.writeByte(TYPE_DOUBLE_ARRAY);
+            writeVarInt(v.length, out);
+            for(int iter = 0 ; iter < v.length ; iter++) {
+                out.writeDouble(v[iter]);
+            }
+            return;
+        }
+
+        throw new IOException("Object type not supported: " + o.getClass().getName());
+    }
+
+    private static Object newInstance(String className) throws IOException {
+        try {
+            return Class.forName(className).newInstance();
+        } catch (InstantiationException ex1) {
+            ex1.printStackTrace();
+            throw new IOException(ex1.getClass().getName() + ": " + ex1.getMessage());
+        } catch (IllegalAccessException ex1) {
+            ex1.printStackTrace();
+            throw new IOException(ex1.getClass().getName() + ": " + ex1.getMessage());
+        } catch (ClassNotFoundException ex1) {
+            ex1.printStackTrace();
+            throw new IOException(ex1.getClass().getName() + ": " + ex1.getMessage());
+        }
+    }
+
+    private static Object readObjectV2(DataInputStream in, StreamContext ctx) throws IOException {
+        int type = in.readUnsignedByte();
+        switch(type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+            case TYPE_STRING_REF:
+            case TYPE_STRING_RAW:
+                return readStringV2(type, in, ctx);
+            case TYPE_INT:
+                return new Integer(unZigZag(readVarInt(in)));
+            case TYPE_LONG:
+                return new Long(unZigZag(readVarLong(in)));
+            case TYPE_BYTE:
+                return new Byte(in.readByte());
+            case TYPE_SHORT:
+                return new Short((short)unZigZag(readVarInt(in)));
+            case TYPE_FLOAT:
+                return new Float(in.readFloat());
+            case TYPE_DOUBLE:
+                return new Double(in.readDouble());
+            case TYPE_TRUE:
+                return new Boolean(true);
+            case TYPE_FALSE:
+                return new Boolean(false);
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_VECTOR:
+            case TYPE_VECTOR_SUBCLASS: {
+                Vector v;
+                if(type == TYPE_VECTOR) {
+                    v = new Vector();
+                } else {
+                    v = (Vector)newInstance(readStringV2(in.readUnsignedByte(), in, ctx));
+                }
+                int size = readVarInt(in);
+                for(int iter = 0 ; iter < size ; iter++) {
+                    v.addElement(readObjectV2(in, ctx));
+                }
+                return v;
+            }
+            case TYPE_HASHTABLE:
+            case TYPE_HASHTABLE_SUBCLASS: {
+                Hashtable v;
+                if(type == TYPE_HASHTABLE) {
+                    v = new Hashtable();
+                } else {
+                    v = (Hashtable)newInstance(readStringV2(in.readUnsignedByte(), in, ctx));
+                }
+                int size = readVarInt(in);
+                for(int iter = 0 ; iter < size ; iter++) {
+                    Object key = readObjectV2(in, ctx);
+                    v.put(key, readObjectV2(in, ctx));
+                }
+                return v;
+            }
+            case TYPE_OBJECT_ARRAY: {
+                Object[] v = new Object[readVarInt(in)];
+                for(int iter = 0 ; iter < v.length ; iter++) {
+                    v[iter] = readObjectV2(in, ctx);
+                }
+                return v;
+            }
+            case TYPE_BYTE_ARRAY: {
+                byte[] v = new byte[readVarInt(in)];
+                in.readFully(v);
+                return v;
+            }
+            case TYPE_SHORT_ARRAY: {
+                short[] v = new short[readVarInt(in)];
+                for(int iter = 0 ; iter < v.length ; iter++) {
+                    v[iter] = (short)unZigZag(readVarInt(in));
+                }
+                return v;
+            }
+            case TYPE_INT_ARRAY: {
+                int[] v = new int[readVarInt(in)];
+                for(int iter = 0 ; iter < v.length ; iter++) {
+                    v[iter] = unZigZag(readVarInt(in));
+                }
+                return v;
+            }
+            case TYPE_LONG_ARRAY: {
+                long[] v = new long[readVarInt(in)];
+                for(int iter = 0 ; iter < v.length ; iter++) {
+                    v[iter] = unZigZag(readVarLong(in));
+                }
+                return v;
+            }
+            case TYPE_FLOAT_ARRAY: {
+                float[] v = new float[readVarInt(in)];
+                for(int iter = 0 ; iter < v.length ; iter++) {
+                    v[iter] = in.readFloat();
+                }
+                return v;
+            }
+            case TYPE_DOUBLE_ARRAY: {
+                double[] v = new double[readVarInt(in)];
+                for(int iter = 0 ; iter < v.length ; iter++) {
+                    v[iter] = in.readDouble();
+                }
+                return v;
+            }
+            case TYPE_EXTERNALIZABLE:
+            case TYPE_EXTERNALIZABLE_ID: {
+                String id;
+                if(type == TYPE_EXTERNALIZABLE_ID) {
+                    int typeId = readVarInt(in);
+                    id = (String)typeIdToObjectId.get(new Integer(typeId));
+                    if(id == null) {
+                        throw new IOException("Unregistered type id " + typeId);
+                    }
+                } else {
+                    id = readStringV2(in.readUnsignedByte(), in, ctx);
+                }
+                int version = readVersionV2(id, in, ctx);
+                Class cls = (Class)externalizables.get(id);
+                if(cls == null) {
+                    throw new IOException("Object type not supported: " + id);
+                }
+                Externalizable ex;
+                try {
+                    ex = (Externalizable)cls.newInstance();
+                } catch (InstantiationException ex1) {
+                    ex1.printStackTrace();
+                    throw new IOException(ex1.getClass().getName() + ": " + ex1.getMessage());
+                } catch (IllegalAccessException ex1) {
+                    ex1.printStackTrace();
+                    throw new IOException(ex1.getClass().getName() + ": " + ex1.getMessage());
+                }
+                ex.internalize(version, in);
+                return ex;
+            }
+        }
+        throw new IOException("Unknown type code " + type);
+    }
+
     /**
      * Encode a string for HTML requests
      *
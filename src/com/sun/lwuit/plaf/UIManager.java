@@ -62,7 +62,8 @@ public class UIManager {
     /**
      * Useful for caching theme images so they are not loaded twice in case 
      * an image reference is used it two places in the theme (e.g. same background
-     * to title and menu bar).
+     * to title and menu bar). The images are kept pinned in the global image cache
+     * while the theme is installed, this table holds the cache keys.
      */
     private Hashtable imageCache = new Hashtable();
     /**
@@ -744,6 +745,12 @@ public class UIManager {
         styles.clear();
         themeConstants.clear();
         selectedStyles.clear();
+        Enumeration keys = imageCache.elements();
+        while(keys.hasMoreElements()) {
+            Object key = keys.nextElement();
+            ImageCache.getInstance().unpin(key);
+            ImageCache.getInstance().remove(key);
+        }
         imageCache.clear();
         if (themelisteners != null) {
             themelisteners.fireActionEvent(new ActionEvent(themeProps));
@@ -888,15 +895,24 @@ public class UIManager {
                 if (bgImage instanceof String) {
                     try {
                         String bgImageStr = (String) bgImage;
-                        if (imageCache.containsKey(bgImageStr)) {
-                            im = (Image) imageCache.get(bgImageStr);
-                        } else {
+                        Object cacheKey = imageCache.get(bgImageStr);
+                        if (cacheKey != null) {
+                            im = ImageCache.getInstance().get(cacheKey);
+                        }
+                        if (im == null) {
                             if (bgImageStr.startsWith("/")) {
                                 im = Image.createImage(bgImageStr);
                             } else {
                                 im = parseImage((String) bgImage);
                             }
-                            imageCache.put(bgImageStr, im);
+                            if (cacheKey == null) {
+                                cacheKey = "$theme$" + bgImageStr;
+                                imageCache.put(bgImageStr, cacheKey);
+                                ImageCache.getInstance().pin(cacheKey);
+                                ImageCache.getInstance().put(cacheKey, im);
+                            } else {
+                                ImageCache.getInstance().put(cacheKey, im);
+                            }
                         }
                         themeProps.put(id + Style.BG_IMAGE, im);
                     } catch (IOException ex) {
@@ -27,6 +27,7 @@ import com.sun.lwuit.html.HTMLUtils;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Hashtable;
+import java.util.Vector;
 
 /**
  * The parser class is used to parse an XML document into a DOM object (Element).
@@ -76,6 +77,31 @@ public class XMLParser {
     */
    private static final String CDATA_STR = "DATA[";
 
+   /**
+    * The value returned by a cast of the end of stream marker to char
+    */
+   private static final char EOF = (char)-1;
+
+   /**
+    * Buffers that aren't in use by the current recursion level, reused to avoid
+    * allocating while accumulating text, names and values
+    */
+   private Vector bufferPool = new Vector();
+
+   /**
+    * Open addressing hash table of the tag and attribute names encountered so far,
+    * allows returning the same instance for repeated names without allocating
+    */
+   private String[] names = new String[128];
+   private int nameCount;
+   private static final int MAX_NAMES = 2048;
+
+   /**
+    * Nesting depth of the event parser, used to return from nested tags since the
+    * event parser has no element to match the closing tags against
+    */
+   private int eventDepth;
+
 
    /**
     * Constructs the XMLParser
@@ -235,7 +261,7 @@ public class XMLParser {
         eventParser = false;
         Element rootElement=createNewElement("ROOT"); // ROOT is a "dummy" element that all other document elements are added to
         try {
-            parseTagContent(rootElement, is);
+            parseTagContent(rootElement, wrap(is));
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
@@ -303,7 +329,162 @@ public class XMLParser {
      */
     public void eventParser(Reader r) throws IOException {
         eventParser = true;
-        parseTagContent(null, r);
+        eventDepth = 0;
+        parseTagContent(null, wrap(r));
+    }
+
+    private static Reader wrap(Reader r) {
+        if(r instanceof ParserReader) {
+            return r;
+        }
+        return new ParserReader(r);
+    }
+
+    /**
+     * Buffers the source so the parser's single char reads are served from an
+     * array without locking or a call into the underlying reader
+     */
+    private static class ParserReader extends Reader {
+        private Reader in;
+        private char[] buf = new char[4096];
+        private int pos;
+        private int limit;
+
+        ParserReader(Reader in) {
+            this.in = in;
+        }
+
+        private boolean fill() throws IOException {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if(limit <= 0) {
+                limit = 0;
+                return false;
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if(pos >= limit && !fill()) {
+                return -1;
+            }
+            return buf[pos++];
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if(pos >= limit) {
+                if(len >= buf.length) {
+                    return in.read(cbuf, off, len);
+                }
+                if(!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, cbuf, off, n);
+            pos += n;
+            return n;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private StringBuffer acquireBuffer() {
+        int size = bufferPool.size();
+        if(size == 0) {
+            return new StringBuffer();
+        }
+        StringBuffer sb = (StringBuffer)bufferPool.elementAt(size - 1);
+        bufferPool.removeElementAt(size - 1);
+        sb.setLength(0);
+        return sb;
+    }
+
+    private void releaseBuffer(StringBuffer sb) {
+        // don't hold on to the buffers of huge text nodes
+        if(sb.capacity() <= 8192) {
+            bufferPool.addElement(sb);
+        }
+    }
+
+    /**
+     * Returns the name in the buffer as a string, repeated names return the same
+     * string instance without allocating
+     *
+     * @param sb the buffer containing the name
+     * @param lowerCase true to convert the name to lower case
+     * @return the name
+     */
+    private String intern(StringBuffer sb, boolean lowerCase) {
+        int len = sb.length();
+        int hash = 0;
+        for(int iter = 0 ; iter < len ; iter++) {
+            char c = sb.charAt(iter);
+            if(c > 127) {
+                String str = sb.toString();
+                return lowerCase ? str.toLowerCase() : str;
+            }
+            if(lowerCase && c >= 'A' && c <= 'Z') {
+                c = (char)(c - 'A' + 'a');
+            }
+            hash = 31 * hash + c;
+        }
+        int mask = names.length - 1;
+        int index = hash & mask;
+        String current = names[index];
+        while(current != null) {
+            if(nameEquals(current, sb, lowerCase)) {
+                return current;
+            }
+            index = (index + 1) & mask;
+            current = names[index];
+        }
+        String str = sb.toString();
+        if(lowerCase) {
+            str = str.toLowerCase();
+        }
+        if(nameCount < MAX_NAMES) {
+            names[index] = str;
+            nameCount++;
+            if(nameCount * 2 > names.length) {
+                rehashNames();
+            }
+        }
+        return str;
+    }
+
+    private static boolean nameEquals(String s, StringBuffer sb, boolean lowerCase) {
+        int len = sb.length();
+        if(s.length() != len) {
+            return false;
+        }
+        for(int iter = 0 ; iter < len ; iter++) {
+            char c = sb.charAt(iter);
+            if(lowerCase && c >= 'A' && c <= 'Z') {
+                c = (char)(c - 'A' + 'a');
+            }
+            if(s.charAt(iter) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashNames() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for(int iter = 0 ; iter < old.length ; iter++) {
+            if(old[iter] != null) {
+                int index = old[iter].hashCode() & mask;
+                while(names[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                names[index] = old[iter];
+            }
+        }
     }
 
     /**
@@ -366,35 +547,48 @@ public class XMLParser {
      * @throws IOException if an I/O error in the stream is encountered
      */
     protected void parseTagContent(Element element,Reader is) throws IOException {
-        String text=null;
+        StringBuffer text=acquireBuffer();
+        StringBuffer charEntity=acquireBuffer();
+        try {
+            parseTagContent(element, is, text, charEntity);
+        } finally {
+            releaseBuffer(text);
+            releaseBuffer(charEntity);
+        }
+    }
+
+    private void parseTagContent(Element element,Reader is,StringBuffer text,StringBuffer charEntity) throws IOException {
+        boolean hasText=false;
+        boolean inCharEntity=false; // The & is not included in the char entity we accumulate
         boolean leadingSpace=false;
         char c=(char)is.read();
-        String charEntity=null;
 
         while((byte)c!=-1) {
             if (c=='<') {
-                if ((includeWhitespacesBetweenTags) && (leadingSpace) && (text==null) && (element!=null) && (element.getNumChildren()>0)) { 
+                if ((includeWhitespacesBetweenTags) && (leadingSpace) && (!hasText) && (element!=null) && (element.getNumChildren()>0)) { 
                     leadingSpace=false;
-                    text=" ";
+                    hasText=true;
+                    text.append(' ');
                 }
                     
-                if (text!=null) {
+                if (hasText) {
                     // Mistakenly "collected" something that is not a char entity, perhaps
                     // misuse of the & character (instead of using &apos;)
-                    if (charEntity!=null) { 
-                        text+="&"+charEntity;
-                        charEntity=null;
+                    if (inCharEntity) { 
+                        text.append('&').append(charEntity);
+                        inCharEntity=false;
                     }
                     if (leadingSpace) {
-                        text=" "+text;
+                        text.insert(0, ' ');
                     }
                     if(element != null) {
-                        Element textElement=createNewTextElement(text);
+                        Element textElement=createNewTextElement(text.toString());
                         element.addChild(textElement);
                     } else {
-                        textElement(text);
+                        textElement(text.toString());
                     }
-                    text=null;
+                    text.setLength(0);
+                    hasText=false;
                     leadingSpace=false;
                     
                 }
@@ -402,14 +596,19 @@ public class XMLParser {
 
                 Element childElement=parseTag(is);
                 if (childElement==END_TAG) { //was actually an ending tag
-                    String closingTag="";
+                    StringBuffer closingTagBuffer=acquireBuffer();
                     c=(char)is.read();
-                    while ((c!='>')) {
-                        closingTag+=c;
+                    while ((c!='>') && (c!=EOF)) {
+                        closingTagBuffer.append(c);
                         c=(char)is.read();
                     }
+                    String closingTag=intern(closingTagBuffer, false);
+                    releaseBuffer(closingTagBuffer);
                     if(eventParser) {
                         endTag(closingTag);
+                        if(eventDepth > 0) {
+                            return;
+                        }
                     }
 
                     if(element != null) {
@@ -426,28 +625,30 @@ public class XMLParser {
                         element.addChild(childElement);
                     }
                 }
-            } else if (text!=null) {
-                if (charEntity!=null) {
+            } else if (hasText) {
+                if (inCharEntity) {
                     if (c==';') { //end
-                        text+=convertCharEntity(charEntity);
-                        charEntity=null;
+                        text.append(convertCharEntity(charEntity.toString()));
+                        inCharEntity=false;
                     } else if (isLegalCharEntityCharacter(c)) {
-                        charEntity+=c;
+                        charEntity.append(c);
                     } else {
-                        text+="&"+charEntity+c;
-                        charEntity=null;
+                        text.append('&').append(charEntity).append(c);
+                        inCharEntity=false;
                     }
                 } else if (c=='&') { //start char entity
-                    charEntity=""; // The & is not included in the string we accumulate
+                    inCharEntity=true;
+                    charEntity.setLength(0);
                 } else {
-                    text+=c;
+                    text.append(c);
                 }
             } else if (!isWhiteSpace(c)) {
+                hasText=true;
                 if (c=='&') { //text starts with a character entity (i.e. &nbsp;)
-                    charEntity=""; // The & is not included in the string we accumulate
-                    text=""; //Initalize text so it won't be null
+                    inCharEntity=true;
+                    charEntity.setLength(0);
                 } else {
-                    text=""+c;
+                    text.append(c);
                 }
             } else { // leading space is relevant also for newline and other whitespaces //if (c==' ') {
                 leadingSpace=true;
@@ -477,9 +678,22 @@ public class XMLParser {
      * @throws IOException if an I/O error in the stream is encountered
      */
     protected Element parseTag(Reader is) throws IOException {
-        String tagName="";
-        String curAttribute="";
-        String curValue="";
+        StringBuffer name=acquireBuffer();
+        StringBuffer value=acquireBuffer();
+        StringBuffer charEntity=acquireBuffer();
+        try {
+            return parseTag(is, name, value, charEntity);
+        } finally {
+            releaseBuffer(name);
+            releaseBuffer(value);
+            releaseBuffer(charEntity);
+        }
+    }
+
+    private Element parseTag(Reader is,StringBuffer name,StringBuffer value,StringBuffer charEntity) throws IOException {
+        String tagName;
+        String curAttribute=null;
+        String curValue=null;
         //boolean procInst=false; // Support for the styleshhet processing instruction was removed, as it is not supported in most browsers, and it causes problems by adding tags before the HTML element (Makign the document with multiple roots)
 
         char c=(char)is.read();
@@ -520,8 +734,8 @@ public class XMLParser {
         }
 
         //collect tag name
-        while ((!isWhiteSpace(c)) && (c!='>') && (c!='/')) {
-            tagName+=c;
+        while ((!isWhiteSpace(c)) && (c!='>') && (c!='/') && (c!=EOF)) {
+            name.append(c);
             c=(char)is.read();
         }
 
@@ -532,9 +746,9 @@ public class XMLParser {
 
         boolean processTag = true;
         if(eventParser) {
-            processTag = startTag(tagName);
+            processTag = startTag(intern(name, false));
         }
-        tagName=tagName.toLowerCase();
+        tagName=intern(name, true);
         // We do not support any processing instructions
         /*if (procInst) {
             if (tagName.equals("xml-stylesheet")) { // The XML processing instruction <?xml-stylesheet ... ?> has the same parameters as <link .. > and behaves the same way
@@ -560,7 +774,7 @@ public class XMLParser {
                 // If tag is not supported we skip it all till the closing tag.
                 // This is especially important for the script tag which may contain '<' and '>' which might confuse the parser
                 char lastChar=c;
-                while (c!='>') { // Read till the end of the tag
+                while ((c!='>') && (c!=EOF)) { // Read till the end of the tag
                     lastChar=c;
                     c=(char)is.read();
                 }
@@ -569,6 +783,9 @@ public class XMLParser {
                     int index=0;
                     while(index<endTag.length()) {
                         c=(char)is.read();
+                        if (c==EOF) {
+                            break;
+                        }
 
                         if ((c>='A') && (c<='Z')) {
                             c=(char)(c-'A'+'a');
@@ -587,7 +804,7 @@ public class XMLParser {
 
         if (c=='>') { //tag declartion ended, process content
             if (!isEmptyTag(tagName)) {
-                parseTagContent(element, is);
+                parseContent(element, is);
             }
             return element;
         } else if (c=='/') { // || ((procInst) && (c=='?'))) { //closed tag - no content
@@ -603,18 +820,21 @@ public class XMLParser {
         }
 
 
-        while(true) {
-            curAttribute=""+c;
+        while(c!=EOF) {
+            name.setLength(0);
+            value.setLength(0);
+            name.append(c);
             c=(char)is.read();
-            while ((!isWhiteSpace(c)) && (c!='=') && (c!='>')) {
-                curAttribute+=c;
+            while ((!isWhiteSpace(c)) && (c!='=') && (c!='>') && (c!=EOF)) {
+                name.append(c);
                 c=(char)is.read();
             }
+            curAttribute=intern(name, false);
 
             if (c=='>') { // tag close char shouldn't be found here, but if the XML is slightly malformed we return the element
                 notifyError(ParserCallback.ERROR_UNEXPECTED_TAG_CLOSING, tagName,curAttribute,null, "Unexpected tag closing in tag "+tagName+", attribute="+curAttribute);
                 if (!isEmptyTag(tagName)) {
-                    parseTagContent(element, is);
+                    parseContent(element, is);
                 }
                 return element;
             }
@@ -628,7 +848,7 @@ public class XMLParser {
                 notifyError(ParserCallback.ERROR_UNEXPECTED_CHARACTER, tagName, curAttribute, null, "Unexpected character "+c+", expected '=' after attribute "+curAttribute+" in tag "+tagName);
                 if (c=='>') { // tag close char shouldn't be found here, but if the XML is slightly malformed we return the element
                     if (!isEmptyTag(tagName)) {
-                        parseTagContent(element, is);
+                        parseContent(element, is);
                     }
                     return element;
                 }
@@ -649,49 +869,53 @@ public class XMLParser {
             if ((c=='"') || (c=='\'')) {
                 quote=c;
             } else {
-                curValue+=c;
+                value.append(c);
             }
 
-            String charEntity=null;
+            boolean inCharEntity=false;
             boolean ended=false;
             while (!ended) {
                 c=(char)is.read();
+                if (c==EOF) {
+                    break;
+                }
                 if (c==quote) {
                     ended=true;
                     c=(char)is.read();
                 } else if ((quote==' ') && ((c=='/') || (c=='>') || (isWhiteSpace(c)))) {
                     ended=true;
                 } else if (c=='&') {
-                    if (charEntity!=null) {
-                        curValue+="&"+charEntity; // Wasn't a char entit, probably a url as a parameter : i.e. param="/test?p=val&pw=val2&p3=val3
+                    if (inCharEntity) {
+                        value.append('&').append(charEntity); // Wasn't a char entit, probably a url as a parameter : i.e. param="/test?p=val&pw=val2&p3=val3
                     }
-                    charEntity="";
+                    inCharEntity=true;
+                    charEntity.setLength(0);
                 } else {
-                    if (charEntity!=null) {
+                    if (inCharEntity) {
                         if (c==';') {
-                            curValue+=convertCharEntity(charEntity);
-                            charEntity=null;
+                            value.append(convertCharEntity(charEntity.toString()));
+                            inCharEntity=false;
                         } else if (isLegalCharEntityCharacter(c)) {
-                            charEntity+=c;
+                            charEntity.append(c);
                         } else {
-                            curValue+="&"+charEntity+c;
-                            charEntity=null;
+                            value.append('&').append(charEntity).append(c);
+                            inCharEntity=false;
                         }
                     } else {
-                        curValue+=c;
+                        value.append(c);
                     }
                 }
             }
 
-            if (charEntity!=null) { // Mistaken something else for a char entity - for example an action which is action="http://domain/test.html?param1=val1&param2=val2"
-                curValue+="&"+charEntity;
-                charEntity=null;
+            if (inCharEntity) { // Mistaken something else for a char entity - for example an action which is action="http://domain/test.html?param1=val1&param2=val2"
+                value.append('&').append(charEntity);
             }
+            curValue=value.toString();
 
             if(eventParser) {
                 attribute(tagName, curAttribute, curValue);
             } else {
-                curAttribute=curAttribute.toLowerCase();
+                curAttribute=intern(name, true);
                 int error=element.setAttribute(curAttribute, curValue);
 
                 if (error==ParserCallback.ERROR_ATTRIBUTE_NOT_SUPPORTED) {
@@ -709,7 +933,7 @@ public class XMLParser {
 
             if (c=='>') { //tag declartion ended, process content
                 if (!isEmptyTag(tagName)) {
-                    parseTagContent(element, is);
+                    parseContent(element, is);
                 }
                 return element;
             } else if (c=='/') { // || ((procInst) && (c=='?'))) { //closed tag - no content
@@ -720,12 +944,25 @@ public class XMLParser {
                     notifyError(ParserCallback.ERROR_UNEXPECTED_CHARACTER, tagName, curAttribute, curValue, "XML malformed - no > after /");
                 }
             }
+        }
+        return element;
+    }
 
-            curAttribute="";
-            curValue="";
-
+    /**
+     * Parses the content of a tag, the event parser tracks the nesting so the
+     * content parsing returns at the matching closing tag
+     */
+    private void parseContent(Element element,Reader is) throws IOException {
+        if(!eventParser) {
+            parseTagContent(element, is);
+            return;
+        }
+        eventDepth++;
+        try {
+            parseTagContent(element, is);
+        } finally {
+            eventDepth--;
         }
-        
     }
 
     /**
@@ -740,10 +977,15 @@ public class XMLParser {
      */
     protected Element parseCommentOrXMLDeclaration(Reader is,String endTag) throws IOException {
         int endTagPos=0;
-        String text="";
+        // the event parser only needs the content of CDATA sections
+        boolean collect=!eventParser || endTag.equals("]]>");
+        StringBuffer textBuffer=acquireBuffer();
         boolean ended=false;
         while (!ended) {
             char c=(char)is.read();
+            if (c==EOF) {
+                break;
+            }
             if (c==endTag.charAt(endTagPos)) {
                 endTagPos++;
                 if (endTagPos==endTag.length()) {
@@ -751,12 +993,20 @@ public class XMLParser {
                 }
             } else {
                 if (endTagPos!=0) { //add - or -- if it wasn't an end tag eventually
-                    text+=endTag.substring(0, endTagPos);
+                    if (collect) {
+                        for(int i=0;i<endTagPos;i++) {
+                            textBuffer.append(endTag.charAt(i));
+                        }
+                    }
                     endTagPos=0;
                 }
-                text+=c;
+                if (collect) {
+                    textBuffer.append(c);
+                }
             }
         }
+        String text=textBuffer.toString();
+        releaseBuffer(textBuffer);
 
         String elementName=null;
         if (endTag.equals("-->")) {